@@ -0,0 +1,121 @@
+package hr.fer.zemris.zavrsni.iot.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Class contains methods for making messages used by benchmarks. Every ID is 8
+ * characters long, as in messages from real clients and simulator.
+ *
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+final class BenchmarkMessages {
+
+	/** Previous message ID of messages without previous message. */
+	static final String NO_PREVIOUS = "00000000";
+
+	/** Private constructor for stoping instantiation. */
+	private BenchmarkMessages() {
+	}
+
+	/**
+	 * Method for making ID from number.
+	 *
+	 * @param number
+	 *            number, only lower 32 bits are used
+	 * @return 8 hexadecimal digits
+	 */
+	static String id(long number) {
+		return String.format("%08X", number & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Method for making destination ID, destinations are numbered from 0.
+	 *
+	 * @param index
+	 *            index of destination
+	 * @return destination ID
+	 */
+	static String destination(int index) {
+		return String.format("D%07d", index);
+	}
+
+	/**
+	 * Method for making JSON data of given length.
+	 *
+	 * @param length
+	 *            number of characters, at least 12
+	 * @return JSON object with one string value
+	 */
+	static String json(int length) {
+		StringBuilder sb = new StringBuilder(length);
+		sb.append("{\"value\":\"");
+		while (sb.length() < length - 2)
+			sb.append((char) ('a' + sb.length() % 26));
+		return sb.append("\"}").toString();
+	}
+
+	/**
+	 * Method for making line which client sends.
+	 *
+	 * @param number
+	 *            number of message
+	 * @param srcID
+	 *            source thing ID
+	 * @param destID
+	 *            destination thing ID
+	 * @param json
+	 *            JSON data
+	 * @return client line
+	 */
+	static String clientLine(long number, String srcID, String destID, String json) {
+		return clientLine(id(number), srcID, destID, json);
+	}
+
+	/**
+	 * Method for making line which client sends.
+	 *
+	 * @param messageID
+	 *            message ID
+	 * @param srcID
+	 *            source thing ID
+	 * @param destID
+	 *            destination thing ID
+	 * @param json
+	 *            JSON data
+	 * @return client line
+	 */
+	static String clientLine(String messageID, String srcID, String destID, String json) {
+		return "0" + messageID + srcID + destID + NO_PREVIOUS + json;
+	}
+
+	/**
+	 * Method for making messages with different IDs. Messages go to given
+	 * number of destinations in turn.
+	 *
+	 * @param count
+	 *            number of messages
+	 * @param firstNumber
+	 *            number of the first message
+	 * @param srcID
+	 *            source thing ID
+	 * @param destinations
+	 *            number of destinations
+	 * @param jsonLength
+	 *            length of JSON data of every message
+	 * @return messages
+	 */
+	static List<Message> messages(int count, long firstNumber, String srcID, int destinations, int jsonLength) {
+		String json = json(jsonLength);
+		String[] destIDs = new String[destinations];
+		for (int i = 0; i < destinations; ++i)
+			destIDs[i] = destination(i);
+		List<Message> messages = new ArrayList<>(count);
+		for (int i = 0; i < count; ++i)
+			messages.add(new Message(id(firstNumber + i), srcID, destIDs[i % destinations], json, NO_PREVIOUS, 0));
+		return messages;
+	}
+}
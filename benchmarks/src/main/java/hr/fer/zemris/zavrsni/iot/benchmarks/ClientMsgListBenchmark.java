@@ -0,0 +1,140 @@
+package hr.fer.zemris.zavrsni.iot.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hr.fer.zemris.zavrsni.iot.client.ClientMsgList;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Benchmarks of {@link ClientMsgList} with given number of messages already
+ * waiting in it. List is singleton, so every number of queued messages runs in
+ * its own JVM. Queue is big enough for all queued messages and it rejects
+ * messages when it is full, so producers never wait for consumers which are
+ * already stopped.
+ *
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Diot.client.queue.capacity=2097152",
+		"-Diot.client.queue.policy=reject" })
+public class ClientMsgListBenchmark {
+
+	/** Number of messages of every producer, more than list remembers for suppressing duplicates. */
+	private static final int POOL_SIZE = 1 << 18;
+	/** Length of JSON data of every message. */
+	private static final int JSON_LENGTH = 64;
+
+	/** Number of messages in list before benchmark. */
+	@Param({ "1000", "100000", "1000000" })
+	public int queued;
+
+	/** Method for filling list before benchmark. */
+	@Setup(Level.Trial)
+	public void setUp() {
+		ClientMsgList list = ClientMsgList.getInstance();
+		while (list.popFirstMessage() != null)
+			;
+		list.addAllMessages(BenchmarkMessages.messages(queued, 0, "QUEUED00", 1, JSON_LENGTH));
+	}
+
+	/**
+	 * Messages of one thread. Messages are used in turn and there are more of
+	 * them than list remembers for suppressing duplicates, so every added
+	 * message is stored.
+	 *
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	@State(Scope.Thread)
+	public static class Producer {
+		/** Counter for giving every thread its own source ID. */
+		private static final AtomicInteger THREADS = new AtomicInteger();
+
+		/** Messages which are added. */
+		private Message[] messages;
+		/** Index of next message. */
+		private int next;
+
+		/** Method for making messages before benchmark. */
+		@Setup(Level.Trial)
+		public void setUp() {
+			String srcID = String.format("PROD%04d", THREADS.getAndIncrement());
+			List<Message> list = BenchmarkMessages.messages(POOL_SIZE, 0, srcID, 1, JSON_LENGTH);
+			messages = list.toArray(new Message[0]);
+		}
+
+		/**
+		 * Method for getting next message.
+		 *
+		 * @return message
+		 */
+		Message next() {
+			Message message = messages[next];
+			next = (next + 1) & (POOL_SIZE - 1);
+			return message;
+		}
+	}
+
+	/**
+	 * Adding one message and taking first message, so number of queued
+	 * messages stays the same.
+	 *
+	 * @param producer
+	 *            messages of current thread
+	 * @return taken message
+	 */
+	@Benchmark
+	public Message addAndPop(Producer producer) {
+		ClientMsgList.getInstance().addMessage(producer.next());
+		return ClientMsgList.getInstance().popFirstMessage();
+	}
+
+	/**
+	 * Adding messages from more threads while one thread takes them, as
+	 * thread which sends messages to simulator does.
+	 *
+	 * @param producer
+	 *            messages of current thread
+	 * @return false if message is rejected, otherwise true
+	 */
+	@Benchmark
+	@Group("producersConsumers")
+	@GroupThreads(3)
+	public boolean produce(Producer producer) {
+		return ClientMsgList.getInstance().addMessage(producer.next());
+	}
+
+	/**
+	 * Taking messages while other threads add them.
+	 *
+	 * @return taken message or null if list is empty
+	 */
+	@Benchmark
+	@Group("producersConsumers")
+	@GroupThreads(1)
+	public Message consume() {
+		return ClientMsgList.getInstance().popFirstMessage();
+	}
+}
@@ -0,0 +1,313 @@
+package hr.fer.zemris.zavrsni.iot.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Simulator stand-in for {@link LoadGenerator}. It receives datagrams which
+ * server sends to simulator and sends datagrams to server for virtual
+ * devices, in the same format as real simulator.
+ *
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+final class FakeSimulator implements Closeable, Runnable {
+
+	/** ID of the simulator thing. */
+	static final String SIMULATOR_ID = "SIM00001";
+	/** Number of characters of every ID. */
+	private static final int ID_LENGTH = 8;
+	/** Maximal size of received datagram. */
+	private static final int MAX_DATAGRAM = 65536;
+	/** Inner flags of message without previous message ID. */
+	private static final int FLAG_NO_PREVIOUS = 4;
+	/** Inner flags of message with previous message ID. */
+	private static final int FLAG_PREVIOUS = 12;
+
+	/** Channel on which simulator receives and from which it sends. */
+	private final DatagramChannel channel;
+	/** Address on which server receives simulator datagrams. */
+	private final SocketAddress server;
+	/** Tracker of messages from devices to simulator. */
+	private final LatencyTracker upstream;
+	/** Tracker of messages from simulator to devices. */
+	private final LatencyTracker downstream;
+	/** Number of devices. */
+	private final int devices;
+	/** JSON data of sent messages. */
+	private final String json;
+	/** Buffer for sending datagrams, used only by sending thread. */
+	private final ByteBuffer sendBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+	/** Number of received datagrams which couldn't be parsed. */
+	private final AtomicLong invalid = new AtomicLong();
+	/** Number of datagrams which couldn't be sent. */
+	private final AtomicLong failed = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param port
+	 *            port on which simulator receives datagrams from server
+	 * @param server
+	 *            address on which server receives simulator datagrams
+	 * @param upstream
+	 *            tracker of messages from devices to simulator
+	 * @param downstream
+	 *            tracker of messages from simulator to devices
+	 * @param devices
+	 *            number of devices
+	 * @param json
+	 *            JSON data of sent messages
+	 * @throws IOException
+	 *             if channel can't be opened
+	 */
+	FakeSimulator(int port, SocketAddress server, LatencyTracker upstream, LatencyTracker downstream, int devices,
+			String json) throws IOException {
+		this.channel = DatagramChannel.open();
+		this.channel.bind(new InetSocketAddress(port));
+		this.server = server;
+		this.upstream = upstream;
+		this.downstream = downstream;
+		this.devices = devices;
+		this.json = json;
+	}
+
+	/**
+	 * Method for sending message to device. Device gets message with its
+	 * sequence number modulo number of devices. Lengths have as many digits
+	 * as they need and previous message ID is always present, as in messages
+	 * of real simulator.
+	 *
+	 * @param seq
+	 *            sequence number
+	 * @param time
+	 *            time when message should be sent, as
+	 *            {@link System#nanoTime()}
+	 */
+	void send(int seq, long time) {
+		String body = downstream.idOf(seq) + SIMULATOR_ID + VirtualDevices.deviceID(seq % devices)
+				+ BenchmarkMessages.NO_PREVIOUS + json;
+		int bodyChars = body.length();
+		String bodyLength = decimal(bodyChars);
+		int innerChars = 2 + bodyLength.length() + bodyChars;
+		String frame = "\u0000\u0000" + decimal(innerChars) + "\u000C\u0080" + bodyLength + body;
+		sendBuffer.clear();
+		sendBuffer.put(frame.getBytes(StandardCharsets.UTF_8)).flip();
+		downstream.sent(seq, time);
+		try {
+			channel.send(sendBuffer, server);
+		} catch (IOException e) {
+			failed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Method for receiving datagrams until channel is closed.
+	 */
+	@Override
+	public void run() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+		List<String[]> received = new ArrayList<>();
+		while (true) {
+			buffer.clear();
+			try {
+				channel.receive(buffer);
+			} catch (AsynchronousCloseException e) {
+				return;
+			} catch (IOException e) {
+				if (!channel.isOpen())
+					return;
+				continue;
+			}
+			long now = System.nanoTime();
+			buffer.flip();
+			received.clear();
+			if (!parseDatagram(buffer, received))
+				invalid.incrementAndGet();
+			for (String[] ids : received) {
+				if (SIMULATOR_ID.equals(ids[2]))
+					upstream.received(ids[0], now);
+			}
+		}
+	}
+
+	/**
+	 * Method for reading IDs of all messages in datagram sent by server.
+	 * Datagram has outer flags and outer length followed by one or more inner
+	 * frames. Lengths have as many digits as they need. Message ID can start
+	 * with digits, so length of body is found as the number after which body
+	 * ends at the end of datagram or at inner flags of the next frame (sent
+	 * messages have only ASCII characters).
+	 *
+	 * @param buffer
+	 *            received datagram
+	 * @param ids
+	 *            list to which message ID, source ID and destination ID of
+	 *            every message are added
+	 * @return true if datagram is valid, otherwise false
+	 */
+	private static boolean parseDatagram(ByteBuffer buffer, List<String[]> ids) {
+		// outer flags are two zero bytes
+		if (buffer.remaining() < 2)
+			return false;
+		buffer.position(buffer.position() + 2);
+		if (!skipOuterLength(buffer))
+			return false;
+		while (buffer.hasRemaining()) {
+			// inner flags are one byte and one character encoded with two bytes
+			if (!isInnerFlags(buffer, buffer.position()))
+				return false;
+			buffer.position(buffer.position() + 3);
+			int end = skipBodyLength(buffer);
+			if (end < 0 || end - buffer.position() < 3 * ID_LENGTH)
+				return false;
+			ids.add(readIDs(buffer));
+			buffer.position(end);
+		}
+		return !ids.isEmpty();
+	}
+
+	/**
+	 * Method for reading message ID, source ID and destination ID.
+	 *
+	 * @param buffer
+	 *            buffer whose position is at the message ID
+	 * @return message ID, source ID and destination ID
+	 */
+	private static String[] readIDs(ByteBuffer buffer) {
+		String[] ids = new String[3];
+		byte[] id = new byte[ID_LENGTH];
+		for (int i = 0; i < ids.length; ++i) {
+			buffer.get(id);
+			ids[i] = new String(id, StandardCharsets.UTF_8);
+		}
+		return ids;
+	}
+
+	/**
+	 * Method for checking if byte is decimal digit.
+	 *
+	 * @param b
+	 *            byte
+	 * @return true if byte is digit, otherwise false
+	 */
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	/**
+	 * Method for checking if inner flags start at given position.
+	 *
+	 * @param buffer
+	 *            buffer with datagram
+	 * @param position
+	 *            position in buffer
+	 * @return true if inner flags are at position, otherwise false
+	 */
+	private static boolean isInnerFlags(ByteBuffer buffer, int position) {
+		if (position + 3 > buffer.limit())
+			return false;
+		int flags = buffer.get(position);
+		return flags == FLAG_PREVIOUS || flags == FLAG_NO_PREVIOUS;
+	}
+
+	/**
+	 * Method for skipping outer length, which is equal to number of
+	 * characters after it (inner flags have one character encoded with two
+	 * bytes).
+	 *
+	 * @param buffer
+	 *            buffer whose position is at the length
+	 * @return true if length is found, otherwise false
+	 */
+	private static boolean skipOuterLength(ByteBuffer buffer) {
+		int start = buffer.position();
+		int chars = 0;
+		for (int i = start; i < buffer.limit(); ++i) {
+			if ((buffer.get(i) & 0xC0) != 0x80)
+				++chars;
+		}
+		long value = 0;
+		for (int digits = 1; digits <= 10 && start + digits <= buffer.limit(); ++digits) {
+			byte b = buffer.get(start + digits - 1);
+			if (!isDigit(b))
+				return false;
+			value = value * 10 + b - '0';
+			if (digits >= 2 && value == chars - digits) {
+				buffer.position(start + digits);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Method for skipping length of body. Length is the shortest number after
+	 * which body ends at the end of datagram or at inner flags of the next
+	 * frame.
+	 *
+	 * @param buffer
+	 *            buffer whose position is at the length
+	 * @return index at which body ends or -1 if length is not found
+	 */
+	private static int skipBodyLength(ByteBuffer buffer) {
+		int start = buffer.position();
+		int limit = buffer.limit();
+		long value = 0;
+		for (int digits = 1; digits <= 10 && start + digits <= limit; ++digits) {
+			byte b = buffer.get(start + digits - 1);
+			if (!isDigit(b))
+				return -1;
+			value = value * 10 + b - '0';
+			long end = start + digits + value;
+			if (digits >= 2 && (end == limit || end < limit && isInnerFlags(buffer, (int) end))) {
+				buffer.position(start + digits);
+				return (int) end;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Method for writing length field.
+	 *
+	 * @param value
+	 *            length
+	 * @return length with at least two digits
+	 */
+	private static String decimal(int value) {
+		return value < 10 ? "0" + value : Integer.toString(value);
+	}
+
+	/**
+	 * Getter for number of received datagrams which couldn't be parsed.
+	 *
+	 * @return number of datagrams
+	 */
+	long getInvalid() {
+		return invalid.get();
+	}
+
+	/**
+	 * Getter for number of datagrams which couldn't be sent.
+	 *
+	 * @return number of datagrams
+	 */
+	long getFailed() {
+		return failed.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,77 @@
+package hr.fer.zemris.zavrsni.iot.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Benchmarks of reading routing fields from JSON data of message. Fields which
+ * are read come after nested object of given length, which has to be skipped.
+ *
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonScannerBenchmark {
+
+	/** Length of nested object before routing fields. */
+	@Param({ "16", "256", "4096" })
+	public int jsonLength;
+
+	/** Message with routing fields. */
+	private Message message;
+
+	/** Method for making message before benchmark. */
+	@Setup
+	public void setUp() {
+		String json = "{\"DATA\":" + BenchmarkMessages.json(jsonLength) + ", \"CMD\":\"GET\", \"SENSOR\":[\"GPS\"]}";
+		message = Message.parseClientMessage(BenchmarkMessages.clientLine(1, "DEV00001", "SIM00001", json));
+	}
+
+	/**
+	 * Checking command of message.
+	 *
+	 * @return true if command is GET
+	 */
+	@Benchmark
+	public boolean commandEquals() {
+		return message.jsonFieldEquals("CMD", "GET");
+	}
+
+	/**
+	 * Checking sensors of message.
+	 *
+	 * @return true if GPS is one of sensors
+	 */
+	@Benchmark
+	public boolean sensorContains() {
+		return message.jsonArrayContains("SENSOR", "GPS");
+	}
+
+	/**
+	 * Reading command of message.
+	 *
+	 * @return command
+	 */
+	@Benchmark
+	public String getCommand() {
+		return message.getJsonField("CMD");
+	}
+}
@@ -0,0 +1,150 @@
+package hr.fer.zemris.zavrsni.iot.benchmarks;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import hr.fer.zemris.zavrsni.iot.metrics.Histogram;
+import hr.fer.zemris.zavrsni.iot.metrics.Metrics;
+
+/**
+ * Tracker of messages sent in one direction by {@link LoadGenerator}. Every
+ * message has sequence number which is part of its message ID, so receiver
+ * finds time when message was sent without any map. Message IDs start at
+ * random number, so server doesn't take messages of previous run as
+ * duplicates.
+ *
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+final class LatencyTracker {
+
+	/** Send time of message which was already received. */
+	private static final long RECEIVED = Long.MIN_VALUE;
+
+	/** Name of the direction. */
+	private final String name;
+	/** Number which is added to sequence number in message ID. */
+	private final long base = ThreadLocalRandom.current().nextLong(1L << 32);
+	/** Send times by sequence number, 0 for messages which are not sent. */
+	private final AtomicLongArray sendTimes;
+	/** Time from sending to receiving message. */
+	private final Histogram latency;
+	/** Number of sent messages. */
+	private final AtomicLong sent = new AtomicLong();
+	/** Number of received messages. */
+	private final AtomicLong received = new AtomicLong();
+	/** Number of messages received more than once. */
+	private final AtomicLong duplicates = new AtomicLong();
+	/** Number of received messages which were not sent in this run. */
+	private final AtomicLong unknown = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param name
+	 *            name of the direction
+	 * @param capacity
+	 *            maximal number of sent messages
+	 */
+	LatencyTracker(String name, int capacity) {
+		this.name = name;
+		this.sendTimes = new AtomicLongArray(Math.max(1, capacity));
+		this.latency = Metrics.histogram("load." + name);
+	}
+
+	/**
+	 * Method for getting message ID of message with given sequence number.
+	 *
+	 * @param seq
+	 *            sequence number
+	 * @return message ID
+	 */
+	String idOf(int seq) {
+		return BenchmarkMessages.id(base + seq);
+	}
+
+	/**
+	 * Method for getting maximal number of sent messages.
+	 *
+	 * @return capacity
+	 */
+	int capacity() {
+		return sendTimes.length();
+	}
+
+	/**
+	 * Method for recording sent message.
+	 *
+	 * @param seq
+	 *            sequence number
+	 * @param time
+	 *            time when message was sent, as {@link System#nanoTime()}
+	 */
+	void sent(int seq, long time) {
+		sendTimes.set(seq, time);
+		sent.incrementAndGet();
+	}
+
+	/**
+	 * Method for recording received message.
+	 *
+	 * @param messageID
+	 *            ID of received message
+	 * @param time
+	 *            time when message was received, as {@link System#nanoTime()}
+	 */
+	void received(String messageID, long time) {
+		long seq;
+		try {
+			seq = (Long.parseLong(messageID, 16) - base) & 0xFFFFFFFFL;
+		} catch (NumberFormatException e) {
+			unknown.incrementAndGet();
+			return;
+		}
+		if (seq >= sendTimes.length()) {
+			unknown.incrementAndGet();
+			return;
+		}
+		long sendTime = sendTimes.getAndSet((int) seq, RECEIVED);
+		if (sendTime == RECEIVED) {
+			duplicates.incrementAndGet();
+		} else if (sendTime == 0) {
+			sendTimes.set((int) seq, 0);
+			unknown.incrementAndGet();
+		} else {
+			latency.record(time - sendTime);
+			received.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Method for checking if all sent messages are received.
+	 *
+	 * @return true if all messages are received, otherwise false
+	 */
+	boolean allReceived() {
+		return received.get() >= sent.get();
+	}
+
+	/**
+	 * Method for making report of the direction.
+	 *
+	 * @param seconds
+	 *            time in which messages were sent
+	 * @return report
+	 */
+	String report(double seconds) {
+		long sentCount = sent.get();
+		long receivedCount = received.get();
+		return String.format(
+				"%s: sent %d, received %d, lost %d (%.3f%%), duplicates %d, unknown %d, throughput %.1f msg/s%n"
+						+ "    latency us: mean %d, p50 %d, p99 %d, p999 %d, max %d",
+				name, sentCount, receivedCount, sentCount - receivedCount,
+				sentCount == 0 ? 0.0 : 100.0 * (sentCount - receivedCount) / sentCount, duplicates.get(),
+				unknown.get(), receivedCount / seconds, latency.getMean(TimeUnit.MICROSECONDS),
+				latency.getPercentile(50, TimeUnit.MICROSECONDS), latency.getPercentile(99, TimeUnit.MICROSECONDS),
+				latency.getPercentile(99.9, TimeUnit.MICROSECONDS), latency.getMax(TimeUnit.MICROSECONDS));
+	}
+}
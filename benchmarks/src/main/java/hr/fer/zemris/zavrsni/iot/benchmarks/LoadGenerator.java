@@ -0,0 +1,182 @@
+package hr.fer.zemris.zavrsni.iot.benchmarks;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+
+/**
+ * Load generator which sends traffic to running {@code MainServer} from both
+ * sides. Virtual devices send client messages to simulator over TCP and
+ * {@link FakeSimulator} receives them over UDP; at the same time simulator
+ * sends messages to devices, which devices get with their next request. At
+ * the end throughput, latency and loss of both directions are written.
+ * <p>
+ * Command line arguments are: server host, server client port, server
+ * simulator port and port of fake simulator. Server must send simulator
+ * messages to fake simulator, for example:
+ *
+ * <pre>
+ * java -jar iot-thingy-server.jar 25000 20000 127.0.0.1 20001
+ * java -cp benchmarks.jar hr.fer.zemris.zavrsni.iot.benchmarks.LoadGenerator 127.0.0.1 25000 20000 20001
+ * </pre>
+ *
+ * Messages are sent at fixed rate and latency is measured from time when
+ * message should have been sent, so slow server doesn't hide its own delays
+ * by slowing down the generator. Settings:
+ *
+ * <pre>
+ * iot.load.devices          - number of virtual devices (default 1000)
+ * iot.load.rate             - messages per second from devices to simulator (default 1000)
+ * iot.load.simulator.rate   - messages per second from simulator to devices (default 1000)
+ * iot.load.duration         - time of sending in seconds (default 30)
+ * iot.load.drain            - time in seconds for which late messages are waited for (default 5); in that
+ *                             time every device asks for its messages twice a second
+ * iot.load.json             - length of JSON data of every message (default 64)
+ * iot.load.connections      - maximal number of device requests at the same time (default 64)
+ * </pre>
+ *
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class LoadGenerator {
+
+	/** Time between rounds of requests from all devices while waiting for late messages, in milliseconds. */
+	private static final long DRAIN_ROUND = 500;
+
+	/** Private constructor for stoping instantiation. */
+	private LoadGenerator() {
+	}
+
+	/**
+	 * Main method.
+	 *
+	 * @param args
+	 *            server host, server client port, server simulator port and
+	 *            port of fake simulator
+	 * @throws Exception
+	 *             if generator can't be started
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length != 4) {
+			System.err.println("Usage: LoadGenerator <server host> <client port> <simulator port> <fake simulator port>");
+			return;
+		}
+		String host = args[0];
+		int clientPort = Integer.parseInt(args[1]);
+		int simulatorPort = Integer.parseInt(args[2]);
+		int fakeSimulatorPort = Integer.parseInt(args[3]);
+
+		int devices = Math.max(1, Configuration.getInt("iot.load.devices", 1000));
+		int rate = Math.max(0, Configuration.getInt("iot.load.rate", 1000));
+		int simulatorRate = Math.max(0, Configuration.getInt("iot.load.simulator.rate", 1000));
+		int duration = Math.max(1, Configuration.getInt("iot.load.duration", 30));
+		int drain = Math.max(0, Configuration.getInt("iot.load.drain", 5));
+		String json = BenchmarkMessages.json(Math.max(12, Configuration.getInt("iot.load.json", 64)));
+		int connections = Math.max(1, Configuration.getInt("iot.load.connections", 64));
+
+		final LatencyTracker upstream = new LatencyTracker("device-to-simulator", rate * duration);
+		final LatencyTracker downstream = new LatencyTracker("simulator-to-device", simulatorRate * duration);
+		final FakeSimulator simulator = new FakeSimulator(fakeSimulatorPort,
+				new InetSocketAddress(host, simulatorPort), upstream, downstream, devices, json);
+		final VirtualDevices virtualDevices = new VirtualDevices(new InetSocketAddress(host, clientPort), upstream,
+				downstream, devices, json, connections);
+		Thread receiver = new Thread(simulator, "fake-simulator");
+		receiver.setDaemon(true);
+		receiver.start();
+
+		System.out.println("Sending " + rate + " msg/s from " + devices + " devices and " + simulatorRate
+				+ " msg/s from simulator for " + duration + " s");
+		long start = System.nanoTime();
+		Thread devicePacer = pace("device-pacer", rate, upstream.capacity(), start, new PacedTask() {
+			@Override
+			public void run(int seq, long time) {
+				virtualDevices.send(seq, time);
+			}
+		});
+		Thread simulatorPacer = pace("simulator-pacer", simulatorRate, downstream.capacity(), start,
+				new PacedTask() {
+					@Override
+					public void run(int seq, long time) {
+						simulator.send(seq, time);
+					}
+				});
+		devicePacer.join();
+		simulatorPacer.join();
+		double seconds = (System.nanoTime() - start) / 1e9;
+
+		// devices get messages only with their requests, so they keep asking while messages are late
+		long drainEnd = System.nanoTime() + TimeUnit.SECONDS.toNanos(drain);
+		while (System.nanoTime() < drainEnd && !(upstream.allReceived() && downstream.allReceived())) {
+			if (!downstream.allReceived()) {
+				for (int device = 0; device < devices; ++device)
+					virtualDevices.poll(device);
+			}
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(DRAIN_ROUND));
+		}
+		virtualDevices.shutdown(TimeUnit.SECONDS.toMillis(drain + 10));
+		simulator.close();
+
+		System.out.println(upstream.report(seconds));
+		System.out.println(downstream.report(seconds));
+		System.out.println("device requests: rejected " + virtualDevices.getRejected() + ", busy "
+				+ virtualDevices.getBusy() + ", failed " + virtualDevices.getFailed() + "; simulator datagrams: "
+				+ "invalid " + simulator.getInvalid() + ", failed " + simulator.getFailed());
+	}
+
+	/**
+	 * Method for starting thread which runs task at fixed rate. Task gets
+	 * sequence number and time when it should have been run.
+	 *
+	 * @param name
+	 *            name of the thread
+	 * @param rate
+	 *            number of runs per second, 0 for no runs
+	 * @param count
+	 *            number of runs
+	 * @param start
+	 *            time of the first run, as {@link System#nanoTime()}
+	 * @param task
+	 *            task
+	 * @return started thread
+	 */
+	private static Thread pace(String name, final int rate, final int count, final long start,
+			final PacedTask task) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				if (rate == 0)
+					return;
+				for (int seq = 0; seq < count; ++seq) {
+					long time = start + (long) (seq * 1e9 / rate);
+					long wait = time - System.nanoTime();
+					if (wait > 0)
+						LockSupport.parkNanos(wait);
+					task.run(seq, time);
+				}
+			}
+		}, name);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Task which is run at fixed rate.
+	 *
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private interface PacedTask {
+
+		/**
+		 * Method for running task once.
+		 *
+		 * @param seq
+		 *            sequence number of run
+		 * @param time
+		 *            time when task should have been run
+		 */
+		void run(int seq, long time);
+	}
+}
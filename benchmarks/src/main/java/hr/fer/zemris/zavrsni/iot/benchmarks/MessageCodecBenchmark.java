@@ -0,0 +1,93 @@
+package hr.fer.zemris.zavrsni.iot.benchmarks;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Benchmarks of parsing and making messages, which is done for every message
+ * which goes through the server.
+ *
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageCodecBenchmark {
+
+	/** Length of JSON data of message. */
+	@Param({ "16", "256", "4096" })
+	public int jsonLength;
+
+	/** Line which client sends. */
+	private String clientLine;
+	/** Parsed message. */
+	private Message message;
+	/** Datagram which simulator sends. */
+	private ByteBuffer simulatorDatagram;
+
+	/** Method for making messages before benchmark. */
+	@Setup
+	public void setUp() {
+		clientLine = BenchmarkMessages.clientLine(1, "DEV00001", "SIM00001", BenchmarkMessages.json(jsonLength));
+		message = Message.parseClientMessage(clientLine);
+		simulatorDatagram = ByteBuffer.wrap(message.makeReturnMessageForSimulator());
+	}
+
+	/**
+	 * Parsing line received from client.
+	 *
+	 * @return parsed message
+	 */
+	@Benchmark
+	public Message parseClientMessage() {
+		return Message.parseClientMessage(clientLine);
+	}
+
+	/**
+	 * Making datagram which is sent to simulator.
+	 *
+	 * @return datagram
+	 */
+	@Benchmark
+	public byte[] makeReturnMessageForSimulator() {
+		return message.makeReturnMessageForSimulator();
+	}
+
+	/**
+	 * Parsing datagram received from simulator.
+	 *
+	 * @return parsed message
+	 */
+	@Benchmark
+	public Message parseSimulatorMessage() {
+		return Message.parseSimulatorMessage(simulatorDatagram.duplicate());
+	}
+
+	/**
+	 * Making line which is sent to client.
+	 *
+	 * @return line
+	 */
+	@Benchmark
+	public String makeReturnMessageForClient() {
+		return message.makeReturnMessageForClient();
+	}
+}
@@ -0,0 +1,147 @@
+package hr.fer.zemris.zavrsni.iot.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hr.fer.zemris.zavrsni.iot.storage.MessagesSnapshot;
+import hr.fer.zemris.zavrsni.iot.storage.MessagesStoreClass;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Benchmarks of storing messages at shutdown and restoring them at start, in
+ * XML and in binary snapshot format. Files are written to temporary
+ * directory.
+ *
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PersistenceBenchmark {
+
+	/** Length of JSON data of every message. */
+	private static final int JSON_LENGTH = 128;
+
+	/** Number of stored messages. */
+	@Param({ "1000", "100000", "1000000" })
+	public int messages;
+
+	/** Stored messages. */
+	private List<Message> list;
+	/** Directory with files. */
+	private Path directory;
+	/** XML file which is written. */
+	private String xmlOutput;
+	/** Snapshot file which is written. */
+	private String snapshotOutput;
+	/** XML file which is read. */
+	private String xmlInput;
+	/** Snapshot file which is read. */
+	private String snapshotInput;
+
+	/**
+	 * Method for making messages and files which are read.
+	 *
+	 * @throws IOException
+	 *             if files can't be written
+	 * @throws XMLStreamException
+	 *             if XML file can't be written
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException, XMLStreamException {
+		list = BenchmarkMessages.messages(messages, 0, "DEV00001", 100, JSON_LENGTH);
+		directory = Files.createTempDirectory("iot-persistence");
+		xmlOutput = directory.resolve("output.xml").toString();
+		snapshotOutput = directory.resolve("output.snapshot").toString();
+		xmlInput = directory.resolve("input.xml").toString();
+		snapshotInput = directory.resolve("input.snapshot").toString();
+		MessagesStoreClass.storeClientMessages(xmlInput, list);
+		MessagesSnapshot.storeMessages(snapshotInput, list);
+	}
+
+	/**
+	 * Method for removing files after benchmark.
+	 *
+	 * @throws IOException
+	 *             if files can't be removed
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		for (String file : new String[] { xmlOutput, snapshotOutput, xmlInput, snapshotInput })
+			Files.deleteIfExists(directory.resolve(file));
+		Files.deleteIfExists(directory);
+	}
+
+	/**
+	 * Writing messages to XML file.
+	 *
+	 * @throws IOException
+	 *             if file can't be written
+	 * @throws XMLStreamException
+	 *             if XML can't be written
+	 */
+	@Benchmark
+	public void storeXml() throws IOException, XMLStreamException {
+		MessagesStoreClass.storeClientMessages(xmlOutput, list);
+	}
+
+	/**
+	 * Reading messages from XML file.
+	 *
+	 * @return read messages
+	 * @throws IOException
+	 *             if file can't be read
+	 * @throws XMLStreamException
+	 *             if XML can't be parsed
+	 */
+	@Benchmark
+	public List<Message> readXml() throws IOException, XMLStreamException {
+		return MessagesStoreClass.readStoredClientMessages(xmlInput);
+	}
+
+	/**
+	 * Writing messages to snapshot file.
+	 *
+	 * @throws IOException
+	 *             if file can't be written
+	 */
+	@Benchmark
+	public void storeSnapshot() throws IOException {
+		MessagesSnapshot.storeMessages(snapshotOutput, list);
+	}
+
+	/**
+	 * Reading messages from snapshot file.
+	 *
+	 * @return read messages
+	 * @throws IOException
+	 *             if file can't be read
+	 */
+	@Benchmark
+	public List<Message> readSnapshot() throws IOException {
+		return MessagesSnapshot.readMessages(snapshotInput);
+	}
+}
@@ -0,0 +1,165 @@
+package hr.fer.zemris.zavrsni.iot.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import hr.fer.zemris.zavrsni.iot.simulator.SimulatorMsgList;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Benchmarks of {@link SimulatorMsgList} with given number of messages already
+ * waiting for given number of destinations. Clients take messages with
+ * {@link SimulatorMsgList#popMessageFor(String)}, so taking message for one
+ * destination shouldn't depend on messages of other destinations. List is
+ * singleton, so every combination of parameters runs in its own JVM.
+ *
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g", "-Diot.simulator.max.per.thing=0",
+		"-Diot.simulator.max.memory=0" })
+public class SimulatorMsgListBenchmark {
+
+	/** Number of messages of every producer, more than list remembers for suppressing duplicates. */
+	private static final int POOL_SIZE = 1 << 18;
+	/** Length of JSON data of every message. */
+	private static final int JSON_LENGTH = 64;
+
+	/** Number of messages in list before benchmark. */
+	@Param({ "1000", "100000", "1000000" })
+	public int queued;
+
+	/** Number of destinations of messages. */
+	@Param({ "1", "100", "10000" })
+	public int destinations;
+
+	/** IDs of destinations. */
+	private String[] destIDs;
+
+	/** Method for filling list before benchmark. */
+	@Setup(Level.Trial)
+	public void setUp() {
+		destIDs = new String[destinations];
+		for (int i = 0; i < destinations; ++i)
+			destIDs[i] = BenchmarkMessages.destination(i);
+		SimulatorMsgList list = SimulatorMsgList.getInstance();
+		while (list.popFirstMessage() != null)
+			;
+		list.addAllMessages(BenchmarkMessages.messages(queued, 0, "QUEUED00", destinations, JSON_LENGTH));
+	}
+
+	/**
+	 * Messages of one thread, sent to all destinations in turn. Messages are
+	 * used in turn and there are more of them than list remembers for
+	 * suppressing duplicates, so every added message is stored.
+	 *
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	@State(Scope.Thread)
+	public static class Producer {
+		/** Counter for giving every thread its own source ID. */
+		private static final AtomicInteger THREADS = new AtomicInteger();
+
+		/** Messages which are added. */
+		private Message[] messages;
+		/** Index of next message. */
+		private int next;
+
+		/**
+		 * Method for making messages before benchmark.
+		 *
+		 * @param benchmark
+		 *            state with number of destinations
+		 */
+		@Setup(Level.Trial)
+		public void setUp(SimulatorMsgListBenchmark benchmark) {
+			String srcID = String.format("PROD%04d", THREADS.getAndIncrement());
+			List<Message> list = BenchmarkMessages.messages(POOL_SIZE, 0, srcID, benchmark.destinations,
+					JSON_LENGTH);
+			messages = list.toArray(new Message[0]);
+		}
+
+		/**
+		 * Method for getting next message.
+		 *
+		 * @return message
+		 */
+		Message next() {
+			Message message = messages[next];
+			next = (next + 1) & (POOL_SIZE - 1);
+			return message;
+		}
+	}
+
+	/**
+	 * Adding one message and taking message for the same destination, so
+	 * number of queued messages stays the same.
+	 *
+	 * @param producer
+	 *            messages of current thread
+	 * @return taken message
+	 */
+	@Benchmark
+	public Message addAndPopForDestination(Producer producer) {
+		Message message = producer.next();
+		SimulatorMsgList.getInstance().addMessage(message);
+		return SimulatorMsgList.getInstance().popMessageFor(message.getDestID());
+	}
+
+	/**
+	 * Adding messages from more threads, as simulator receivers do. List is
+	 * not bounded, so message is not added while there are twice as many
+	 * messages as at the start.
+	 *
+	 * @param producer
+	 *            messages of current thread
+	 * @return true if message is added, otherwise false
+	 */
+	@Benchmark
+	@Group("receiversClients")
+	@GroupThreads(2)
+	public boolean receive(Producer producer) {
+		SimulatorMsgList list = SimulatorMsgList.getInstance();
+		if (list.size() >= 2 * queued)
+			return false;
+		list.addMessage(producer.next());
+		return true;
+	}
+
+	/**
+	 * Taking messages for random destinations from more threads, as client
+	 * handlers do.
+	 *
+	 * @return taken message or null if there is no message for destination
+	 */
+	@Benchmark
+	@Group("receiversClients")
+	@GroupThreads(2)
+	public Message deliver() {
+		String destID = destIDs[ThreadLocalRandom.current().nextInt(destIDs.length)];
+		return SimulatorMsgList.getInstance().popMessageFor(destID);
+	}
+}
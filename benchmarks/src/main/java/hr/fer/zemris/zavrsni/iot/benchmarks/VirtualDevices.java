@@ -0,0 +1,212 @@
+package hr.fer.zemris.zavrsni.iot.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Virtual devices of {@link LoadGenerator}. Every message is sent as client
+ * sends it: connection is opened, message line is sent and all return lines
+ * are read until "IDLE", "REJECTED" or "BUSY". Return messages from simulator
+ * are reported to tracker of messages from simulator to devices. Requests are
+ * made by fixed number of threads, so number of open connections is limited
+ * while messages are spread over all devices.
+ *
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+final class VirtualDevices {
+
+	/** Timeout for connecting and reading in milliseconds. */
+	private static final int TIMEOUT = 10000;
+	/** Destination ID of messages which only ask for messages from simulator. */
+	static final String POLL_ID = "POLL0000";
+
+	/** Address of client server. */
+	private final SocketAddress server;
+	/** Tracker of messages from devices to simulator. */
+	private final LatencyTracker upstream;
+	/** Tracker of messages from simulator to devices. */
+	private final LatencyTracker downstream;
+	/** Number of devices. */
+	private final int devices;
+	/** JSON data of sent messages. */
+	private final String json;
+	/** Threads which make requests. */
+	private final ExecutorService workers;
+	/** Number of messages rejected by server. */
+	private final AtomicLong rejected = new AtomicLong();
+	/** Number of requests refused because server was busy. */
+	private final AtomicLong busy = new AtomicLong();
+	/** Number of requests which failed. */
+	private final AtomicLong failed = new AtomicLong();
+	/** Number of messages which only ask for messages from simulator. */
+	private final AtomicLong polls = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 *
+	 * @param server
+	 *            address of client server
+	 * @param upstream
+	 *            tracker of messages from devices to simulator
+	 * @param downstream
+	 *            tracker of messages from simulator to devices
+	 * @param devices
+	 *            number of devices
+	 * @param json
+	 *            JSON data of sent messages
+	 * @param connections
+	 *            maximal number of requests at the same time
+	 */
+	VirtualDevices(SocketAddress server, LatencyTracker upstream, LatencyTracker downstream, int devices,
+			String json, int connections) {
+		this.server = server;
+		this.upstream = upstream;
+		this.downstream = downstream;
+		this.devices = devices;
+		this.json = json;
+		this.workers = new ThreadPoolExecutor(connections, connections, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>());
+	}
+
+	/**
+	 * Method for getting ID of device.
+	 *
+	 * @param index
+	 *            index of device
+	 * @return device ID
+	 */
+	static String deviceID(int index) {
+		return String.format("V%07d", index);
+	}
+
+	/**
+	 * Method for sending message from device. Device which sends message is
+	 * sequence number modulo number of devices. Time when message should be
+	 * sent is recorded as send time, so time which request waits for free
+	 * thread is part of latency.
+	 *
+	 * @param seq
+	 *            sequence number
+	 * @param time
+	 *            time when message should be sent, as
+	 *            {@link System#nanoTime()}
+	 */
+	void send(final int seq, final long time) {
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				String line = BenchmarkMessages.clientLine(upstream.idOf(seq), deviceID(seq % devices),
+						FakeSimulator.SIMULATOR_ID, json);
+				upstream.sent(seq, time);
+				request(line);
+			}
+		});
+	}
+
+	/**
+	 * Method for asking for messages from simulator without sending message
+	 * which is tracked. Server still needs a message, so message is sent to
+	 * {@link #POLL_ID} and simulator ignores it.
+	 *
+	 * @param device
+	 *            index of device
+	 */
+	void poll(final int device) {
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				String line = BenchmarkMessages.clientLine(polls.incrementAndGet(), deviceID(device), POLL_ID,
+						"{}");
+				request(line);
+			}
+		});
+	}
+
+	/**
+	 * Method for making one request.
+	 *
+	 * @param line
+	 *            line which is sent
+	 */
+	private void request(String line) {
+		try (Socket socket = new Socket()) {
+			socket.connect(server, TIMEOUT);
+			socket.setSoTimeout(TIMEOUT);
+			OutputStream output = socket.getOutputStream();
+			output.write((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+			output.flush();
+			BufferedReader input = new BufferedReader(
+					new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			String returnLine;
+			while ((returnLine = input.readLine()) != null) {
+				if ("IDLE".equals(returnLine))
+					return;
+				if ("REJECTED".equals(returnLine)) {
+					rejected.incrementAndGet();
+					return;
+				}
+				if ("BUSY".equals(returnLine)) {
+					busy.incrementAndGet();
+					return;
+				}
+				// return message has the same format as client message
+				if (returnLine.startsWith(FakeSimulator.SIMULATOR_ID, 9))
+					downstream.received(returnLine.substring(1, 9), System.nanoTime());
+			}
+		} catch (IOException e) {
+			failed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Method for waiting until all requests are done.
+	 *
+	 * @param timeout
+	 *            maximal time of waiting in milliseconds
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	void shutdown(long timeout) throws InterruptedException {
+		workers.shutdown();
+		if (!workers.awaitTermination(timeout, TimeUnit.MILLISECONDS))
+			workers.shutdownNow();
+	}
+
+	/**
+	 * Getter for number of messages rejected by server.
+	 *
+	 * @return number of messages
+	 */
+	long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Getter for number of requests refused because server was busy.
+	 *
+	 * @return number of requests
+	 */
+	long getBusy() {
+		return busy.get();
+	}
+
+	/**
+	 * Getter for number of requests which failed.
+	 *
+	 * @return number of requests
+	 */
+	long getFailed() {
+		return failed.get();
+	}
+}
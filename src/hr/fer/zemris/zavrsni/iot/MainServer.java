@@ -2,12 +2,29 @@ package hr.fer.zemris.zavrsni.iot;
 
 import hr.fer.zemris.zavrsni.iot.client.ClientMsgList;
 import hr.fer.zemris.zavrsni.iot.client.ClientServer;
+import hr.fer.zemris.zavrsni.iot.client.NioClientServer;
+import hr.fer.zemris.zavrsni.iot.log.Logger;
+import hr.fer.zemris.zavrsni.iot.metrics.MetricsServer;
+import hr.fer.zemris.zavrsni.iot.simulator.DeliveryListener;
+import hr.fer.zemris.zavrsni.iot.simulator.DeliveryTracker;
+import hr.fer.zemris.zavrsni.iot.simulator.ReceiverStats;
 import hr.fer.zemris.zavrsni.iot.simulator.SimulatorMsgList;
+import hr.fer.zemris.zavrsni.iot.simulator.SimulatorSender;
 import hr.fer.zemris.zavrsni.iot.simulator.SimulatorServer;
+import hr.fer.zemris.zavrsni.iot.storage.MessagesSnapshot;
 import hr.fer.zemris.zavrsni.iot.storage.MessagesStoreClass;
+import hr.fer.zemris.zavrsni.iot.storage.WriteAheadLog;
+import hr.fer.zemris.zavrsni.iot.storage.WriteAheadLog.MessageList;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+import hr.fer.zemris.zavrsni.iot.utils.MessageCodec;
 
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.TransformerException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
 
 /**
  * Class contains main method which runs proper servers. There are 4 command line arguments needed:
@@ -21,6 +38,49 @@ import javax.xml.transform.TransformerException;
  * <p>
  * Main class uses {@code ClientServer} amd {@code SimulatorServer}. Both servers have their own threads for running
  * (implementation of those servers blocks thread which uses them). There is also thread which sends data to simulator.
+ * <p>
+ * Optional settings are given as system properties:
+ * <pre>
+ * iot.client.queue.capacity - capacity of client message list (default 65536)
+ * iot.client.queue.policy   - what to do when client message list is full: block, drop_oldest or reject
+ * iot.client.queue.offheap  - true if client messages are kept outside of Java heap (default false)
+ * iot.simulator.offheap     - true if simulator messages are kept outside of Java heap (default false; see
+ *                             {@code MessageArena} for its settings)
+ * iot.dedup.window          - time in milliseconds in which repeated message is ignored (default 60000)
+ * iot.dedup.size            - maximal number of messages remembered for ignoring repeats (default 100000)
+ * iot.id.pool.size          - maximal number of thing IDs shared by stored messages (default 65536)
+ * iot.simulator.batch       - maximal number of client messages sent to simulator in one pass (default 64)
+ * iot.simulator.aggregate   - true if client messages sent together are packed into one datagram (default false)
+ * iot.simulator.aggregate.delay - time in milliseconds for which sending waits for more messages to pack (default 1)
+ * iot.simulator.mtu         - maximal size of datagram with packed messages in bytes (default 1472)
+ * iot.simulator.reliable    - true if client messages are sent again until simulator replies to them (default
+ *                             false; see {@link DeliveryTracker} for other settings)
+ * iot.client.engine         - client server engine: thread (thread per client, default) or nio (one selector thread)
+ * iot.client.max.connections - maximal number of clients handled at the same time (default 1000)
+ * iot.client.nio.workers   - number of threads which store requests received by nio engine (default 4)
+ * iot.client.push.threads  - number of threads which send messages to clients with push delivery (default 2)
+ * iot.client.push.write.timeout - time in milliseconds after which slow push connection is closed (default 5000)
+ * iot.client.delivery       - how messages are delivered to clients: poll (default), long_poll or push
+ * iot.client.poll.timeout   - time in milliseconds for which long poll waits for message (default 30000)
+ * iot.client.pipelining     - true if client can send many lines on one connection with poll delivery (default false)
+ * iot.simulator.max.datagram - maximal size of datagram received from simulator in bytes (default 8192)
+ * iot.simulator.receivers   - number of threads which receive and parse simulator datagrams (default 1)
+ * iot.simulator.reuseport  - true if every receiver has its own socket, which helps only with many simulator
+ *                             addresses (default false; see {@link SimulatorServer})
+ * iot.engine.shards         - number of threads which store simulator messages, every thing has one of them (default
+ *                             0, receivers store messages; waiting messages are stored at shutdown, see
+ *                             {@link SimulatorServer})
+ * iot.simulator.ttl         - time in milliseconds after which undelivered simulator message is removed (default
+ *                             86400000; see {@code SimulatorMsgList} for limits of thing and memory)
+ * iot.wal.dir               - directory of write-ahead log; if it is given, messages are kept in the log
+ *                             instead of XML files written at shutdown (see {@code WriteAheadLog} for its settings)
+ * iot.store.format          - format of files written at shutdown: xml (default) or snapshot (binary, faster to
+ *                             restore; XML files are still read if there is no snapshot yet)
+ * iot.log.level             - lowest level which is logged: debug (default), info, warn or error
+ *                             (see {@code Logger} for other logging settings)
+ * iot.metrics.port          - port of local HTTP endpoint /metrics, 0 for no endpoint (default 0; metrics are
+ *                             also available through JMX, see {@code MetricsServer} for other settings)
+ * </pre>
  *
  * @author Nikola Presečki
  * @version 1.0
@@ -31,6 +91,17 @@ public class MainServer {
     private static final String FILENAME_CLIENT = "client_msgs.xml";
     /** Name of the xml file for simulator messages. */
     private static final String FILENAME_SIMULATOR = "simulator_msgs.xml";
+    /** Name of the snapshot file for client messages. */
+    private static final String SNAPSHOT_CLIENT = "client_msgs.snapshot";
+    /** Name of the snapshot file for simulator messages. */
+    private static final String SNAPSHOT_SIMULATOR = "simulator_msgs.snapshot";
+    /** Format of files in which messages are stored at shutdown. */
+    private static final StoreFormat STORE_FORMAT = Configuration.getEnum("iot.store.format", StoreFormat.class,
+            StoreFormat.XML);
+    /** Write-ahead log of messages, null if messages are stored in XML files. */
+    private static volatile WriteAheadLog writeAheadLog;
+    /** Logger of main server. */
+    private static final Logger LOG = Logger.getLogger("main");
 
     /**
      * Store messages before this program is terminated.
@@ -38,18 +109,45 @@ public class MainServer {
     static {
         Runtime.getRuntime().addShutdownHook(new Thread() {
             public void run() {
-                System.out.println("Saving messages ...");
-                try {
-                    MessagesStoreClass.storeClientMessages(FILENAME_CLIENT, ClientMsgList.getInstance().getMessages());
-                    MessagesStoreClass.storeClientMessages(FILENAME_SIMULATOR,
-                            SimulatorMsgList.getInstance().getMessages());
-                } catch (ParserConfigurationException | TransformerException e) {
-                    System.err.println(e.toString());
+                // messages which wait in shards are stored before lists are saved
+                SimulatorServer.closeShards();
+                for (ReceiverStats stats : SimulatorServer.getReceiverStats())
+                    LOG.info(stats.toString());
+                LOG.info("Simulator messages expired: " + SimulatorMsgList.getInstance().getExpiredCount()
+                        + ", evicted: " + SimulatorMsgList.getInstance().getEvictedCount());
+                if (writeAheadLog != null) {
+                    try {
+                        writeAheadLog.close();
+                    } catch (IOException e) {
+                        LOG.error(e.toString());
+                    }
+                } else {
+                    storeMessages();
                 }
+                Logger.flush();
             }
         });
     }
 
+    /**
+     * Method for storing messages which are still in lists to files.
+     */
+    private static void storeMessages() {
+        LOG.info("Saving messages ...");
+        try {
+            if (STORE_FORMAT == StoreFormat.SNAPSHOT) {
+                MessagesSnapshot.storeMessages(SNAPSHOT_CLIENT, ClientMsgList.getInstance().getMessages());
+                MessagesSnapshot.storeMessages(SNAPSHOT_SIMULATOR, SimulatorMsgList.getInstance().getMessages());
+            } else {
+                MessagesStoreClass.storeClientMessages(FILENAME_CLIENT, ClientMsgList.getInstance().getMessages());
+                MessagesStoreClass.storeClientMessages(FILENAME_SIMULATOR,
+                        SimulatorMsgList.getInstance().getMessages());
+            }
+        } catch (IOException | XMLStreamException e) {
+            LOG.error(e.toString());
+        }
+    }
+
     /**
      * Main method which is called first.
      *
@@ -73,24 +171,80 @@ public class MainServer {
             System.err.println("Invalid number of command line arguments!");
             return;
         }
+        MetricsServer.start();
         try {
+            // sender is started first so stored client messages can't fill up bounded client list
+            SendToSimulatorThread sendToSimulatorThread = new SendToSimulatorThread(simulatorIPAddress,
+                    simulatorSendPort);
+            sendToSimulatorThread.start();
             // get stored client and simulator messages
-            ClientMsgList.getInstance().addAllMessages(MessagesStoreClass.readStoredClientMessages(FILENAME_CLIENT));
-            SimulatorMsgList.getInstance()
-                    .addAllMessages(MessagesStoreClass.readStoredClientMessages(FILENAME_SIMULATOR));
+            String walDirectory = Configuration.getString("iot.wal.dir", null);
+            if (walDirectory != null) {
+                WriteAheadLog log = new WriteAheadLog(walDirectory);
+                // restored messages are logged again, so older segments can be compacted away
+                ClientMsgList.getInstance().setJournal(log.journalFor(MessageList.CLIENT));
+                SimulatorMsgList.getInstance().setJournal(log.journalFor(MessageList.SIMULATOR));
+                writeAheadLog = log;
+                ClientMsgList.getInstance().addAllMessages(log.getRecoveredMessages(MessageList.CLIENT));
+                SimulatorMsgList.getInstance().addAllMessages(log.getRecoveredMessages(MessageList.SIMULATOR));
+            } else {
+                // messages are added while file is read, without list of all stored messages
+                restoreMessages(SNAPSHOT_CLIENT, FILENAME_CLIENT, new MessagesStoreClass.MessageHandler() {
+                    public void handle(Message message) {
+                        ClientMsgList.getInstance().addMessage(message);
+                    }
+                });
+                restoreMessages(SNAPSHOT_SIMULATOR, FILENAME_SIMULATOR, new MessagesStoreClass.MessageHandler() {
+                    public void handle(Message message) {
+                        SimulatorMsgList.getInstance().addMessage(message);
+                    }
+                });
+            }
             // start all threads that you need
             ClientServerThread clientServerThread = new ClientServerThread(clientPort);
             SimulatorServerThread simulatorServerThread = new SimulatorServerThread(simulatorRecievePort);
-            SendToSimulatorThread sendToSimulatorThread = new SendToSimulatorThread(simulatorIPAddress,
-                    simulatorSendPort);
             clientServerThread.start();
             simulatorServerThread.start();
-            sendToSimulatorThread.start();
         } catch (Exception e) {
-            System.err.println(e.toString());
+            LOG.error(e.toString());
         }
     }
 
+    /**
+     * Method for restoring messages stored at last shutdown. Snapshot is read if format is snapshot and it exists,
+     * otherwise XML file is read.
+     *
+     * @param snapshotName
+     *         name of the snapshot file
+     * @param xmlName
+     *         name of the XML file
+     * @param handler
+     *         handler of restored messages
+     * @throws Exception
+     *         if stored messages can't be read
+     */
+    private static void restoreMessages(String snapshotName, String xmlName, MessagesStoreClass.MessageHandler handler)
+            throws Exception {
+        if (STORE_FORMAT == StoreFormat.SNAPSHOT && MessagesSnapshot.isSnapshot(snapshotName)) {
+            MessagesSnapshot.readMessages(snapshotName, handler);
+        } else {
+            MessagesStoreClass.readStoredClientMessages(xmlName, handler);
+        }
+    }
+
+    /**
+     * Formats of files in which messages are stored at shutdown.
+     *
+     * @author Nikola Presečki
+     * @version 1.0
+     */
+    private enum StoreFormat {
+        /** XML files of {@code MessagesStoreClass}. */
+        XML,
+        /** Binary snapshots of {@code MessagesSnapshot}. */
+        SNAPSHOT
+    }
+
    /*FOR TESTING PURPOSES clients
    private static void populateSimulatorListWithMsg() {
         SimulatorMsgList.getInstance().addMessage(new Message("12345678", "THING_12", "5242ef3e",
@@ -106,6 +260,9 @@ public class MainServer {
      * @version 1.0
      */
     private static class ClientServerThread extends Thread {
+        /** Engine which is used for client server. */
+        private static final ClientEngine ENGINE = Configuration.getEnum("iot.client.engine", ClientEngine.class,
+                ClientEngine.THREAD);
         /** Server port */
         private int port;
 
@@ -123,13 +280,30 @@ public class MainServer {
         public void run() {
             super.run();
             try {
-                new ClientServer(port);
+                if (ENGINE == ClientEngine.NIO) {
+                    new NioClientServer(port);
+                } else {
+                    new ClientServer(port);
+                }
             } catch (Exception e) {
-                System.err.println(e.toString());
+                LOG.error(e.toString());
             }
         }
     }
 
+    /**
+     * Available client server engines.
+     *
+     * @author Nikola Presečki
+     * @version 1.0
+     */
+    private enum ClientEngine {
+        /** {@code ClientServer} which has one thread for every client. */
+        THREAD,
+        /** {@code NioClientServer} which handles all clients in one thread. */
+        NIO
+    }
+
     /**
      * Thread which implements simulator server.
      *
@@ -156,7 +330,7 @@ public class MainServer {
             try {
                 new SimulatorServer(port);
             } catch (Exception e) {
-                System.err.println(e.toString());
+                LOG.error(e.toString());
             }
         }
     }
@@ -168,6 +342,13 @@ public class MainServer {
      * @version 1.0
      */
     private static class SendToSimulatorThread extends Thread {
+        /** Maximal number of messages sent in one pass. */
+        private static final int BATCH_SIZE = Configuration.getInt("iot.simulator.batch", 64);
+        /** Time in nanoseconds for which sending waits for more messages to pack into one datagram. */
+        private static final long AGGREGATE_DELAY = TimeUnit.MILLISECONDS
+                .toNanos(Configuration.getLong("iot.simulator.aggregate.delay", 1));
+        /** True if messages are sent again until simulator acknowledges them. */
+        private static final boolean RELIABLE = Configuration.getBoolean("iot.simulator.reliable", false);
         /** Simulator port */
         private int port;
         /** Simulator IP address. */
@@ -189,18 +370,87 @@ public class MainServer {
         @Override
         public void run() {
             super.run();
-            try {
+            List<Message> batch = new ArrayList<>(BATCH_SIZE);
+            List<Message> sent = new ArrayList<>(BATCH_SIZE);
+            try (SimulatorSender sender = new SimulatorSender(ipAddress, port);
+                    DeliveryTracker tracker = RELIABLE ? createTracker() : null) {
                 while (true) {
-                    if (ClientMsgList.getInstance().isEmpty()) {
-                        Thread.sleep(2000);
-                        continue;
+                    // waits until client message arrives and then takes all other waiting messages
+                    batch.add(ClientMsgList.getInstance().takeFirstMessage());
+                    ClientMsgList.getInstance().drainMessages(batch, BATCH_SIZE - 1);
+                    if (sender.isAggregating() && AGGREGATE_DELAY > 0) {
+                        fillBatch(batch, sender.getMaxDatagramSize());
+                    }
+                    if (tracker != null) {
+                        // tracked before sending, so quick reply can't come before message is tracked
+                        tracker.messagesSent(batch);
+                    }
+                    try {
+                        sender.sendAll(batch, sent);
+                    } catch (IOException e) {
+                        LOG.error(e.toString() + ", " + (batch.size() - sent.size()) + " of " + batch.size()
+                                + " messages not sent");
+                    }
+                    // only messages which went out are counted, the rest stay in journal
+                    if (tracker != null) {
+                        ClientMsgList.getInstance().messagesForwarded(sent);
+                    } else {
+                        ClientMsgList.getInstance().messagesSent(sent);
                     }
-                    byte[] message = ClientMsgList.getInstance().popFirstMessage().makeReturnMessageForSimulator();
-                    SimulatorServer.sendMessage(ipAddress, port, message);
+                    sent.clear();
+                    batch.clear();
                 }
             } catch (Exception e) {
-                System.err.println(e.toString());
+                LOG.error(e.toString());
             }
         }
+
+        /**
+         * Method for waiting for more messages until batch is full, packed messages fill one datagram or delay
+         * passes.
+         *
+         * @param batch
+         *         batch with at least one message
+         * @param maxBytes
+         *         maximal size of datagram with packed messages
+         * @throws InterruptedException
+         *         if thread is interrupted while waiting
+         */
+        private static void fillBatch(List<Message> batch, int maxBytes) throws InterruptedException {
+            long deadline = System.nanoTime() + AGGREGATE_DELAY;
+            int bytes = 0;
+            for (Message message : batch) {
+                bytes += MessageCodec.simulatorInnerLength(message);
+            }
+            while (batch.size() < BATCH_SIZE && MessageCodec.simulatorDatagramLength(bytes) < maxBytes) {
+                long remaining = deadline - System.nanoTime();
+                Message message = remaining > 0
+                        ? ClientMsgList.getInstance().pollFirstMessage(remaining, TimeUnit.NANOSECONDS) : null;
+                if (message == null) {
+                    return;
+                }
+                batch.add(message);
+                bytes += MessageCodec.simulatorInnerLength(message);
+            }
+        }
+
+        /**
+         * Method for creating tracker which removes messages from journal when simulator acknowledges them.
+         *
+         * @return tracker of sent messages
+         * @throws IOException
+         *         if tracker can't send messages
+         */
+        private DeliveryTracker createTracker() throws IOException {
+            DeliveryTracker tracker = new DeliveryTracker(ipAddress, port, new DeliveryListener() {
+
+                @Override
+                public void messageDone(Message message, boolean acknowledged) {
+                    ClientMsgList.getInstance().messageDelivered(message);
+                }
+            });
+            SimulatorServer.setDeliveryTracker(tracker);
+            return tracker;
+        }
     }
 }
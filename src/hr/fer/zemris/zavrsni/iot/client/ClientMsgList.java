@@ -1,27 +1,99 @@
 package hr.fer.zemris.zavrsni.iot.client;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
+import hr.fer.zemris.zavrsni.iot.metrics.Counter;
+import hr.fer.zemris.zavrsni.iot.metrics.Gauge;
+import hr.fer.zemris.zavrsni.iot.metrics.Histogram;
+import hr.fer.zemris.zavrsni.iot.metrics.Metrics;
+import hr.fer.zemris.zavrsni.iot.storage.MessageJournal;
+import hr.fer.zemris.zavrsni.iot.utils.BoundedQueue;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+import hr.fer.zemris.zavrsni.iot.utils.DeduplicationIndex;
 import hr.fer.zemris.zavrsni.iot.utils.Message;
+import hr.fer.zemris.zavrsni.iot.utils.MessageArena;
+import hr.fer.zemris.zavrsni.iot.utils.OffHeapMessageQueue;
+import hr.fer.zemris.zavrsni.iot.utils.RingBufferQueue;
 
 /**
- * Singleton class for storing client messages.
+ * Singleton class for storing client messages. Messages are stored in bounded
+ * lock-free queue and thread which sends them to simulator is woken up as soon
+ * as new message arrives. Capacity of the queue is set with
+ * {@code iot.client.queue.capacity} setting and what happens when queue is full
+ * with {@code iot.client.queue.policy} setting (see {@link OverflowPolicy}).
+ * If {@code iot.client.queue.offheap} setting is true, messages are kept
+ * outside of Java heap in {@link OffHeapMessageQueue}, so large backlog
+ * doesn't make garbage collection slower.
+ * Duplicates are recognized by {@link DeduplicationIndex}. Stored messages
+ * and messages which are sent or dropped are reported to
+ * {@link MessageJournal}, if it is set. Depth of the queue, number of
+ * messages and time messages wait before they are sent are recorded in
+ * {@link Metrics}.
  * 
  * @author Nikola Presečki
  * @version 1.0
  */
 public class ClientMsgList {
 
+	/** Default capacity of the queue. */
+	private static final int DEFAULT_CAPACITY = 65536;
+	/** Default time in milliseconds for which duplicates are suppressed. */
+	private static final long DEFAULT_DEDUP_WINDOW = 60000;
+	/** Default maximal number of messages remembered for suppressing duplicates. */
+	private static final int DEFAULT_DEDUP_SIZE = 100000;
+	/** Number of stored messages. */
+	private static final Counter ACCEPTED = Metrics.counter("client.messages.accepted");
+	/** Number of messages rejected because queue was full. */
+	private static final Counter REJECTED = Metrics.counter("client.messages.rejected");
+	/** Number of ignored repeated messages. */
+	private static final Counter DUPLICATES = Metrics.counter("client.messages.duplicate");
+	/** Number of messages dropped to make space for newer ones. */
+	private static final Counter DROPPED = Metrics.counter("client.messages.dropped");
+	/** Number of messages sent to simulator. */
+	private static final Counter FORWARDED = Metrics.counter("client.messages.forwarded");
+	/** Time from storing message to sending it to simulator. */
+	private static final Histogram FORWARD_LATENCY = Metrics.histogram("client.forward.latency");
+
 	/** Class instance. */
 	private static ClientMsgList instance = null;
-	/** List for storing messages. */
-	private static List<Message> messages;
+	/** Queue for storing messages. */
+	private static BoundedQueue<Message> messages;
+	/** What to do when queue is full. */
+	private static OverflowPolicy policy;
+	/** Index of recently added messages. */
+	private static DeduplicationIndex recentMessages;
+	/** Journal of stored and removed messages. */
+	private static volatile MessageJournal journal = MessageJournal.NONE;
 
 	/** Private constructor for stoping instantiation. */
 	private ClientMsgList() {
-		messages = Collections.synchronizedList(new ArrayList<Message>());
+		int capacity = Configuration.getInt("iot.client.queue.capacity", DEFAULT_CAPACITY);
+		if (Configuration.getBoolean("iot.client.queue.offheap", false)) {
+			final MessageArena arena = new MessageArena();
+			messages = new OffHeapMessageQueue(arena, capacity);
+			Metrics.gauge("client.queue.offheap.bytes", new Gauge() {
+
+				@Override
+				public long getValue() {
+					return arena.getAllocatedBytes();
+				}
+			});
+		} else {
+			messages = new RingBufferQueue<>(capacity);
+		}
+		policy = Configuration.getEnum("iot.client.queue.policy", OverflowPolicy.class, OverflowPolicy.BLOCK);
+		recentMessages = new DeduplicationIndex(Configuration.getLong("iot.dedup.window", DEFAULT_DEDUP_WINDOW),
+				Configuration.getInt("iot.dedup.size", DEFAULT_DEDUP_SIZE));
+		Metrics.gauge("client.queue.depth", new Gauge() {
+
+			@Override
+			public long getValue() {
+				return messages.size();
+			}
+		});
 	}
 
 	/**
@@ -42,43 +114,135 @@ public class ClientMsgList {
 	}
 
 	/**
-	 * Method for adding message into inner collection.
+	 * Method for setting journal to which stored and removed messages are
+	 * reported.
+	 * 
+	 * @param messageJournal
+	 *            journal
+	 */
+	public void setJournal(MessageJournal messageJournal) {
+		journal = messageJournal;
+	}
+
+	/**
+	 * Method for adding message into inner collection. If collection is full,
+	 * message is handled by configured {@link OverflowPolicy}.
 	 * 
 	 * @param message
 	 *            client message
+	 * @return false if message is rejected because collection is full,
+	 *         otherwise true
+	 */
+	public boolean addMessage(Message message) {
+		if (!recentMessages.add(message)) {
+			DUPLICATES.increment();
+			return true;
+		}
+		if (journal.messageAdded(message)) {
+			if (enqueue(message))
+				return true;
+			journal.messageRemoved(message);
+		}
+		// rejected message can be sent again
+		recentMessages.remove(message);
+		REJECTED.increment();
+		return false;
+	}
+
+	/**
+	 * Method for adding messages which arrived together. Messages are
+	 * recorded to journal as one batch and then added one by one as in
+	 * {@link #addMessage(Message)}.
+	 * 
+	 * @param msgs
+	 *            client messages
+	 * @return for every message false if it is rejected, otherwise true
 	 */
-	public void addMessage(Message message) {
-		if (!messages.contains(message))
-			messages.add(message);
+	public boolean[] addMessages(List<Message> msgs) {
+		boolean[] accepted = new boolean[msgs.size()];
+		List<Message> fresh = new ArrayList<>(msgs.size());
+		for (int i = 0; i < accepted.length; ++i) {
+			if (recentMessages.add(msgs.get(i))) {
+				fresh.add(msgs.get(i));
+			} else {
+				DUPLICATES.increment();
+				accepted[i] = true;
+			}
+		}
+		boolean journaled = fresh.isEmpty() || journal.messagesAdded(fresh);
+		for (int i = 0, f = 0; i < accepted.length && f < fresh.size(); ++i) {
+			Message message = msgs.get(i);
+			if (fresh.get(f) != message)
+				continue;
+			++f;
+			if (journaled && enqueue(message)) {
+				accepted[i] = true;
+				continue;
+			}
+			if (journaled)
+				journal.messageRemoved(message);
+			// rejected message can be sent again
+			recentMessages.remove(message);
+			REJECTED.increment();
+		}
+		return accepted;
 	}
 
 	/**
-	 * Method for removing message from inner collection.
+	 * Method for adding message into queue by configured
+	 * {@link OverflowPolicy}.
 	 * 
 	 * @param message
 	 *            client message
+	 * @return true if message is added, otherwise false
 	 */
-	public void removeMessage(Message message) {
-		messages.remove(message);
+	private boolean enqueue(Message message) {
+		// time is set before message is visible to sender
+		message.setEnqueueTime(System.nanoTime());
+		switch (policy) {
+		case DROP_OLDEST:
+			while (!messages.offer(message)) {
+				Message dropped = messages.poll();
+				if (dropped != null) {
+					journal.messageRemoved(dropped);
+					DROPPED.increment();
+				}
+			}
+			break;
+		case REJECT:
+			if (!messages.offer(message))
+				return false;
+			break;
+		default:
+			try {
+				messages.put(message);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		ACCEPTED.increment();
+		return true;
 	}
 
 	/**
-	 * Method for getting client messages.
+	 * Method for getting copy of client messages.
 	 * 
 	 * @return list of client messages
 	 */
 	public List<Message> getMessages() {
-		return messages;
+		return messages.snapshot();
 	}
 
 	/**
-	 * Method for adding all client messages.
+	 * Method for adding all client messages. Messages are recorded to journal
+	 * as one batch, so restored messages wait for one write to disk.
 	 * 
 	 * @param list
 	 *            of client messages
 	 */
 	public void addAllMessages(List<Message> msgs) {
-		messages.addAll(msgs);
+		addMessages(msgs);
 	}
 
 	/**
@@ -90,17 +254,117 @@ public class ClientMsgList {
 		return messages.isEmpty();
 	}
 
+	/**
+	 * Method for getting number of stored messages.
+	 * 
+	 * @return number of messages
+	 */
+	public int size() {
+		return messages.size();
+	}
+
 	/**
 	 * Method for 'poping' (get and remove) first message from collection.
 	 * 
 	 * @return message or null if collection is empty
 	 */
 	public Message popFirstMessage() {
-		if (!messages.isEmpty()) {
-			Message msg = messages.get(0);
-			messages.remove(0);
-			return msg;
-		}
-		return null;
+		return messages.poll();
+	}
+
+	/**
+	 * Method for 'poping' first message from collection. If collection is
+	 * empty, method waits until some message arrives.
+	 * 
+	 * @return message
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	public Message takeFirstMessage() throws InterruptedException {
+		return messages.take();
+	}
+
+	/**
+	 * Method for 'poping' first message from collection. If collection is
+	 * empty, method waits until some message arrives, but not longer than
+	 * given time.
+	 * 
+	 * @param timeout
+	 *            maximal time of waiting
+	 * @param unit
+	 *            unit of timeout
+	 * @return message or null if no message arrived
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	public Message pollFirstMessage(long timeout, TimeUnit unit) throws InterruptedException {
+		return messages.poll(timeout, unit);
+	}
+
+	/**
+	 * Method for 'poping' all available messages, but not more than given
+	 * number.
+	 * 
+	 * @param collection
+	 *            collection to which messages are added
+	 * @param maxMessages
+	 *            maximal number of messages
+	 * @return number of messages
+	 */
+	public int drainMessages(Collection<? super Message> collection, int maxMessages) {
+		return messages.drainTo(collection, maxMessages);
+	}
+
+	/**
+	 * Method for reporting messages which are sent to simulator, so they
+	 * aren't restored after server is started again.
+	 * 
+	 * @param sent
+	 *            sent messages
+	 */
+	public void messagesSent(Collection<Message> sent) {
+		messagesForwarded(sent);
+		for (Message message : sent)
+			journal.messageRemoved(message);
+	}
+
+	/**
+	 * Method for reporting messages which are sent to simulator, but are kept
+	 * in journal until simulator acknowledges them.
+	 * 
+	 * @param sent
+	 *            sent messages
+	 */
+	public void messagesForwarded(Collection<Message> sent) {
+		long now = System.nanoTime();
+		for (Message message : sent)
+			FORWARD_LATENCY.record(now - message.getEnqueueTime());
+		FORWARDED.add(sent.size());
+	}
+
+	/**
+	 * Method for reporting message which simulator acknowledged, or which will
+	 * not be sent anymore, so it isn't restored after server is started again.
+	 * 
+	 * @param message
+	 *            delivered message
+	 */
+	public void messageDelivered(Message message) {
+		journal.messageRemoved(message);
+	}
+
+	/**
+	 * What happens with new message when collection is full.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	public enum OverflowPolicy {
+		/** Adding thread waits until there is free space. */
+		BLOCK,
+		/** Oldest message is removed to make space for the new one. */
+		DROP_OLDEST,
+		/** New message is rejected and client is informed. */
+		REJECT
 	}
 }
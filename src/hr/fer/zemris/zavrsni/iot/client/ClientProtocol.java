@@ -0,0 +1,251 @@
+package hr.fer.zemris.zavrsni.iot.client;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import hr.fer.zemris.zavrsni.iot.log.Level;
+import hr.fer.zemris.zavrsni.iot.log.Logger;
+import hr.fer.zemris.zavrsni.iot.metrics.Counter;
+import hr.fer.zemris.zavrsni.iot.metrics.Histogram;
+import hr.fer.zemris.zavrsni.iot.metrics.Metrics;
+import hr.fer.zemris.zavrsni.iot.simulator.SimulatorMsgList;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Class contains handling of one client request which is the same for every
+ * client server engine. Received line is parsed, stored in
+ * {@code ClientMsgList} and all simulator messages for that client are
+ * returned, followed by "IDLE". How messages are delivered is set with
+ * {@code iot.client.delivery} setting (see {@link DeliveryMode}) and time for
+ * which long poll waits with {@code iot.client.poll.timeout} setting in
+ * milliseconds (default 30000). If {@code iot.client.pipelining} setting is
+ * true, client which uses poll delivery can send many lines on one connection
+ * and gets return messages of every line, in order, before connection is
+ * closed by client. Line which is not valid client message gets "ERROR"
+ * instead of its return messages, so one bad line doesn't break other lines
+ * which were received with it.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+final class ClientProtocol {
+
+	/** Representation of idle return. */
+	static final String RETURN_IDLE = "IDLE";
+	/** Return when message is rejected because server is overloaded. */
+	static final String RETURN_REJECTED = "REJECTED";
+	/** Return when received line is not valid client message. */
+	static final String RETURN_ERROR = "ERROR";
+	/** Return when connection is refused because there are too many clients. */
+	static final String RETURN_BUSY = "BUSY";
+	/** How messages are delivered to clients. */
+	static final DeliveryMode DELIVERY = Configuration.getEnum("iot.client.delivery", DeliveryMode.class,
+			DeliveryMode.POLL);
+	/** Time in milliseconds for which long poll waits for message. */
+	static final long POLL_TIMEOUT = Configuration.getLong("iot.client.poll.timeout", 30000);
+	/** Flag if client can send many lines on one connection with poll delivery. */
+	static final boolean PIPELINING = DELIVERY == DeliveryMode.POLL
+			&& Configuration.getBoolean("iot.client.pipelining", false);
+	/** Maximal number of lines which are handled together. */
+	static final int MAX_PIPELINE_BATCH = 256;
+	/** Logger of client servers. */
+	private static final Logger LOG = Logger.getLogger("client");
+	/** Number of received lines which are not valid client messages. */
+	private static final Counter INVALID = Metrics.counter("client.messages.invalid");
+	/** Time of handling one request, without waiting for return messages. */
+	private static final Histogram REQUEST_LATENCY = Metrics.histogram("client.request.latency");
+
+	/** Private constructor for stoping instantiation. */
+	private ClientProtocol() {
+	}
+
+	/**
+	 * Method for handling one line received from client.
+	 * 
+	 * @param line
+	 *            received line
+	 * @return lines which will be returned to client, empty if line is empty
+	 */
+	static List<String> handleRequest(String line) {
+		List<String> returnMsgs = new ArrayList<>();
+		if (line == null || line.isEmpty())
+			return returnMsgs;
+		long start = System.nanoTime();
+		// parse received message
+		Message tcpMsg = parseRequest(line);
+		// store message
+		if (tcpMsg == null) {
+			returnMsgs.add(RETURN_ERROR);
+		} else if (!store(tcpMsg)) {
+			returnMsgs.add(RETURN_REJECTED);
+		} else {
+			returnMsgs = appendIdle(drainReturnMessages(tcpMsg.getSrcID()));
+		}
+		REQUEST_LATENCY.recordSince(start);
+		return returnMsgs;
+	}
+
+	/**
+	 * Method for handling lines which were received together on one
+	 * connection. Messages are stored as one batch and return messages of
+	 * every line are returned in order of lines. Return messages of each line
+	 * end with "IDLE", "REJECTED" or "ERROR" and empty lines don't have return
+	 * messages.
+	 * 
+	 * @param lines
+	 *            received lines
+	 * @return lines which will be returned to client
+	 */
+	static List<String> handleRequests(List<String> lines) {
+		long start = System.nanoTime();
+		List<Message> requests = new ArrayList<>(lines.size());
+		// parsed message of every line, null for empty or invalid line
+		Message[] parsed = new Message[lines.size()];
+		for (int i = 0; i < parsed.length; ++i) {
+			String line = lines.get(i);
+			if (line == null || line.isEmpty())
+				continue;
+			Message tcpMsg = parseRequest(line);
+			if (tcpMsg == null)
+				continue;
+			// print message
+			if (LOG.isSampled(Level.DEBUG))
+				LOG.debug("**\n" + tcpMsg.toString() + "**");
+			parsed[i] = tcpMsg;
+			requests.add(tcpMsg);
+		}
+		boolean[] accepted = ClientMsgList.getInstance().addMessages(requests);
+		List<String> returnMsgs = new ArrayList<>();
+		for (int i = 0, stored = 0; i < parsed.length; ++i) {
+			if (parsed[i] == null) {
+				String line = lines.get(i);
+				if (line != null && !line.isEmpty())
+					returnMsgs.add(RETURN_ERROR);
+				continue;
+			}
+			if (!accepted[stored++]) {
+				LOG.warn("Message rejected, client message list is full");
+				returnMsgs.add(RETURN_REJECTED);
+				continue;
+			}
+			returnMsgs.addAll(drainReturnMessages(parsed[i].getSrcID()));
+			appendIdle(returnMsgs);
+		}
+		// requests are handled together, so every request gets equal part of time
+		if (!requests.isEmpty()) {
+			long perRequest = (System.nanoTime() - start) / requests.size();
+			for (int i = 0; i < requests.size(); ++i)
+				REQUEST_LATENCY.record(perRequest);
+		}
+		return returnMsgs;
+	}
+
+	/**
+	 * Method for parsing received line. Line which is not valid client message
+	 * is logged and counted.
+	 * 
+	 * @param line
+	 *            received line, not empty
+	 * @return parsed message or null if line is not valid
+	 */
+	static Message parseRequest(String line) {
+		try {
+			return Message.parseClientMessage(line);
+		} catch (RuntimeException e) {
+			INVALID.increment();
+			LOG.warn("Invalid client message: " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Method for storing received client message whose return messages are
+	 * sent later (long poll and push). Only storing is recorded as time of
+	 * handling request.
+	 * 
+	 * @param tcpMsg
+	 *            parsed client message
+	 * @return false if message is rejected, otherwise true
+	 */
+	static boolean storeRequest(Message tcpMsg) {
+		long start = System.nanoTime();
+		boolean stored = store(tcpMsg);
+		REQUEST_LATENCY.recordSince(start);
+		return stored;
+	}
+
+	/**
+	 * Method for storing received client message.
+	 * 
+	 * @param tcpMsg
+	 *            parsed client message
+	 * @return false if message is rejected, otherwise true
+	 */
+	private static boolean store(Message tcpMsg) {
+		// print message
+		if (LOG.isSampled(Level.DEBUG))
+			LOG.debug("**\n" + tcpMsg.toString() + "**");
+		if (!ClientMsgList.getInstance().addMessage(tcpMsg)) {
+			LOG.warn("Message rejected, client message list is full");
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Method for getting all return messages which are waiting for client.
+	 * 
+	 * @param srcID
+	 *            ID of client
+	 * @return return messages, empty if there are no messages
+	 */
+	static List<String> drainReturnMessages(String srcID) {
+		List<String> returnMsgs = new ArrayList<>();
+		Message message;
+		while ((message = SimulatorMsgList.getInstance().popMessageFor(srcID)) != null) {
+			String returnMsg = message.makeReturnMessageForClient();
+			// print return message
+			if (LOG.isSampled(Level.DEBUG))
+				LOG.debug("++\nReturn message:\n" + returnMsg + "\n++");
+			returnMsgs.add(returnMsg);
+		}
+		return returnMsgs;
+	}
+
+	/**
+	 * Method for ending return messages with "IDLE".
+	 * 
+	 * @param returnMsgs
+	 *            return messages
+	 * @return given return messages
+	 */
+	static List<String> appendIdle(List<String> returnMsgs) {
+		if (LOG.isSampled(Level.DEBUG))
+			LOG.debug("++\nReturn message:\n" + RETURN_IDLE + "\n++");
+		returnMsgs.add(RETURN_IDLE);
+		return returnMsgs;
+	}
+
+	/**
+	 * How simulator messages are delivered to clients.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	enum DeliveryMode {
+		/** Waiting messages are sent, followed by "IDLE", and connection is closed. */
+		POLL,
+		/**
+		 * If there are no waiting messages, server waits for first message
+		 * until poll timeout. Messages are then sent as in poll mode.
+		 */
+		LONG_POLL,
+		/**
+		 * Connection stays open and client can send more messages. Every
+		 * message for client is sent as soon as it is stored, without
+		 * "IDLE".
+		 */
+		PUSH
+	}
+}
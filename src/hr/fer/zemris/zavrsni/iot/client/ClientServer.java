@@ -1,11 +1,27 @@
 package hr.fer.zemris.zavrsni.iot.client;
 
+import hr.fer.zemris.zavrsni.iot.log.Level;
+import hr.fer.zemris.zavrsni.iot.log.Logger;
+import hr.fer.zemris.zavrsni.iot.metrics.Counter;
+import hr.fer.zemris.zavrsni.iot.metrics.Gauge;
+import hr.fer.zemris.zavrsni.iot.metrics.Metrics;
+import hr.fer.zemris.zavrsni.iot.simulator.MessageListener;
 import hr.fer.zemris.zavrsni.iot.simulator.SimulatorMsgList;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
 import hr.fer.zemris.zavrsni.iot.utils.Message;
 
 import java.io.*;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Server for client TCP connection. It listen for new connection on given port.
@@ -13,7 +29,19 @@ import java.net.Socket;
  * is some data which needs to be send to client, it uses same connection for
  * response. Default port for listening is 25000. All received messages are
  * stored in {@code ClientMsgList}. If there is no data for client, it sends
- * "IDLE".
+ * "IDLE". If message can't be stored because {@code ClientMsgList} is full,
+ * it sends "REJECTED". Maximal number of clients handled at the same time is
+ * set with {@code iot.client.max.connections} setting (default 1000); when
+ * there are more clients, new client gets "BUSY" and connection is closed.
+ * With long poll delivery, handler waits for first message for client. With
+ * push delivery, connection stays open and messages are sent to client as
+ * they arrive by one of push threads which are shared by all connections
+ * ({@code iot.client.push.threads} setting, default 2). If writing of one
+ * message takes longer than {@code iot.client.push.write.timeout}
+ * milliseconds (default 5000), connection is closed, so slow client can't
+ * hold push thread. Message which can't be written is put back for the next
+ * connection of client. With pipelining, all lines which already arrived are
+ * handled together and connection stays open until client closes it.
  * 
  * @author Nikola Presečki
  * @version 1.0
@@ -23,11 +51,42 @@ public class ClientServer {
 	/** Server socket for connection. */
 	private ServerSocket serverSocket;
 	/** Counter of active workers. */
-	private int numOfWorkers = 0;
-	/** Output stream on which server will write its 'log' */
-	private PrintStream logStream = System.out;
-	/** Output stream on which server will write errors */
-	private PrintStream errorStream = System.err;
+	private final AtomicInteger numOfWorkers = new AtomicInteger();
+	/** Maximal number of active workers. */
+	private final int maxWorkers = Configuration.getInt("iot.client.max.connections", 1000);
+	/** Logger of client servers. */
+	private static final Logger LOG = Logger.getLogger("client");
+	/** Number of accepted connections. */
+	private static final Counter ACCEPTED = Metrics.counter("client.connections.accepted");
+	/** Number of connections refused with "BUSY". */
+	private static final Counter REJECTED = Metrics.counter("client.connections.rejected");
+	/** Number of push threads. */
+	private static final int PUSH_THREADS = Math.max(1, Configuration.getInt("iot.client.push.threads", 2));
+	/** Threads which send messages to clients with push delivery, started when they are needed. */
+	private static final ExecutorService PUSHERS = Executors.newFixedThreadPool(PUSH_THREADS, new ThreadFactory() {
+		/** Number of made threads. */
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "client-push-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	/** Time in milliseconds after which connection is closed if message is still being written to it. */
+	private static final long PUSH_WRITE_TIMEOUT = Configuration.getLong("iot.client.push.write.timeout", 5000);
+	/** Thread which closes connections whose writes take too long. */
+	private static final ScheduledExecutorService WRITE_WATCHDOG = Executors
+			.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "client-push-watchdog");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
 
 	/**
 	 * Constructor with no arguments. It defines that default port for listening
@@ -50,6 +109,13 @@ public class ClientServer {
 	 */
 	public ClientServer(int port) throws Exception {
 		serverSocket = new ServerSocket(port);
+		Metrics.gauge("client.connections", new Gauge() {
+
+			@Override
+			public long getValue() {
+				return numOfWorkers.get();
+			}
+		});
 		startServer();
 	}
 
@@ -58,26 +124,46 @@ public class ClientServer {
 	 * 
 	 * @throws IOException
 	 *             if there is problem with {@link ServerSocket}.
-	 * @throws InterruptedException
-	 *             if there is problem while sleeping when there is too much
-	 *             workers
 	 */
-	private void startServer() throws IOException, InterruptedException {
-		logStream.println("Client server started listening on port: " + serverSocket.getLocalPort() + "\n");
+	private void startServer() throws IOException {
+		LOG.info("Client server started listening on port: " + serverSocket.getLocalPort());
 		while (true) {
 			Socket socket = serverSocket.accept();
-			while (numOfWorkers > 1000)
-				Thread.sleep(1000);
+			if (numOfWorkers.incrementAndGet() > maxWorkers) {
+				numOfWorkers.decrementAndGet();
+				REJECTED.increment();
+				rejectClient(socket);
+				continue;
+			}
+			ACCEPTED.increment();
 			new Thread(new ClientHandler(socket)).start();
 		}
 	}
 
+	/**
+	 * Method for refusing client when there are too many workers. Client gets
+	 * "BUSY" and connection is closed.
+	 * 
+	 * @param socket
+	 *            socket of refused client
+	 */
+	private void rejectClient(Socket socket) {
+		try (Socket s = socket) {
+			PrintWriter output = new PrintWriter(s.getOutputStream(), true);
+			output.println(ClientProtocol.RETURN_BUSY);
+			// client gets end of stream after "BUSY", so the line isn't lost on close
+			s.shutdownOutput();
+		} catch (IOException e) {
+			LOG.error(e.toString());
+		}
+	}
+
 	/**
 	 * Class which will handler communication with client (thing).
 	 * 
 	 * @author Nikola Presečki
 	 * @version 1.0
-	 *
+	 * 
 	 */
 	private class ClientHandler implements Runnable {
 
@@ -85,8 +171,6 @@ public class ClientServer {
 		 * Socket for handling connection.
 		 */
 		private Socket socket;
-		/** Representation of idle return. */
-		private static final String RETURN_IDLE = "IDLE";
 
 		/**
 		 * Constructor with one argument.
@@ -96,80 +180,258 @@ public class ClientServer {
 		 */
 		public ClientHandler(Socket socket) {
 			this.socket = socket;
-			++numOfWorkers;
 		}
 
 		@Override
 		public void run() {
-			printDashes();
-			System.out.println("New connection accepted " + socket.getInetAddress() + ":" + socket.getPort()
-					+ "\nWorker number:" + numOfWorkers);
+			if (LOG.isSampled(Level.DEBUG))
+				LOG.debug("New connection accepted " + socket.getInetAddress() + ":" + socket.getPort()
+						+ "\nWorker number:" + numOfWorkers.get());
 			try (BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 					PrintWriter output = new PrintWriter(socket.getOutputStream(), true);) {
 				// read message
 				String message = input.readLine();
-				if (message == null)
-					return;
-				if ("".equals(message))
-					return;
-				// parse received message
-				Message tcpMsg = Message.parseClientMessage(message);
-				// print message
-				logStream.println("**\n" + tcpMsg.toString() + "**");
-				// store message
-				ClientMsgList.getInstance().addMessage(tcpMsg);
-				String returnMsg;
-				do {
-					// check if there is some return message for this client
-					returnMsg = getReturnClientMessage(tcpMsg.getSrcID());
-					// print return message
-					logStream.println("++\nReturn message:\n" + returnMsg + "\n++");
-					output.println(returnMsg);
-				} while (!RETURN_IDLE.equals(returnMsg));
+				// handle message and send return messages
+				switch (ClientProtocol.DELIVERY) {
+				case LONG_POLL:
+					longPoll(message, output);
+					break;
+				case PUSH:
+					push(message, input, output);
+					break;
+				default:
+					if (ClientProtocol.PIPELINING) {
+						pipeline(message, input, output);
+						break;
+					}
+					for (String returnMsg : ClientProtocol.handleRequest(message))
+						output.println(returnMsg);
+				}
 				output.flush();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			} catch (IOException e) {
-				errorStream.println(e.toString());
+				LOG.error(e.toString());
 			} finally {
 				try {
 					socket.close();
-					logStream.println("Connection closed by client");
+					LOG.debug("Connection closed by client");
 				} catch (IOException e) {
-					errorStream.println(e.toString());
+					LOG.error(e.toString());
 				} finally {
-					printDashes();
-					--numOfWorkers;
+					numOfWorkers.decrementAndGet();
+				}
+			}
+		}
+
+		/**
+		 * Method for handling many lines on one connection. Lines which
+		 * already arrived are handled together and their return messages are
+		 * sent in order.
+		 * 
+		 * @param message
+		 *            first received line
+		 * @param input
+		 *            input from client
+		 * @param output
+		 *            output to client
+		 * @throws IOException
+		 *             if there is problem with reading
+		 */
+		private void pipeline(String message, BufferedReader input, PrintWriter output) throws IOException {
+			List<String> lines = new ArrayList<>();
+			while (message != null) {
+				lines.add(message);
+				while (lines.size() < ClientProtocol.MAX_PIPELINE_BATCH && input.ready()
+						&& (message = input.readLine()) != null)
+					lines.add(message);
+				for (String returnMsg : ClientProtocol.handleRequests(lines))
+					output.print(returnMsg + System.lineSeparator());
+				output.flush();
+				lines.clear();
+				message = input.readLine();
+			}
+		}
+
+		/**
+		 * Method for handling message with long poll delivery. If there are
+		 * no messages for client, method waits for the first one until poll
+		 * timeout.
+		 * 
+		 * @param message
+		 *            received message
+		 * @param output
+		 *            output to client
+		 * @throws InterruptedException
+		 *             if thread is interrupted while waiting
+		 */
+		private void longPoll(String message, PrintWriter output) throws InterruptedException {
+			Message request = storeRequest(message, output);
+			if (request == null)
+				return;
+			List<String> returnMsgs;
+			try (Subscription subscription = new Subscription(request.getSrcID())) {
+				returnMsgs = ClientProtocol.drainReturnMessages(request.getSrcID());
+				if (returnMsgs.isEmpty() && subscription.await(ClientProtocol.POLL_TIMEOUT, TimeUnit.MILLISECONDS))
+					returnMsgs = ClientProtocol.drainReturnMessages(request.getSrcID());
+			}
+			for (String returnMsg : ClientProtocol.appendIdle(returnMsgs))
+				output.println(returnMsg);
+		}
+
+		/**
+		 * Method for handling connection with push delivery. This thread reads
+		 * and stores messages from client and push threads send messages to
+		 * client, until client closes connection.
+		 * 
+		 * @param message
+		 *            first received message
+		 * @param input
+		 *            input from client
+		 * @param output
+		 *            output to client
+		 * @throws IOException
+		 *             if there is problem with reading
+		 */
+		private void push(String message, BufferedReader input, PrintWriter output) throws IOException {
+			Message request = storeRequest(message, output);
+			if (request == null)
+				return;
+			Pusher pusher = new Pusher(request.getSrcID(), socket, output);
+			try {
+				while ((message = input.readLine()) != null) {
+					if (!message.isEmpty())
+						storeRequest(message, output);
 				}
+			} finally {
+				pusher.close();
 			}
 		}
 
 		/**
-		 * Method for getting return message for client.
+		 * Method for parsing and storing received message. If message is not
+		 * valid, client gets "ERROR", and if it is rejected, "REJECTED".
+		 * 
+		 * @param message
+		 *            received message
+		 * @param output
+		 *            output to client
+		 * @return parsed message or null if message is empty, invalid or
+		 *         rejected
+		 */
+		private Message storeRequest(String message, PrintWriter output) {
+			if (message == null || message.isEmpty())
+				return null;
+			Message request = ClientProtocol.parseRequest(message);
+			if (request == null) {
+				output.println(ClientProtocol.RETURN_ERROR);
+				return null;
+			}
+			if (!ClientProtocol.storeRequest(request)) {
+				output.println(ClientProtocol.RETURN_REJECTED);
+				return null;
+			}
+			return request;
+		}
+	}
+
+	/**
+	 * Sender of messages to client with push delivery. It is listener of
+	 * messages for client and when it is called, messages are sent by one of
+	 * push threads. Messages of one client are sent by one thread at a time,
+	 * so they are sent in order in which they were stored.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class Pusher implements MessageListener, Runnable, Closeable {
+		/** ID of client. */
+		private final String srcID;
+		/** Socket of client, closed if write takes too long. */
+		private final Socket socket;
+		/** Output to client. */
+		private final PrintWriter output;
+		/** Number of calls of listener which are not handled yet. */
+		private final AtomicInteger signals = new AtomicInteger();
+		/** Flag if connection is closed. */
+		private volatile boolean closed;
+
+		/**
+		 * Constructor. Pusher starts listening immediately and sends messages
+		 * which are already waiting.
 		 * 
 		 * @param srcID
 		 *            ID of client
-		 * @return return message
+		 * @param socket
+		 *            socket of client
+		 * @param output
+		 *            output to client
 		 */
-		public String getReturnClientMessage(String srcID) {
-			Message rmMsg = null;
-			String returnMsg = RETURN_IDLE;
-			for (Message message : SimulatorMsgList.getInstance().getMessages()) {
-				if (srcID.equals(message.getDestID())) {
-					rmMsg = message;
-					returnMsg = message.makeReturnMessageForClient();
-					break;
+		private Pusher(String srcID, Socket socket, PrintWriter output) {
+			this.srcID = srcID;
+			this.socket = socket;
+			this.output = output;
+			SimulatorMsgList.getInstance().addListener(srcID, this);
+			messagesAvailable(srcID);
+		}
+
+		@Override
+		public void messagesAvailable(String destID) {
+			// only the first signal starts sending, others are handled by it
+			if (!closed && signals.getAndIncrement() == 0)
+				PUSHERS.execute(this);
+		}
+
+		@Override
+		public void run() {
+			int handled;
+			do {
+				handled = signals.get();
+				try {
+					send();
+				} catch (RuntimeException e) {
+					LOG.error(e.toString());
 				}
-			}
-			SimulatorMsgList.getInstance().removeMessage(rmMsg);
-			return returnMsg;
+			} while (signals.addAndGet(-handled) != 0);
 		}
 
 		/**
-		 * Method for printing 80 dashes in a single line.
+		 * Method for sending all messages which are waiting for client. If
+		 * message can't be written, connection is gone, so message is put back
+		 * and nothing more is sent. Message is counted as delivered only when
+		 * it is written. Socket is closed by watchdog if write doesn't finish
+		 * in time, which also ends blocked write with error.
 		 */
-		private void printDashes() {
-			for (int i = 0; i < 80; ++i)
-				logStream.print('-');
-			logStream.println();
+		private void send() {
+			Message message;
+			while (!closed && (message = SimulatorMsgList.getInstance().takeMessageFor(srcID)) != null) {
+				ScheduledFuture<?> deadline = WRITE_WATCHDOG.schedule(new Runnable() {
+
+					@Override
+					public void run() {
+						LOG.warn("Push to " + srcID + " timed out, closing connection");
+						try {
+							socket.close();
+						} catch (IOException e) {
+							LOG.error(e.toString());
+						}
+					}
+				}, PUSH_WRITE_TIMEOUT, TimeUnit.MILLISECONDS);
+				output.println(message.makeReturnMessageForClient());
+				deadline.cancel(false);
+				if (output.checkError()) {
+					close();
+					SimulatorMsgList.getInstance().returnMessage(message);
+					return;
+				}
+				SimulatorMsgList.getInstance().messageDelivered(message);
+			}
+		}
+
+		@Override
+		public void close() {
+			closed = true;
+			SimulatorMsgList.getInstance().removeListener(srcID, this);
 		}
 	}
 }
@@ -0,0 +1,799 @@
+package hr.fer.zemris.zavrsni.iot.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import hr.fer.zemris.zavrsni.iot.log.Level;
+import hr.fer.zemris.zavrsni.iot.log.Logger;
+import hr.fer.zemris.zavrsni.iot.metrics.Counter;
+import hr.fer.zemris.zavrsni.iot.metrics.Gauge;
+import hr.fer.zemris.zavrsni.iot.metrics.Metrics;
+import hr.fer.zemris.zavrsni.iot.simulator.MessageListener;
+import hr.fer.zemris.zavrsni.iot.simulator.SimulatorMsgList;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Server for client TCP connection which handles all clients from one thread
+ * with {@link Selector}. Protocol is the same as in {@code ClientServer}:
+ * client sends one line, gets all messages for it followed by "IDLE" and
+ * connection is closed. Because there is no thread per client, thousands of
+ * connections can be handled at the same time. Maximal number of connections
+ * is set with {@code iot.client.max.connections} setting (default 1000); when
+ * there are more clients, new client gets "BUSY" and connection is closed.
+ * <p>
+ * With long poll and push delivery, connection is listener of messages for
+ * its client. Listener only puts connection into queue and wakes up selector,
+ * and messages are taken and written by selector thread. Pushed message is
+ * counted as delivered only when it is written, and messages which are not
+ * written when connection is closed are put back for the next connection of
+ * client. With pipelining, all lines received in one read are handled
+ * together.
+ * <p>
+ * Received lines are stored by worker threads ({@code iot.client.nio.workers}
+ * setting, default 4), because storing can wait for free space in client
+ * message list or for write-ahead log, and selector thread must not wait.
+ * Connection isn't read while its lines are stored, so lines of one client
+ * are stored in order in which they were sent.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class NioClientServer {
+
+	/** Maximal length of line received from client. */
+	private static final int MAX_LINE_LENGTH = 8192;
+	/** Charset used for communication, the same as in {@code ClientServer}. */
+	private static final Charset CHARSET = Charset.defaultCharset();
+	/** Line separator which is sent after every return message. */
+	private static final String LINE_SEPARATOR = System.lineSeparator();
+	/** Default number of threads which store received lines. */
+	private static final int DEFAULT_WORKERS = 4;
+
+	/** Server channel for connections. */
+	private ServerSocketChannel serverChannel;
+	/** Selector for all channels. */
+	private Selector selector;
+	/** Number of open connections, changed only by selector thread. */
+	private volatile int numOfConnections = 0;
+	/** Maximal number of open connections. */
+	private final int maxConnections = Configuration.getInt("iot.client.max.connections", 1000);
+	/** Connections which have new messages, filled by listeners. */
+	private final Queue<Connection> notified = new ConcurrentLinkedQueue<>();
+	/** Connections whose received lines are stored, filled by workers. */
+	private final Queue<Connection> handled = new ConcurrentLinkedQueue<>();
+	/** Threads which store received lines. */
+	private final ExecutorService workers;
+	/** Connections which wait in long poll, ordered by their deadlines. */
+	private final Queue<Connection> longPolls = new ArrayDeque<>();
+	/** Logger of client servers. */
+	private static final Logger LOG = Logger.getLogger("client");
+	/** Number of accepted connections. */
+	private static final Counter ACCEPTED = Metrics.counter("client.connections.accepted");
+	/** Number of connections refused with "BUSY". */
+	private static final Counter REJECTED = Metrics.counter("client.connections.rejected");
+
+	/**
+	 * Constructor with no arguments. It defines that default port for listening
+	 * is 25000.
+	 * 
+	 * @throws Exception
+	 *             if there is problem with server
+	 */
+	public NioClientServer() throws Exception {
+		this(25000);
+	}
+
+	/**
+	 * Constructor with one argument.
+	 * 
+	 * @param port
+	 *            port on which server will listen.
+	 * @throws Exception
+	 *             if there is problem with server
+	 */
+	public NioClientServer(int port) throws Exception {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.bind(new InetSocketAddress(port));
+		serverChannel.configureBlocking(false);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		workers = Executors.newFixedThreadPool(
+				Math.max(1, Configuration.getInt("iot.client.nio.workers", DEFAULT_WORKERS)), new ThreadFactory() {
+					private int number;
+
+					@Override
+					public synchronized Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "client-worker-" + number++);
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		Metrics.gauge("client.connections", new Gauge() {
+
+			@Override
+			public long getValue() {
+				return numOfConnections;
+			}
+		});
+		startServer();
+	}
+
+	/**
+	 * Method for starting server. It is infinite loop
+	 * 
+	 * @throws IOException
+	 *             if there is problem with {@link Selector}.
+	 */
+	private void startServer() throws IOException {
+		LOG.info("Client server (NIO) started listening on port: " + serverChannel.socket().getLocalPort());
+		while (true) {
+			selector.select(nextTimeout());
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+				try {
+					if (!key.isValid())
+						continue;
+					if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+					if (key.isReadable())
+						read(key);
+					if (key.isValid() && key.isWritable())
+						write(key);
+				} catch (IOException | RuntimeException e) {
+					LOG.error(e.toString());
+					close(key);
+				}
+			}
+			finishHandled();
+			deliverNotified();
+			expireLongPolls();
+		}
+	}
+
+	/**
+	 * Method for getting time for which selector can wait, so no long poll
+	 * waits longer than its timeout.
+	 * 
+	 * @return time in milliseconds, 0 if there is no long poll
+	 */
+	private long nextTimeout() {
+		Connection first = longPolls.peek();
+		if (first == null)
+			return 0;
+		return Math.max(1, TimeUnit.NANOSECONDS.toMillis(first.deadline - System.nanoTime()));
+	}
+
+	/**
+	 * Method for accepting all waiting connections.
+	 * 
+	 * @throws IOException
+	 *             if there is problem with server channel
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			if (numOfConnections >= maxConnections) {
+				REJECTED.increment();
+				reject(channel);
+				continue;
+			}
+			++numOfConnections;
+			ACCEPTED.increment();
+			Connection connection = new Connection();
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+			if (LOG.isSampled(Level.DEBUG))
+				LOG.debug("New connection accepted " + channel.socket().getInetAddress() + ":"
+						+ channel.socket().getPort() + "\nConnection number:" + numOfConnections);
+		}
+	}
+
+	/**
+	 * Method for refusing client when there are too many connections. Client
+	 * gets "BUSY" and connection is closed. If "BUSY" can't be written at
+	 * once, channel waits for writing like other connections, but it is not
+	 * counted as open connection.
+	 * 
+	 * @param channel
+	 *            channel of refused client
+	 * @throws IOException
+	 *             if channel can't be registered
+	 */
+	private void reject(SocketChannel channel) throws IOException {
+		Connection connection = new Connection();
+		connection.rejected = true;
+		connection.output = CHARSET.encode(ClientProtocol.RETURN_BUSY + LINE_SEPARATOR);
+		connection.closeAfterWrite = true;
+		connection.key = channel.register(selector, SelectionKey.OP_WRITE, connection);
+		try {
+			write(connection.key);
+		} catch (IOException e) {
+			LOG.error(e.toString());
+			close(connection.key);
+		}
+	}
+
+	/**
+	 * Method for reading data from client. Received lines are given to
+	 * worker thread.
+	 * 
+	 * @param key
+	 *            key of client channel
+	 * @throws IOException
+	 *             if there is problem with reading
+	 */
+	private void read(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		if (((SocketChannel) key.channel()).read(connection.input) < 0)
+			connection.endOfStream = true;
+		handleInput(connection);
+	}
+
+	/**
+	 * Method for giving received lines to worker thread. Only with push
+	 * delivery and pipelining more than one line is taken. If there are no
+	 * whole lines and client closed its side or line is too long, connection
+	 * is closed after return messages are written.
+	 * 
+	 * @param connection
+	 *            client connection
+	 */
+	private void handleInput(final Connection connection) {
+		if (connection.handling || connection.waiting || connection.closeAfterWrite)
+			return;
+		final List<String> lines = new ArrayList<>();
+		boolean manyLines = ClientProtocol.DELIVERY == ClientProtocol.DeliveryMode.PUSH || ClientProtocol.PIPELINING;
+		String line;
+		while ((manyLines || lines.isEmpty()) && lines.size() < ClientProtocol.MAX_PIPELINE_BATCH
+				&& (line = connection.nextLine(connection.endOfStream)) != null)
+			lines.add(line);
+		if (lines.isEmpty()) {
+			if (connection.endOfStream) {
+				// client closed its side, but it still gets return messages
+				send(connection, Collections.<String> emptyList(), true);
+			} else if (!connection.input.hasRemaining()) {
+				// line is too long
+				close(connection.key);
+			}
+			return;
+		}
+		connection.handling = true;
+		updateInterest(connection);
+		workers.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					connection.result = handleLines(lines);
+				} catch (RuntimeException e) {
+					LOG.error(e.toString());
+					connection.result = null;
+				}
+				handled.add(connection);
+				selector.wakeup();
+			}
+		});
+	}
+
+	/**
+	 * Method for storing received lines, called by worker thread. Messages
+	 * for client are taken here only with poll delivery, for other deliveries
+	 * selector thread subscribes connection and takes them.
+	 * 
+	 * @param lines
+	 *            received lines
+	 * @return return messages and stored request
+	 */
+	private static HandledLines handleLines(List<String> lines) {
+		HandledLines result = new HandledLines();
+		switch (ClientProtocol.DELIVERY) {
+		case LONG_POLL:
+			result.request = storeRequest(lines.get(0), result.returnMsgs);
+			result.closeAfterWrite = result.request == null;
+			break;
+		case PUSH:
+			for (String line : lines) {
+				Message request = storeRequest(line, result.returnMsgs);
+				if (result.request == null)
+					result.request = request;
+			}
+			break;
+		default:
+			if (!ClientProtocol.PIPELINING) {
+				result.returnMsgs = ClientProtocol.handleRequest(lines.get(0));
+				result.closeAfterWrite = true;
+			} else {
+				result.returnMsgs = ClientProtocol.handleRequests(lines);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Method for parsing and storing received line. If line is not valid,
+	 * "ERROR" is added to return messages, and if message is rejected,
+	 * "REJECTED".
+	 * 
+	 * @param line
+	 *            received line
+	 * @param returnMsgs
+	 *            return messages of client
+	 * @return parsed message or null if line is empty or invalid or message is
+	 *         rejected
+	 */
+	private static Message storeRequest(String line, List<String> returnMsgs) {
+		if (line.isEmpty())
+			return null;
+		Message request = ClientProtocol.parseRequest(line);
+		if (request == null) {
+			returnMsgs.add(ClientProtocol.RETURN_ERROR);
+			return null;
+		}
+		if (!ClientProtocol.storeRequest(request)) {
+			returnMsgs.add(ClientProtocol.RETURN_REJECTED);
+			return null;
+		}
+		return request;
+	}
+
+	/**
+	 * Method for sending results of stored lines to their connections and
+	 * for giving next received lines to workers.
+	 */
+	private void finishHandled() {
+		Connection connection;
+		while ((connection = handled.poll()) != null) {
+			HandledLines result = connection.result;
+			connection.result = null;
+			connection.handling = false;
+			if (connection.closed)
+				continue;
+			if (result == null) {
+				close(connection.key);
+				continue;
+			}
+			try {
+				send(connection, result.returnMsgs, result.closeAfterWrite);
+				if (result.request != null) {
+					if (ClientProtocol.DELIVERY == ClientProtocol.DeliveryMode.LONG_POLL)
+						longPoll(connection, result.request);
+					else
+						push(connection, result.request);
+				}
+				handleInput(connection);
+				updateInterest(connection);
+			} catch (RuntimeException e) {
+				LOG.error(e.toString());
+				close(connection.key);
+			}
+		}
+	}
+
+	/**
+	 * Method for handling stored request with long poll delivery. If there
+	 * are no messages for client, connection waits until listener is called
+	 * or poll timeout is up.
+	 * 
+	 * @param connection
+	 *            client connection
+	 * @param request
+	 *            stored request
+	 */
+	private void longPoll(Connection connection, Message request) {
+		// listener is set before messages are taken, so no message is missed
+		subscribe(connection, request.getSrcID());
+		List<String> returnMsgs = ClientProtocol.drainReturnMessages(request.getSrcID());
+		if (!returnMsgs.isEmpty()) {
+			finishLongPoll(connection, returnMsgs);
+			return;
+		}
+		connection.deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ClientProtocol.POLL_TIMEOUT);
+		connection.waiting = true;
+		longPolls.add(connection);
+		updateInterest(connection);
+	}
+
+	/**
+	 * Method for sending messages of long poll and "IDLE" to client.
+	 * 
+	 * @param connection
+	 *            client connection
+	 * @param returnMsgs
+	 *            messages for client
+	 */
+	private void finishLongPoll(Connection connection, List<String> returnMsgs) {
+		connection.waiting = false;
+		unsubscribe(connection);
+		send(connection, ClientProtocol.appendIdle(returnMsgs), true);
+	}
+
+	/**
+	 * Method for handling stored request with push delivery. First message
+	 * subscribes connection to messages of its client and all waiting
+	 * messages are sent.
+	 * 
+	 * @param connection
+	 *            client connection
+	 * @param request
+	 *            stored request
+	 */
+	private void push(Connection connection, Message request) {
+		if (connection.srcID != null)
+			return;
+		subscribe(connection, request.getSrcID());
+		sendPushed(connection);
+	}
+
+	/**
+	 * Method for adding all messages which are waiting for client of push
+	 * connection to data which will be written. Messages are remembered
+	 * until they are written, so they can be put back if connection is closed
+	 * before that.
+	 * 
+	 * @param connection
+	 *            client connection
+	 */
+	private void sendPushed(Connection connection) {
+		List<ByteBuffer> lines = new ArrayList<>();
+		int bytes = 0;
+		Message message;
+		while ((message = SimulatorMsgList.getInstance().takeMessageFor(connection.srcID)) != null) {
+			ByteBuffer line = CHARSET.encode(message.makeReturnMessageForClient() + LINE_SEPARATOR);
+			bytes += line.remaining();
+			lines.add(line);
+			connection.pushed.add(new PushedMessage(message, connection.appended + bytes));
+		}
+		if (!lines.isEmpty()) {
+			ByteBuffer data = ByteBuffer.allocate(bytes);
+			for (ByteBuffer line : lines)
+				data.put(line);
+			data.flip();
+			connection.append(data);
+		}
+		updateInterest(connection);
+	}
+
+	/**
+	 * Method for adding return messages to data which will be written to
+	 * client.
+	 * 
+	 * @param connection
+	 *            client connection
+	 * @param returnMsgs
+	 *            return messages
+	 * @param closeAfterWrite
+	 *            true if connection is closed when everything is written,
+	 *            nothing more is read from such connection
+	 */
+	private void send(Connection connection, List<String> returnMsgs, boolean closeAfterWrite) {
+		connection.closeAfterWrite |= closeAfterWrite;
+		if (!returnMsgs.isEmpty()) {
+			StringBuilder response = new StringBuilder();
+			for (String returnMsg : returnMsgs)
+				response.append(returnMsg).append(LINE_SEPARATOR);
+			connection.append(CHARSET.encode(response.toString()));
+		}
+		updateInterest(connection);
+	}
+
+	/**
+	 * Method for setting operations for which selector waits on connection.
+	 * Connection is read only if it can get more lines and its previous lines
+	 * are not being stored, and written if it has data or if it is closed
+	 * after write.
+	 * 
+	 * @param connection
+	 *            client connection
+	 */
+	private void updateInterest(Connection connection) {
+		if (connection.closed)
+			return;
+		int ops = 0;
+		if (connection.hasOutput() || connection.closeAfterWrite)
+			ops |= SelectionKey.OP_WRITE;
+		if (!connection.closeAfterWrite && !connection.waiting && !connection.handling && !connection.endOfStream)
+			ops |= SelectionKey.OP_READ;
+		connection.key.interestOps(ops);
+	}
+
+	/**
+	 * Method for setting connection as listener of messages for its client.
+	 * 
+	 * @param connection
+	 *            client connection
+	 * @param srcID
+	 *            ID of client
+	 */
+	private void subscribe(Connection connection, String srcID) {
+		connection.srcID = srcID;
+		SimulatorMsgList.getInstance().addListener(srcID, connection);
+	}
+
+	/**
+	 * Method for removing connection as listener of messages.
+	 * 
+	 * @param connection
+	 *            client connection
+	 */
+	private void unsubscribe(Connection connection) {
+		if (connection.srcID != null)
+			SimulatorMsgList.getInstance().removeListener(connection.srcID, connection);
+	}
+
+	/**
+	 * Method for sending messages to connections whose listeners were called.
+	 */
+	private void deliverNotified() {
+		Connection connection;
+		while ((connection = notified.poll()) != null) {
+			connection.notified.set(false);
+			if (connection.closed)
+				continue;
+			try {
+				if (connection.waiting) {
+					List<String> returnMsgs = ClientProtocol.drainReturnMessages(connection.srcID);
+					if (!returnMsgs.isEmpty())
+						finishLongPoll(connection, returnMsgs);
+				} else if (ClientProtocol.DELIVERY == ClientProtocol.DeliveryMode.PUSH) {
+					sendPushed(connection);
+				}
+			} catch (RuntimeException e) {
+				LOG.error(e.toString());
+				close(connection.key);
+			}
+		}
+	}
+
+	/**
+	 * Method for ending long polls whose timeout is up. Client gets only
+	 * "IDLE".
+	 */
+	private void expireLongPolls() {
+		long now = System.nanoTime();
+		Connection connection;
+		while ((connection = longPolls.peek()) != null && (!connection.waiting || connection.deadline - now <= 0)) {
+			longPolls.poll();
+			if (connection.waiting && !connection.closed)
+				finishLongPoll(connection, ClientProtocol.drainReturnMessages(connection.srcID));
+		}
+	}
+
+	/**
+	 * Method for writing prepared return messages. When everything is
+	 * written, connection is closed or, with push delivery, it waits for more
+	 * data.
+	 * 
+	 * @param key
+	 *            key of client channel
+	 * @throws IOException
+	 *             if there is problem with writing
+	 */
+	private void write(SelectionKey key) throws IOException {
+		Connection connection = (Connection) key.attachment();
+		if (connection.hasOutput())
+			connection.written(((SocketChannel) key.channel()).write(connection.output));
+		if (connection.hasOutput())
+			return;
+		if (connection.closeAfterWrite)
+			close(key);
+		else
+			updateInterest(connection);
+	}
+
+	/**
+	 * Method for closing client connection. Pushed messages which are not
+	 * written yet are put back.
+	 * 
+	 * @param key
+	 *            key of client channel
+	 */
+	private void close(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		if (connection == null || connection.closed)
+			return;
+		connection.closed = true;
+		if (!connection.rejected)
+			--numOfConnections;
+		unsubscribe(connection);
+		PushedMessage pushed;
+		while ((pushed = connection.pushed.poll()) != null)
+			SimulatorMsgList.getInstance().returnMessage(pushed.message);
+		key.cancel();
+		try {
+			key.channel().close();
+			LOG.debug("Connection closed");
+		} catch (IOException e) {
+			LOG.error(e.toString());
+		}
+	}
+
+	/**
+	 * State of one client connection. Connection is also listener of messages
+	 * for its client, which is the only part called from other threads.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private class Connection implements MessageListener {
+		/** Received data. */
+		private final ByteBuffer input = ByteBuffer.allocate(MAX_LINE_LENGTH);
+		/** Flag if connection is in queue of notified connections. */
+		private final AtomicBoolean notified = new AtomicBoolean();
+		/** Pushed messages which are not completely written yet, in order. */
+		private final Queue<PushedMessage> pushed = new ArrayDeque<>();
+		/** Number of bytes ever added to output. */
+		private long appended;
+		/** Number of bytes ever written to client. */
+		private long written;
+		/** Key of connection channel. */
+		private SelectionKey key;
+		/** Data which will be sent to client. */
+		private ByteBuffer output;
+		/** ID of client whose messages are delivered, null before first message. */
+		private String srcID;
+		/** Time in nanoseconds when long poll ends. */
+		private long deadline;
+		/** Flag if connection waits in long poll. */
+		private boolean waiting;
+		/** Flag if connection is closed after output is written. */
+		private boolean closeAfterWrite;
+		/** Flag if received lines of connection are being stored. */
+		private boolean handling;
+		/** Flag if client closed its side of connection. */
+		private boolean endOfStream;
+		/** Result of stored lines, set by worker thread. */
+		private HandledLines result;
+		/** Flag if connection is closed. */
+		private boolean closed;
+		/** Flag if connection is refused with "BUSY", so it isn't counted. */
+		private boolean rejected;
+
+		@Override
+		public void messagesAvailable(String destID) {
+			if (notified.compareAndSet(false, true)) {
+				NioClientServer.this.notified.add(this);
+				selector.wakeup();
+			}
+		}
+
+		/**
+		 * Method for checking if there is data which is not written yet.
+		 * 
+		 * @return true if there is data for writing, otherwise false
+		 */
+		boolean hasOutput() {
+			return output != null && output.hasRemaining();
+		}
+
+		/**
+		 * Method for adding data after data which is not written yet.
+		 * 
+		 * @param data
+		 *            data for writing
+		 */
+		void append(ByteBuffer data) {
+			appended += data.remaining();
+			if (!hasOutput()) {
+				output = data;
+				return;
+			}
+			ByteBuffer joined = ByteBuffer.allocate(output.remaining() + data.remaining());
+			joined.put(output).put(data);
+			joined.flip();
+			output = joined;
+		}
+
+		/**
+		 * Method for reporting written bytes. Pushed messages whose bytes are
+		 * all written are counted as delivered.
+		 * 
+		 * @param bytes
+		 *            number of written bytes
+		 */
+		void written(int bytes) {
+			written += bytes;
+			while (!pushed.isEmpty() && pushed.peek().end <= written)
+				SimulatorMsgList.getInstance().messageDelivered(pushed.poll().message);
+		}
+
+		/**
+		 * Method for taking first received line. Line ends with new line
+		 * character (which is not part of the line) or with end of stream.
+		 * Taken line is removed from received data.
+		 * 
+		 * @param endOfStream
+		 *            true if client closed its side of connection
+		 * @return line or null if line is not received yet
+		 */
+		String nextLine(boolean endOfStream) {
+			int end = -1;
+			for (int i = 0, len = input.position(); i < len; ++i) {
+				if (input.get(i) == '\n') {
+					end = i;
+					break;
+				}
+			}
+			int next = end + 1;
+			if (end < 0) {
+				if (!endOfStream || input.position() == 0)
+					return null;
+				end = input.position();
+				next = end;
+			}
+			int length = end;
+			if (length > 0 && input.get(length - 1) == '\r')
+				--length;
+			String line = new String(input.array(), 0, length, CHARSET);
+			// keep only data after the line
+			input.flip();
+			input.position(next);
+			input.compact();
+			return line;
+		}
+	}
+
+	/**
+	 * Message which is added to output of push connection.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class PushedMessage {
+		/** Pushed message. */
+		private final Message message;
+		/** Number of bytes ever added to output when message is added. */
+		private final long end;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param message
+		 *            pushed message
+		 * @param end
+		 *            number of bytes ever added to output when message is
+		 *            added
+		 */
+		private PushedMessage(Message message, long end) {
+			this.message = message;
+			this.end = end;
+		}
+	}
+
+	/**
+	 * Result of lines which worker thread stored.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class HandledLines {
+		/** Lines which will be returned to client. */
+		private List<String> returnMsgs = new ArrayList<>();
+		/** Flag if connection is closed after return messages are written. */
+		private boolean closeAfterWrite;
+		/** Stored request whose client gets messages later, null if there is no such request. */
+		private Message request;
+	}
+}
@@ -0,0 +1,65 @@
+package hr.fer.zemris.zavrsni.iot.client;
+
+import java.io.Closeable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.zavrsni.iot.simulator.MessageListener;
+import hr.fer.zemris.zavrsni.iot.simulator.SimulatorMsgList;
+
+/**
+ * Subscription of one client to its simulator messages, used by client
+ * handler thread which waits for messages. Subscription is made before
+ * waiting messages are taken, so message which arrives between taking and
+ * waiting is not missed.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+final class Subscription implements MessageListener, Closeable {
+
+	/** ID of client. */
+	private final String srcID;
+	/** Signal which has permit when there are new messages. */
+	private final Semaphore signal = new Semaphore(0);
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param srcID
+	 *            ID of client
+	 */
+	Subscription(String srcID) {
+		this.srcID = srcID;
+		SimulatorMsgList.getInstance().addListener(srcID, this);
+	}
+
+	@Override
+	public void messagesAvailable(String destID) {
+		if (signal.availablePermits() == 0)
+			signal.release();
+	}
+
+	/**
+	 * Method for waiting until new message for client is stored.
+	 * 
+	 * @param timeout
+	 *            maximal time of waiting
+	 * @param unit
+	 *            unit of timeout
+	 * @return true if message is stored, false if time is up
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+		if (!signal.tryAcquire(timeout, unit))
+			return false;
+		signal.drainPermits();
+		return true;
+	}
+
+	@Override
+	public void close() {
+		SimulatorMsgList.getInstance().removeListener(srcID, this);
+	}
+}
@@ -0,0 +1,18 @@
+package hr.fer.zemris.zavrsni.iot.log;
+
+/**
+ * Levels of log records, from the least to the most important.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public enum Level {
+	/** Details of every message and connection. */
+	DEBUG,
+	/** Starting and stopping of servers and statistics. */
+	INFO,
+	/** Rejected or dropped messages and other problems server recovered from. */
+	WARN,
+	/** Errors. */
+	ERROR
+}
@@ -0,0 +1,235 @@
+package hr.fer.zemris.zavrsni.iot.log;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+import hr.fer.zemris.zavrsni.iot.utils.RingBufferQueue;
+
+/**
+ * Singleton which writes log records in its own thread. Records wait in
+ * bounded {@link RingBufferQueue}; thread takes all waiting records, formats
+ * them together and writes them with one write and one flush. If buffer is
+ * full, record is dropped and number of dropped records is written later.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+final class LogWriter implements Runnable {
+
+	/** Default number of records which can wait for writing. */
+	private static final int DEFAULT_CAPACITY = 65536;
+	/** Maximal number of records written together. */
+	private static final int MAX_BATCH = 1024;
+	/** Maximal time in milliseconds for which flush waits. */
+	private static final long FLUSH_TIMEOUT = 1000;
+
+	/** Class instance. */
+	private static LogWriter instance = null;
+
+	/** Records which wait for writing. */
+	private final RingBufferQueue<LogRecord> records;
+	/** Number of dropped records which are not reported yet. */
+	private final AtomicLong dropped = new AtomicLong();
+	/** Number of records which are added to buffer. */
+	private final AtomicLong appended = new AtomicLong();
+	/** Number of written records, changed only by writer thread. */
+	private volatile long written;
+	/** File to which records are written, null for console. */
+	private final Writer file;
+	/** Format of record time, used only by writer thread. */
+	private final SimpleDateFormat timeFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+
+	/** Private constructor for stoping instantiation. */
+	private LogWriter() {
+		records = new RingBufferQueue<>(Configuration.getInt("iot.log.buffer", DEFAULT_CAPACITY));
+		String fileName = Configuration.getString("iot.log.file", null);
+		Writer writer = null;
+		if (fileName != null) {
+			try {
+				writer = Files.newBufferedWriter(Paths.get(fileName), StandardCharsets.UTF_8,
+						StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			} catch (IOException e) {
+				System.err.println("Log file " + fileName + " can't be opened, writing to console\n" + e.toString());
+			}
+		}
+		file = writer;
+		Thread thread = new Thread(this, "log-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Method for getting class instance (single instance for every method
+	 * call).
+	 * 
+	 * @return class instance
+	 */
+	static LogWriter getInstance() {
+		if (instance == null) {
+			synchronized (LogWriter.class) {
+				if (instance == null) {
+					instance = new LogWriter();
+				}
+			}
+		}
+		return instance;
+	}
+
+	/**
+	 * Method for adding record to buffer. Method never waits; if buffer is
+	 * full, record is dropped.
+	 * 
+	 * @param level
+	 *            level of record
+	 * @param name
+	 *            name of logger
+	 * @param text
+	 *            text of record
+	 */
+	void append(Level level, String name, String text) {
+		if (records.offer(new LogRecord(System.currentTimeMillis(), level, name, text)))
+			appended.incrementAndGet();
+		else
+			dropped.incrementAndGet();
+	}
+
+	/**
+	 * Method for waiting until all records which are added until now are
+	 * written, but not longer than one second.
+	 */
+	void flush() {
+		long target = appended.get();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(FLUSH_TIMEOUT);
+		while (written < target && System.nanoTime() < deadline) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		List<LogRecord> batch = new ArrayList<>(MAX_BATCH);
+		StringBuilder out = new StringBuilder();
+		StringBuilder err = new StringBuilder();
+		while (true) {
+			try {
+				batch.add(records.take());
+			} catch (InterruptedException e) {
+				return;
+			}
+			records.drainTo(batch, MAX_BATCH - 1);
+			long lost = dropped.getAndSet(0);
+			if (lost > 0)
+				format(new LogRecord(System.currentTimeMillis(), Level.WARN, "log", lost + " log records dropped"),
+						file != null ? out : err);
+			for (LogRecord record : batch)
+				format(record, file == null && record.level.compareTo(Level.WARN) >= 0 ? err : out);
+			write(out, err);
+			written += batch.size();
+			batch.clear();
+			out.setLength(0);
+			err.setLength(0);
+		}
+	}
+
+	/**
+	 * Method for formatting record as one or more lines.
+	 * 
+	 * @param record
+	 *            record
+	 * @param builder
+	 *            builder to which lines are added
+	 */
+	private void format(LogRecord record, StringBuilder builder) {
+		builder.append(timeFormat.format(new Date(record.time))).append(' ').append(record.level).append(" [")
+				.append(record.name).append("] ").append(record.text).append(System.lineSeparator());
+	}
+
+	/**
+	 * Method for writing formatted records.
+	 * 
+	 * @param out
+	 *            records for standard output or file
+	 * @param err
+	 *            records for standard error
+	 */
+	private void write(StringBuilder out, StringBuilder err) {
+		if (file != null) {
+			try {
+				file.append(out);
+				file.flush();
+			} catch (IOException e) {
+				System.err.println("Log file can't be written\n" + e.toString());
+			}
+		} else if (out.length() > 0) {
+			print(System.out, out);
+		}
+		if (err.length() > 0)
+			print(System.err, err);
+	}
+
+	/**
+	 * Method for printing text to console with one call.
+	 * 
+	 * @param stream
+	 *            console stream
+	 * @param text
+	 *            text
+	 */
+	private static void print(PrintStream stream, StringBuilder text) {
+		stream.print(text);
+		stream.flush();
+	}
+
+	/**
+	 * One log record.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class LogRecord {
+		/** Time of record in milliseconds. */
+		private final long time;
+		/** Level of record. */
+		private final Level level;
+		/** Name of logger. */
+		private final String name;
+		/** Text of record. */
+		private final String text;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param time
+		 *            time of record in milliseconds
+		 * @param level
+		 *            level of record
+		 * @param name
+		 *            name of logger
+		 * @param text
+		 *            text of record
+		 */
+		LogRecord(long time, Level level, String name, String text) {
+			this.time = time;
+			this.level = level;
+			this.name = name;
+			this.text = text;
+		}
+	}
+}
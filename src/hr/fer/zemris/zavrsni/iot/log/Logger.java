@@ -0,0 +1,155 @@
+package hr.fer.zemris.zavrsni.iot.log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+
+/**
+ * Logger of one part of the server. Records are only put into ring buffer of
+ * {@link LogWriter} and they are formatted and written by its thread, so
+ * logging never waits for console or file. Settings:
+ * <p>
+ * <pre>
+ * iot.log.level  - minimal level of written records: debug (default), info, warn or error
+ * iot.log.sample - only every n-th record about single message is written (default 1, every record)
+ * iot.log.file   - file to which records are appended; if it is not given, records are written to console
+ * iot.log.buffer - number of records which can wait for writing, more records are dropped (default 65536)
+ * </pre>
+ * Records about single messages are made only if {@link #isSampled(Level)}
+ * returns true, so text of skipped records is not even made.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class Logger {
+
+	/** Minimal level of written records. */
+	private static final Level LEVEL = Configuration.getEnum("iot.log.level", Level.class, Level.DEBUG);
+	/** Every which record about single message is written. */
+	private static final int SAMPLE_RATE = Math.max(1, Configuration.getInt("iot.log.sample", 1));
+	/** Loggers mapped by name. */
+	private static final ConcurrentMap<String, Logger> LOGGERS = new ConcurrentHashMap<>();
+
+	/** Name of the logger. */
+	private final String name;
+	/** Counter of records about single message. */
+	private final AtomicLong sampleCounter = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param name
+	 *            name of the logger
+	 */
+	private Logger(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Method for getting logger with given name. The same logger is returned
+	 * for the same name.
+	 * 
+	 * @param name
+	 *            name of the logger
+	 * @return logger
+	 */
+	public static Logger getLogger(String name) {
+		Logger logger = LOGGERS.get(name);
+		if (logger == null) {
+			Logger newLogger = new Logger(name);
+			logger = LOGGERS.putIfAbsent(name, newLogger);
+			if (logger == null)
+				logger = newLogger;
+		}
+		return logger;
+	}
+
+	/**
+	 * Method for checking if records of given level are written.
+	 * 
+	 * @param level
+	 *            level of record
+	 * @return true if records are written, otherwise false
+	 */
+	public boolean isEnabled(Level level) {
+		return level.compareTo(LEVEL) >= 0;
+	}
+
+	/**
+	 * Method for checking if next record about single message should be
+	 * written. Only every n-th call returns true, as set with
+	 * {@code iot.log.sample} setting.
+	 * 
+	 * @param level
+	 *            level of record
+	 * @return true if record should be written, otherwise false
+	 */
+	public boolean isSampled(Level level) {
+		if (!isEnabled(level))
+			return false;
+		return SAMPLE_RATE == 1 || sampleCounter.getAndIncrement() % SAMPLE_RATE == 0;
+	}
+
+	/**
+	 * Method for logging record with debug level.
+	 * 
+	 * @param text
+	 *            text of record
+	 */
+	public void debug(String text) {
+		log(Level.DEBUG, text);
+	}
+
+	/**
+	 * Method for logging record with info level.
+	 * 
+	 * @param text
+	 *            text of record
+	 */
+	public void info(String text) {
+		log(Level.INFO, text);
+	}
+
+	/**
+	 * Method for logging record with warn level.
+	 * 
+	 * @param text
+	 *            text of record
+	 */
+	public void warn(String text) {
+		log(Level.WARN, text);
+	}
+
+	/**
+	 * Method for logging record with error level.
+	 * 
+	 * @param text
+	 *            text of record
+	 */
+	public void error(String text) {
+		log(Level.ERROR, text);
+	}
+
+	/**
+	 * Method for logging record with given level.
+	 * 
+	 * @param level
+	 *            level of record
+	 * @param text
+	 *            text of record
+	 */
+	public void log(Level level, String text) {
+		if (isEnabled(level))
+			LogWriter.getInstance().append(level, name, text);
+	}
+
+	/**
+	 * Method for writing all records which are waiting, used before program
+	 * is terminated.
+	 */
+	public static void flush() {
+		LogWriter.getInstance().flush();
+	}
+}
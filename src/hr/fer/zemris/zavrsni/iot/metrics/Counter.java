@@ -0,0 +1,44 @@
+package hr.fer.zemris.zavrsni.iot.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter which is only increased. Every thread increases its own cell, so
+ * threads which count the same event don't wait for each other.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class Counter {
+
+	/** Value of the counter. */
+	private final LongAdder value = new LongAdder();
+
+	/** Constructor, counters are made by {@link Metrics}. */
+	Counter() {
+	}
+
+	/** Method for increasing counter by one. */
+	public void increment() {
+		value.increment();
+	}
+
+	/**
+	 * Method for increasing counter by given number.
+	 * 
+	 * @param amount
+	 *            number which is added
+	 */
+	public void add(long amount) {
+		value.add(amount);
+	}
+
+	/**
+	 * Getter for value of the counter.
+	 * 
+	 * @return value
+	 */
+	public long get() {
+		return value.sum();
+	}
+}
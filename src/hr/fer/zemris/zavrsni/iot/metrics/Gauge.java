@@ -0,0 +1,18 @@
+package hr.fer.zemris.zavrsni.iot.metrics;
+
+/**
+ * Value which is read only when metrics are requested, for example size of
+ * message list.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public interface Gauge {
+
+	/**
+	 * Method for reading current value.
+	 * 
+	 * @return value
+	 */
+	long getValue();
+}
@@ -0,0 +1,156 @@
+package hr.fer.zemris.zavrsni.iot.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds with buckets as in HDR histogram.
+ * Values smaller than 64 have their own buckets and every larger power of two
+ * is split into 32 buckets of the same width, so value is known with error
+ * smaller than about 3% for any duration and all buckets fit into one fixed
+ * array. Recording is lock-free and doesn't make any objects.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class Histogram {
+
+	/** Number of bits which select bucket inside one power of two. */
+	private static final int SUB_BUCKET_BITS = 5;
+	/** Number of buckets inside one power of two. */
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	/** Number of buckets, enough for any positive long. */
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	/** Number of recorded values in every bucket. */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	/** Number of recorded values. */
+	private final LongAdder count = new LongAdder();
+	/** Sum of recorded values. */
+	private final LongAdder sum = new LongAdder();
+	/** The largest recorded value. */
+	private final AtomicLong max = new AtomicLong();
+
+	/** Constructor, histograms are made by {@link Metrics}. */
+	Histogram() {
+	}
+
+	/**
+	 * Method for recording one duration.
+	 * 
+	 * @param nanos
+	 *            duration in nanoseconds, negative duration is recorded as 0
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(bucketOf(value));
+		count.increment();
+		sum.add(value);
+		long current;
+		while (value > (current = max.get()) && !max.compareAndSet(current, value))
+			;
+	}
+
+	/**
+	 * Method for recording time passed from given moment.
+	 * 
+	 * @param startNanos
+	 *            moment as returned by {@link System#nanoTime()}
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Getter for number of recorded values.
+	 * 
+	 * @return number of values
+	 */
+	public long getCount() {
+		return count.sum();
+	}
+
+	/**
+	 * Getter for average of recorded values.
+	 * 
+	 * @param unit
+	 *            unit of returned value
+	 * @return average, 0 if there are no values
+	 */
+	public long getMean(TimeUnit unit) {
+		long n = count.sum();
+		return n == 0 ? 0 : unit.convert(sum.sum() / n, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Getter for the largest recorded value.
+	 * 
+	 * @param unit
+	 *            unit of returned value
+	 * @return the largest value, 0 if there are no values
+	 */
+	public long getMax(TimeUnit unit) {
+		return unit.convert(max.get(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Method for getting value which is not smaller than given percentage of
+	 * recorded values. Returned value is the upper bound of bucket in which
+	 * percentile is, so it is never smaller than real percentile.
+	 * 
+	 * @param percentile
+	 *            percentage from 0 to 100
+	 * @param unit
+	 *            unit of returned value
+	 * @return percentile, 0 if there are no values
+	 */
+	public long getPercentile(double percentile, TimeUnit unit) {
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; ++i) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return unit.convert(Math.min(upperBoundOf(i), max.get()), TimeUnit.NANOSECONDS);
+		}
+		return getMax(unit);
+	}
+
+	/**
+	 * Method for finding bucket of given value.
+	 * 
+	 * @param value
+	 *            value which is not negative
+	 * @return index of bucket
+	 */
+	private static int bucketOf(long value) {
+		if (value < 2 * SUB_BUCKETS)
+			return (int) value;
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * Method for finding the largest value which is put in given bucket.
+	 * 
+	 * @param bucket
+	 *            index of bucket
+	 * @return the largest value of bucket
+	 */
+	private static long upperBoundOf(int bucket) {
+		if (bucket < 2 * SUB_BUCKETS)
+			return bucket;
+		int shift = bucket / SUB_BUCKETS - 1;
+		long first = (long) (bucket % SUB_BUCKETS + SUB_BUCKETS) << shift;
+		return first + (1L << shift) - 1;
+	}
+}
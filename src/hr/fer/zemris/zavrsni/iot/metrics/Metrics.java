@@ -0,0 +1,128 @@
+package hr.fer.zemris.zavrsni.iot.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of all counters, gauges and histograms of the server. Parts of
+ * the server get their metrics once and keep them in fields, so recording
+ * doesn't look anything up. Values are read with {@link #getValues()}, which
+ * is used by {@link MetricsServer} for HTTP and JMX.
+ * <p>
+ * Histograms are shown as count, mean, 50th, 90th, 99th and 99.9th
+ * percentile and maximum, all durations in microseconds.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class Metrics {
+
+	/** Percentiles which are shown for every histogram. */
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+	/** Names of shown percentiles. */
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	/** Counters mapped by name. */
+	private static final ConcurrentMap<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+	/** Gauges mapped by name. */
+	private static final ConcurrentMap<String, Gauge> GAUGES = new ConcurrentSkipListMap<>();
+	/** Histograms mapped by name. */
+	private static final ConcurrentMap<String, Histogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+
+	/** Private constructor for stoping instantiation. */
+	private Metrics() {
+	}
+
+	/**
+	 * Method for getting counter with given name. The same counter is
+	 * returned for the same name.
+	 * 
+	 * @param name
+	 *            name of the counter
+	 * @return counter
+	 */
+	public static Counter counter(String name) {
+		Counter counter = COUNTERS.get(name);
+		if (counter == null) {
+			Counter newCounter = new Counter();
+			counter = COUNTERS.putIfAbsent(name, newCounter);
+			if (counter == null)
+				counter = newCounter;
+		}
+		return counter;
+	}
+
+	/**
+	 * Method for getting histogram with given name. The same histogram is
+	 * returned for the same name.
+	 * 
+	 * @param name
+	 *            name of the histogram
+	 * @return histogram
+	 */
+	public static Histogram histogram(String name) {
+		Histogram histogram = HISTOGRAMS.get(name);
+		if (histogram == null) {
+			Histogram newHistogram = new Histogram();
+			histogram = HISTOGRAMS.putIfAbsent(name, newHistogram);
+			if (histogram == null)
+				histogram = newHistogram;
+		}
+		return histogram;
+	}
+
+	/**
+	 * Method for registering gauge. Gauge replaces previous gauge with the
+	 * same name.
+	 * 
+	 * @param name
+	 *            name of the gauge
+	 * @param gauge
+	 *            gauge
+	 */
+	public static void gauge(String name, Gauge gauge) {
+		GAUGES.put(name, gauge);
+	}
+
+	/**
+	 * Method for reading all metrics. Every histogram gives more values whose
+	 * names start with name of the histogram.
+	 * 
+	 * @return values mapped by name, sorted by name inside every kind of
+	 *         metrics
+	 */
+	public static Map<String, Long> getValues() {
+		Map<String, Long> values = new LinkedHashMap<>();
+		for (Map.Entry<String, Gauge> entry : GAUGES.entrySet())
+			values.put(entry.getKey(), entry.getValue().getValue());
+		for (Map.Entry<String, Counter> entry : COUNTERS.entrySet())
+			values.put(entry.getKey(), entry.getValue().get());
+		for (Map.Entry<String, Histogram> entry : HISTOGRAMS.entrySet()) {
+			String name = entry.getKey();
+			Histogram histogram = entry.getValue();
+			values.put(name + ".count", histogram.getCount());
+			values.put(name + ".mean", histogram.getMean(TimeUnit.MICROSECONDS));
+			for (int i = 0; i < PERCENTILES.length; ++i)
+				values.put(name + "." + PERCENTILE_NAMES[i],
+						histogram.getPercentile(PERCENTILES[i], TimeUnit.MICROSECONDS));
+			values.put(name + ".max", histogram.getMax(TimeUnit.MICROSECONDS));
+		}
+		return values;
+	}
+
+	/**
+	 * Method for writing all metrics as text, one "name value" pair in every
+	 * line.
+	 * 
+	 * @return metrics as text
+	 */
+	public static String toText() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, Long> entry : getValues().entrySet())
+			sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+		return sb.toString();
+	}
+}
@@ -0,0 +1,163 @@
+package hr.fer.zemris.zavrsni.iot.metrics;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import hr.fer.zemris.zavrsni.iot.log.Logger;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+
+/**
+ * Class which shows {@link Metrics} outside of the server. Metrics are
+ * available as text on local HTTP endpoint {@code /metrics} and as
+ * attributes of JMX bean {@code hr.fer.zemris.zavrsni.iot:type=Metrics}.
+ * Settings:
+ * <p>
+ * <pre>
+ * iot.metrics.port - port of HTTP endpoint, 0 for no endpoint (default 0)
+ * iot.metrics.host - address on which HTTP endpoint listens (default 127.0.0.1)
+ * iot.metrics.jmx  - true if JMX bean is registered (default true)
+ * </pre>
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class MetricsServer {
+
+	/** Name of JMX bean. */
+	private static final String MBEAN_NAME = "hr.fer.zemris.zavrsni.iot:type=Metrics";
+	/** Logger of metrics. */
+	private static final Logger LOG = Logger.getLogger("metrics");
+
+	/** Private constructor for stoping instantiation. */
+	private MetricsServer() {
+	}
+
+	/**
+	 * Method for starting HTTP endpoint and registering JMX bean as
+	 * configured. Problems are logged, server works without metrics.
+	 */
+	public static void start() {
+		if (Configuration.getBoolean("iot.metrics.jmx", true)) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(),
+						new ObjectName(MBEAN_NAME));
+			} catch (JMException e) {
+				LOG.error("Metrics bean can't be registered: " + e.toString());
+			}
+		}
+		int port = Configuration.getInt("iot.metrics.port", 0);
+		if (port <= 0)
+			return;
+		String host = Configuration.getString("iot.metrics.host", "127.0.0.1");
+		try {
+			HttpServer server = HttpServer.create(new InetSocketAddress(host, port), 0);
+			server.createContext("/metrics", new MetricsHandler());
+			server.start();
+			LOG.info("Metrics available on http://" + host + ":" + server.getAddress().getPort() + "/metrics");
+		} catch (IOException e) {
+			LOG.error("Metrics endpoint can't be started: " + e.toString());
+		}
+	}
+
+	/**
+	 * Handler which returns all metrics as text.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class MetricsHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				if (!"GET".equals(exchange.getRequestMethod())) {
+					exchange.sendResponseHeaders(405, -1);
+					return;
+				}
+				byte[] body = Metrics.toText().getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream output = exchange.getResponseBody()) {
+					output.write(body);
+				}
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+
+	/**
+	 * JMX bean which has one read only attribute for every metric. Attributes
+	 * are read from {@link Metrics} every time, so metrics registered later
+	 * are shown too.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class MetricsBean implements DynamicMBean {
+
+		@Override
+		public Object getAttribute(String attribute) throws AttributeNotFoundException {
+			Long value = Metrics.getValues().get(attribute);
+			if (value == null)
+				throw new AttributeNotFoundException(attribute);
+			return value;
+		}
+
+		@Override
+		public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+			throw new AttributeNotFoundException(attribute.getName() + " is read only");
+		}
+
+		@Override
+		public AttributeList getAttributes(String[] attributes) {
+			Map<String, Long> values = Metrics.getValues();
+			AttributeList list = new AttributeList();
+			for (String name : attributes) {
+				Long value = values.get(name);
+				if (value != null)
+					list.add(new Attribute(name, value));
+			}
+			return list;
+		}
+
+		@Override
+		public AttributeList setAttributes(AttributeList attributes) {
+			return new AttributeList();
+		}
+
+		@Override
+		public Object invoke(String actionName, Object[] params, String[] signature) {
+			throw new UnsupportedOperationException(actionName);
+		}
+
+		@Override
+		public MBeanInfo getMBeanInfo() {
+			Map<String, Long> values = Metrics.getValues();
+			MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[values.size()];
+			int i = 0;
+			for (String name : values.keySet())
+				attributes[i++] = new MBeanAttributeInfo(name, Long.class.getName(), name, true, false, false);
+			return new MBeanInfo(getClass().getName(), "Metrics of IoT server", attributes, null,
+					new MBeanOperationInfo[0], null);
+		}
+	}
+}
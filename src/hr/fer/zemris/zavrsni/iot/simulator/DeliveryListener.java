@@ -0,0 +1,34 @@
+package hr.fer.zemris.zavrsni.iot.simulator;
+
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Listener which is informed when {@link DeliveryTracker} stops tracking
+ * message sent to simulator. Listener is called from thread which received
+ * acknowledgement or from thread which retransmits messages.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public interface DeliveryListener {
+
+	/** Listener which doesn't do anything. */
+	DeliveryListener NONE = new DeliveryListener() {
+
+		@Override
+		public void messageDone(Message message, boolean acknowledged) {
+		}
+	};
+
+	/**
+	 * Method which is called after message is acknowledged or after its last
+	 * retransmission was not acknowledged.
+	 * 
+	 * @param message
+	 *            message sent to simulator
+	 * @param acknowledged
+	 *            true if simulator acknowledged message, false if tracker gave
+	 *            up
+	 */
+	void messageDone(Message message, boolean acknowledged);
+}
@@ -0,0 +1,246 @@
+package hr.fer.zemris.zavrsni.iot.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.zavrsni.iot.log.Logger;
+import hr.fer.zemris.zavrsni.iot.metrics.Counter;
+import hr.fer.zemris.zavrsni.iot.metrics.Gauge;
+import hr.fer.zemris.zavrsni.iot.metrics.Histogram;
+import hr.fer.zemris.zavrsni.iot.metrics.Metrics;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+import hr.fer.zemris.zavrsni.iot.utils.MessageKey;
+import hr.fer.zemris.zavrsni.iot.utils.TimingWheel;
+
+/**
+ * Tracker of client messages sent to simulator which are not acknowledged yet.
+ * Simulator acknowledges message with its reply: reply goes to thing which
+ * sent the message and its previous message ID is ID of the message. Messages
+ * which are not acknowledged in time are sent again with doubled timeout,
+ * until they are sent given number of times. Timeouts are kept in
+ * {@link TimingWheel}, so tracking many messages doesn't make every tick
+ * slower. Settings:
+ * 
+ * <pre>
+ * iot.simulator.retry.timeout  - time in milliseconds to wait for the first acknowledgement (default 1000)
+ * iot.simulator.retry.attempts - maximal number of retransmissions of one message (default 5)
+ * iot.simulator.retry.tick     - precision of timeouts in milliseconds (default 10)
+ * </pre>
+ * 
+ * Retransmissions are sent by own thread with own {@link SimulatorSender}.
+ * Acknowledged messages and messages which were retransmitted and lost are
+ * counted in {@link Metrics}.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class DeliveryTracker implements Closeable {
+
+	/** Default time to wait for the first acknowledgement in milliseconds. */
+	private static final long DEFAULT_TIMEOUT = 1000;
+	/** Default maximal number of retransmissions. */
+	private static final int DEFAULT_ATTEMPTS = 5;
+	/** Default duration of one tick of timing wheel in milliseconds. */
+	private static final long DEFAULT_TICK = 10;
+	/** Number of slots of timing wheel. */
+	private static final int WHEEL_SLOTS = 512;
+	/** Number of acknowledged messages. */
+	private static final Counter ACKNOWLEDGED = Metrics.counter("simulator.messages.acknowledged");
+	/** Number of retransmissions. */
+	private static final Counter RETRANSMITTED = Metrics.counter("simulator.messages.retransmitted");
+	/** Number of messages which were never acknowledged. */
+	private static final Counter UNACKNOWLEDGED = Metrics.counter("simulator.messages.unacknowledged");
+	/** Time from the first sending of message to its acknowledgement. */
+	private static final Histogram ACK_LATENCY = Metrics.histogram("simulator.ack.latency");
+	/** Logger of simulator messages. */
+	private static final Logger LOG = Logger.getLogger("simulator");
+
+	/** Messages which are not acknowledged, mapped by message ID and source ID. */
+	private final ConcurrentMap<MessageKey, InFlight> inFlight = new ConcurrentHashMap<>();
+	/** Timeouts of messages. */
+	private final TimingWheel<InFlight> wheel;
+	/** Sender of retransmissions, used only by scheduler thread. */
+	private final SimulatorSender sender;
+	/** Thread which retransmits messages. */
+	private final ScheduledExecutorService scheduler;
+	/** Listener of messages which are not tracked anymore. */
+	private final DeliveryListener listener;
+	/** Time to wait for the first acknowledgement in nanoseconds. */
+	private final long timeout;
+	/** Maximal number of retransmissions. */
+	private final int maxAttempts;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param host
+	 *            simulator host name or IP address
+	 * @param port
+	 *            port on which simulator is listening
+	 * @param listener
+	 *            listener of messages which are not tracked anymore
+	 * @throws IOException
+	 *             if sender can't be opened
+	 */
+	public DeliveryTracker(String host, int port, DeliveryListener listener) throws IOException {
+		this.sender = new SimulatorSender(host, port);
+		this.listener = listener;
+		this.timeout = TimeUnit.MILLISECONDS
+				.toNanos(Math.max(1, Configuration.getLong("iot.simulator.retry.timeout", DEFAULT_TIMEOUT)));
+		this.maxAttempts = Math.max(0, Configuration.getInt("iot.simulator.retry.attempts", DEFAULT_ATTEMPTS));
+		long tick = Math.max(1, Configuration.getLong("iot.simulator.retry.tick", DEFAULT_TICK));
+		this.wheel = new TimingWheel<>(TimeUnit.MILLISECONDS.toNanos(tick), WHEEL_SLOTS);
+		Metrics.gauge("simulator.inflight", new Gauge() {
+
+			@Override
+			public long getValue() {
+				return inFlight.size();
+			}
+		});
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "simulator-retransmit");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				// exception would cancel all next retransmissions
+				try {
+					retransmitExpired();
+				} catch (RuntimeException e) {
+					LOG.error(e.toString());
+				}
+			}
+		}, tick, tick, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method for tracking messages which are sent to simulator for the first
+	 * time. Message which is sent again with the same ID is tracked from the
+	 * start.
+	 * 
+	 * @param sent
+	 *            sent messages
+	 */
+	public void messagesSent(Collection<Message> sent) {
+		long now = System.nanoTime();
+		for (Message message : sent) {
+			InFlight entry = new InFlight(message, now);
+			InFlight previous = inFlight.put(MessageKey.of(message), entry);
+			if (previous != null)
+				previous.done = true;
+			wheel.schedule(entry, timeout);
+		}
+	}
+
+	/**
+	 * Method for checking if message from simulator acknowledges message
+	 * which is tracked.
+	 * 
+	 * @param reply
+	 *            message from simulator
+	 * @return true if some message is acknowledged, otherwise false
+	 */
+	public boolean acknowledge(Message reply) {
+		InFlight entry = inFlight.remove(MessageKey.ofPrevious(reply));
+		if (entry == null)
+			return false;
+		entry.done = true;
+		ACKNOWLEDGED.increment();
+		ACK_LATENCY.recordSince(entry.firstSent);
+		listener.messageDone(entry.message, true);
+		return true;
+	}
+
+	/**
+	 * Method for getting number of messages which are not acknowledged.
+	 * 
+	 * @return number of messages
+	 */
+	public int size() {
+		return inFlight.size();
+	}
+
+	/**
+	 * Method for sending again messages whose timeout expired. Message which
+	 * was sent maximal number of times is not tracked anymore.
+	 */
+	private void retransmitExpired() {
+		List<InFlight> expired = new ArrayList<>();
+		wheel.advance(expired);
+		for (InFlight entry : expired) {
+			if (entry.done)
+				continue;
+			Message message = entry.message;
+			if (entry.attempts >= maxAttempts) {
+				if (inFlight.remove(MessageKey.of(message), entry)) {
+					UNACKNOWLEDGED.increment();
+					LOG.warn("Message " + message.getMessageID() + " from " + message.getSrcID()
+							+ " was not acknowledged by simulator");
+					listener.messageDone(message, false);
+				}
+				continue;
+			}
+			entry.attempts++;
+			try {
+				sender.send(message);
+				RETRANSMITTED.increment();
+			} catch (IOException e) {
+				LOG.error(e.toString());
+			}
+			wheel.schedule(entry, timeout << entry.attempts);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		scheduler.shutdownNow();
+		sender.close();
+	}
+
+	/**
+	 * Message which is not acknowledged.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class InFlight {
+		/** Sent message. */
+		private final Message message;
+		/** Time when message was sent for the first time, as {@link System#nanoTime()}. */
+		private final long firstSent;
+		/** Number of retransmissions, used only by scheduler thread. */
+		private int attempts;
+		/** True if message is acknowledged or replaced, so its timeout is ignored. */
+		private volatile boolean done;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param message
+		 *            sent message
+		 * @param firstSent
+		 *            time when message was sent for the first time
+		 */
+		private InFlight(Message message, long firstSent) {
+			this.message = message;
+			this.firstSent = firstSent;
+		}
+	}
+}
@@ -0,0 +1,630 @@
+package hr.fer.zemris.zavrsni.iot.simulator;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import hr.fer.zemris.zavrsni.iot.simulator.EvictionListener.Reason;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+import hr.fer.zemris.zavrsni.iot.utils.MessageArena;
+
+/**
+ * Store of messages grouped by destination thing ID. Every destination has its
+ * own queue, so getting and removing message for one thing doesn't require
+ * walking through messages of other things and polls of different things don't
+ * block each other. Messages for the same destination are kept in order in
+ * which they were added. Queue of destination is removed from mailbox as soon
+ * as its last message is taken, so things which got all their messages don't
+ * take memory.
+ * <p>
+ * Mailbox can be limited, so things which never take their messages don't
+ * fill the memory. Message which was stored longer than time to live is
+ * removed when it is found at the head of its queue or by
+ * {@link #removeExpired()}. Destination with too many messages loses its
+ * oldest message. When messages take more memory than allowed, messages are
+ * removed by {@link EvictionPolicy} until they take 15/16 of allowed memory,
+ * so every new message doesn't start eviction again. Eviction reads time of
+ * the first message of every destination once and then removes messages in
+ * order of their age, so removing many messages doesn't walk through all
+ * destinations for every message. Time is measured from
+ * {@link Message#getEnqueueTime()} and memory by
+ * {@link Message#getSizeEstimate()}, or by {@link MessageArena#sizeOf(Message)}
+ * when messages are kept in arena. Every removed message is reported to
+ * {@link EvictionListener}.
+ * <p>
+ * If mailbox is given {@link MessageArena}, messages are kept outside of Java
+ * heap and only their handles are kept in queues of destinations. Queue of
+ * destination is small ring of handles guarded by its own monitor, because
+ * mailbox can have queues of very many things.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class DestinationMailbox {
+
+	/** Queues of messages mapped by destination ID. */
+	private final ConcurrentMap<String, Destination> queues = new ConcurrentHashMap<>();
+	/** Number of messages in all queues. */
+	private final AtomicInteger size = new AtomicInteger();
+	/** Number of bytes of messages in all queues, estimated or taken in arena. */
+	private final AtomicLong bytes = new AtomicLong();
+	/** Time to live of message in nanoseconds, 0 if messages don't expire. */
+	private final long timeToLive;
+	/** Maximal number of messages of one destination, 0 for no limit. */
+	private final int maxPerDestination;
+	/** Maximal number of bytes of all messages, 0 for no limit. */
+	private final long maxBytes;
+	/** How messages are removed when they take too much memory. */
+	private final EvictionPolicy policy;
+	/** Listener of removed messages. */
+	private final EvictionListener listener;
+	/** Lock which allows only one thread to remove messages because of memory. */
+	private final ReentrantLock evictionLock = new ReentrantLock();
+	/** Arena in which messages are kept, null if messages are kept on heap. */
+	private final MessageArena arena;
+
+	/**
+	 * Constructor for mailbox without limits.
+	 */
+	public DestinationMailbox() {
+		this(0, 0, 0, EvictionPolicy.OLDEST, EvictionListener.NONE, null);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param timeToLive
+	 *            time to live of message in milliseconds, 0 if messages don't
+	 *            expire
+	 * @param maxPerDestination
+	 *            maximal number of messages of one destination, 0 for no limit
+	 * @param maxBytes
+	 *            maximal number of bytes of all messages (estimated on heap or
+	 *            taken in arena), 0 for no limit
+	 * @param policy
+	 *            how messages are removed when they take too much memory
+	 * @param listener
+	 *            listener of removed messages
+	 * @param arena
+	 *            arena in which messages are kept, null if messages are kept
+	 *            on heap
+	 */
+	public DestinationMailbox(long timeToLive, int maxPerDestination, long maxBytes, EvictionPolicy policy,
+			EvictionListener listener, MessageArena arena) {
+		this.timeToLive = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeToLive));
+		this.maxPerDestination = Math.max(0, maxPerDestination);
+		this.maxBytes = Math.max(0, maxBytes);
+		this.policy = policy;
+		this.listener = listener;
+		this.arena = arena;
+	}
+
+	/**
+	 * Method for adding message to the queue of its destination. Limits are
+	 * checked after message is added.
+	 * 
+	 * @param message
+	 *            message which will be added
+	 */
+	public void add(Message message) {
+		Destination destination;
+		do {
+			destination = getQueue(message.getDestID());
+		} while (!destination.reserve());
+		destination.queue.add(message);
+		size.incrementAndGet();
+		bytes.addAndGet(sizeOf(message));
+		if (maxPerDestination > 0) {
+			while (destination.size.get() > maxPerDestination) {
+				Message oldest = take(destination);
+				if (oldest == null)
+					break;
+				listener.messageEvicted(oldest, Reason.DESTINATION_FULL);
+			}
+		}
+		if (maxBytes > 0 && bytes.get() > maxBytes)
+			evictForMemory();
+	}
+
+	/**
+	 * Method for 'poping' (get and remove) first message for given
+	 * destination. Expired messages are removed on the way.
+	 * 
+	 * @param destID
+	 *            destination thing ID
+	 * @return message or null if there is no message for destination
+	 */
+	public Message poll(String destID) {
+		Destination destination = queues.get(destID);
+		if (destination == null)
+			return null;
+		return takeLive(destination, System.nanoTime());
+	}
+
+	/**
+	 * Method for 'poping' first message of any destination. Expired messages
+	 * are removed on the way.
+	 * 
+	 * @return message or null if mailbox is empty
+	 */
+	public Message pollAny() {
+		long now = System.nanoTime();
+		for (Destination destination : queues.values()) {
+			Message message = takeLive(destination, now);
+			if (message != null)
+				return message;
+		}
+		return null;
+	}
+
+	/**
+	 * Method for removing given message from the queue of its destination.
+	 * 
+	 * @param message
+	 *            message which will be removed
+	 * @return true if message was removed, otherwise false
+	 */
+	public boolean remove(Message message) {
+		if (message == null)
+			return false;
+		Destination destination = queues.get(message.getDestID());
+		if (destination != null && destination.queue.remove(message)) {
+			removed(destination, message);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Method for removing all messages which were stored longer than time to
+	 * live. Messages of one destination are in order in which they were added,
+	 * so only heads of the queues are checked.
+	 * 
+	 * @return number of removed messages
+	 */
+	public int removeExpired() {
+		if (timeToLive == 0)
+			return 0;
+		long now = System.nanoTime();
+		int count = 0;
+		for (Destination destination : queues.values()) {
+			Message head;
+			while ((head = destination.queue.peek()) != null && isExpired(head, now)) {
+				if (destination.queue.remove(head)) {
+					removed(destination, head);
+					listener.messageEvicted(head, Reason.EXPIRED);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Method for getting copy of all stored messages. Messages of the same
+	 * destination are in order in which they were added.
+	 * 
+	 * @return list of messages
+	 */
+	public List<Message> snapshot() {
+		List<Message> messages = new ArrayList<>(size.get());
+		for (Destination destination : queues.values())
+			messages.addAll(destination.queue);
+		return messages;
+	}
+
+	/**
+	 * Method for getting number of stored messages.
+	 * 
+	 * @return number of messages
+	 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Method for getting number of bytes of stored messages, estimated on heap
+	 * or taken in arena.
+	 * 
+	 * @return number of bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Method for checking if mailbox is empty.
+	 * 
+	 * @return true if there are no messages, otherwise false
+	 */
+	public boolean isEmpty() {
+		return size.get() == 0;
+	}
+
+	/**
+	 * Method for taking first message of destination which isn't expired.
+	 * Expired messages are removed and reported.
+	 * 
+	 * @param destination
+	 *            destination
+	 * @param now
+	 *            current time, as {@link System#nanoTime()}
+	 * @return message or null if destination has no messages
+	 */
+	private Message takeLive(Destination destination, long now) {
+		Message message;
+		while ((message = take(destination)) != null) {
+			if (!isExpired(message, now))
+				return message;
+			listener.messageEvicted(message, Reason.EXPIRED);
+		}
+		return null;
+	}
+
+	/**
+	 * Method for taking first message of destination.
+	 * 
+	 * @param destination
+	 *            destination
+	 * @return message or null if destination has no messages
+	 */
+	private Message take(Destination destination) {
+		Message message = destination.queue.poll();
+		if (message != null)
+			removed(destination, message);
+		return message;
+	}
+
+	/**
+	 * Method for updating counters after message is removed from queue.
+	 * 
+	 * @param destination
+	 *            destination from whose queue message is removed
+	 * @param message
+	 *            removed message
+	 */
+	private void removed(Destination destination, Message message) {
+		size.decrementAndGet();
+		bytes.addAndGet(-sizeOf(message));
+		if (destination.release())
+			queues.remove(destination.destID, destination);
+	}
+
+	/**
+	 * Method for getting number of bytes which message takes in mailbox.
+	 * 
+	 * @param message
+	 *            message
+	 * @return number of bytes
+	 */
+	private long sizeOf(Message message) {
+		return arena == null ? message.getSizeEstimate() : arena.sizeOf(message);
+	}
+
+	/**
+	 * Method for checking if message was stored longer than time to live.
+	 * 
+	 * @param message
+	 *            message
+	 * @param now
+	 *            current time, as {@link System#nanoTime()}
+	 * @return true if message is expired, otherwise false
+	 */
+	private boolean isExpired(Message message, long now) {
+		return timeToLive > 0 && now - message.getEnqueueTime() > timeToLive;
+	}
+
+	/**
+	 * Method for removing messages until they take 15/16 of allowed memory.
+	 * Destinations are ordered by time of their first message once, and every
+	 * destination which still has messages after removal is put back with
+	 * time of its next message.
+	 */
+	private void evictForMemory() {
+		evictionLock.lock();
+		try {
+			long target = maxBytes - maxBytes / 16;
+			if (bytes.get() <= target)
+				return;
+			PriorityQueue<Head> heads = new PriorityQueue<>();
+			for (Destination destination : queues.values()) {
+				if (!destination.queue.isEmpty())
+					heads.add(new Head(destination, headTime(destination)));
+			}
+			Head oldest;
+			while (bytes.get() > target && (oldest = heads.poll()) != null) {
+				Message message;
+				while ((message = take(oldest.destination)) != null) {
+					listener.messageEvicted(message, Reason.MEMORY_FULL);
+					if (policy == EvictionPolicy.OLDEST)
+						break;
+				}
+				if (message != null && !oldest.destination.queue.isEmpty())
+					heads.add(new Head(oldest.destination, headTime(oldest.destination)));
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/**
+	 * Method for getting enqueue time of the first message of destination.
+	 * Off-heap message is not read for it, only its time.
+	 * 
+	 * @param destination
+	 *            destination
+	 * @return enqueue time or 0 if destination has no messages
+	 */
+	private static long headTime(Destination destination) {
+		if (destination.queue instanceof ArenaQueue)
+			return ((ArenaQueue) destination.queue).peekEnqueueTime();
+		Message head = destination.queue.peek();
+		return head == null ? 0 : head.getEnqueueTime();
+	}
+
+	/**
+	 * Method for getting queue of given destination. If queue doesn't exist,
+	 * it is created.
+	 * 
+	 * @param destID
+	 *            destination thing ID
+	 * @return queue of destination
+	 */
+	private Destination getQueue(String destID) {
+		Destination destination = queues.get(destID);
+		if (destination == null) {
+			Destination newDestination = new Destination(destID,
+					arena == null ? new ConcurrentLinkedQueue<Message>() : new ArenaQueue(arena));
+			destination = queues.putIfAbsent(destID, newDestination);
+			if (destination == null)
+				destination = newDestination;
+		}
+		return destination;
+	}
+
+	/**
+	 * Queue of messages of one destination with its size, because size of
+	 * concurrent queue is counted by walking through it. Size is increased
+	 * before message is added to queue, and when it falls to 0 destination is
+	 * retired (size becomes -1), so no message can be added to queue which is
+	 * removed from mailbox.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class Destination {
+		/** Destination thing ID. */
+		private final String destID;
+		/** Messages in order in which they were added. */
+		private final Queue<Message> queue;
+		/** Number of messages in queue, -1 after destination is retired. */
+		private final AtomicInteger size = new AtomicInteger();
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param destID
+		 *            destination thing ID
+		 * @param queue
+		 *            empty queue for messages
+		 */
+		private Destination(String destID, Queue<Message> queue) {
+			this.destID = destID;
+			this.queue = queue;
+		}
+
+		/**
+		 * Method for counting message which will be added.
+		 * 
+		 * @return false if destination is retired, so message has to be added
+		 *         to new queue
+		 */
+		private boolean reserve() {
+			while (true) {
+				int current = size.get();
+				if (current < 0)
+					return false;
+				if (size.compareAndSet(current, current + 1))
+					return true;
+			}
+		}
+
+		/**
+		 * Method for counting removed message.
+		 * 
+		 * @return true if it was the last message and destination is retired
+		 */
+		private boolean release() {
+			return size.decrementAndGet() == 0 && size.compareAndSet(0, -1);
+		}
+	}
+
+	/**
+	 * Queue of one destination whose messages are kept in arena. It keeps only
+	 * ring of handles, which starts small, and it is guarded by its own
+	 * monitor; messages are encoded and decoded outside of it.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class ArenaQueue extends AbstractQueue<Message> {
+		/** Arena in which messages are kept. */
+		private final MessageArena arena;
+		/** Handles of messages in ring, array grows when it is full. */
+		private long[] handles = new long[2];
+		/** Index of the first handle. */
+		private int head;
+		/** Number of messages. */
+		private int count;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param arena
+		 *            arena in which messages are kept
+		 */
+		private ArenaQueue(MessageArena arena) {
+			this.arena = arena;
+		}
+
+		@Override
+		public boolean offer(Message message) {
+			long handle = arena.store(message);
+			synchronized (this) {
+				if (count == handles.length) {
+					long[] grown = new long[2 * count];
+					for (int i = 0; i < count; ++i)
+						grown[i] = handles[index(i)];
+					handles = grown;
+					head = 0;
+				}
+				handles[index(count)] = handle;
+				++count;
+			}
+			return true;
+		}
+
+		@Override
+		public Message poll() {
+			long handle;
+			synchronized (this) {
+				if (count == 0)
+					return null;
+				handle = handles[head];
+				head = index(1);
+				--count;
+			}
+			Message message = arena.load(handle);
+			arena.free(handle);
+			return message;
+		}
+
+		@Override
+		public synchronized Message peek() {
+			// message is read under lock, so nobody frees it meanwhile
+			return count == 0 ? null : arena.load(handles[head]);
+		}
+
+		/**
+		 * Method for getting enqueue time of the first message without reading
+		 * whole message.
+		 * 
+		 * @return enqueue time or 0 if queue is empty
+		 */
+		private synchronized long peekEnqueueTime() {
+			return count == 0 ? 0 : arena.getEnqueueTime(handles[head]);
+		}
+
+		@Override
+		public boolean remove(Object o) {
+			if (!(o instanceof Message))
+				return false;
+			long handle;
+			synchronized (this) {
+				int i = 0;
+				while (i < count && !o.equals(arena.load(handles[index(i)])))
+					++i;
+				if (i == count)
+					return false;
+				handle = handles[index(i)];
+				// move later handles one place back
+				for (; i < count - 1; ++i)
+					handles[index(i)] = handles[index(i + 1)];
+				--count;
+			}
+			arena.free(handle);
+			return true;
+		}
+
+		/**
+		 * Method for getting iterator over copy of messages, so iterator
+		 * doesn't support removing.
+		 * 
+		 * @return iterator
+		 */
+		@Override
+		public synchronized Iterator<Message> iterator() {
+			List<Message> messages = new ArrayList<>(count);
+			for (int i = 0; i < count; ++i)
+				messages.add(arena.load(handles[index(i)]));
+			return Collections.unmodifiableList(messages).iterator();
+		}
+
+		@Override
+		public synchronized int size() {
+			return count;
+		}
+
+		/**
+		 * Method for getting array index of handle at given place in ring.
+		 * 
+		 * @param i
+		 *            place in ring, 0 is the first handle
+		 * @return array index
+		 */
+		private int index(int i) {
+			return (head + i) % handles.length;
+		}
+	}
+
+	/**
+	 * Destination with time of its first message, ordered from the oldest.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class Head implements Comparable<Head> {
+		/** Destination. */
+		private final Destination destination;
+		/** Enqueue time of the first message. */
+		private final long time;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param destination
+		 *            destination
+		 * @param time
+		 *            enqueue time of the first message
+		 */
+		private Head(Destination destination, long time) {
+			this.destination = destination;
+			this.time = time;
+		}
+
+		@Override
+		public int compareTo(Head other) {
+			// times are compared by difference, because nano time can overflow
+			long difference = time - other.time;
+			return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+		}
+	}
+
+	/**
+	 * How messages are removed when they take too much memory.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	public enum EvictionPolicy {
+		/** The oldest message of all destinations is removed. */
+		OLDEST,
+		/**
+		 * All messages of destination with the oldest message are removed,
+		 * because thing which doesn't take its messages for the longest time
+		 * is probably abandoned.
+		 */
+		DESTINATION
+	}
+}
@@ -0,0 +1,47 @@
+package hr.fer.zemris.zavrsni.iot.simulator;
+
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Listener which is informed when {@link DestinationMailbox} removes message
+ * which was never delivered. Listener is called from thread which removed the
+ * message.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public interface EvictionListener {
+
+	/** Listener which doesn't do anything. */
+	EvictionListener NONE = new EvictionListener() {
+
+		@Override
+		public void messageEvicted(Message message, Reason reason) {
+		}
+	};
+
+	/**
+	 * Method which is called after message is removed.
+	 * 
+	 * @param message
+	 *            removed message
+	 * @param reason
+	 *            why message is removed
+	 */
+	void messageEvicted(Message message, Reason reason);
+
+	/**
+	 * Reason for removing message which was never delivered.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	enum Reason {
+		/** Message was stored longer than its time to live. */
+		EXPIRED,
+		/** Destination had too many messages. */
+		DESTINATION_FULL,
+		/** All messages took more memory than allowed. */
+		MEMORY_FULL
+	}
+}
@@ -0,0 +1,20 @@
+package hr.fer.zemris.zavrsni.iot.simulator;
+
+/**
+ * Listener which is informed when message for some thing is stored in
+ * {@link SimulatorMsgList}. Listener is called from thread which stored the
+ * message, so it should only wake up whoever takes the messages.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public interface MessageListener {
+
+	/**
+	 * Method which is called after message for given thing is stored.
+	 * 
+	 * @param destID
+	 *            ID of destination thing
+	 */
+	void messagesAvailable(String destID);
+}
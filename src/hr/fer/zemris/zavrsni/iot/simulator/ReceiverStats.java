@@ -0,0 +1,127 @@
+package hr.fer.zemris.zavrsni.iot.simulator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of one simulator receiver. Counters are only increased, so they
+ * can be read from any thread at any time.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class ReceiverStats {
+
+	/** Name of the receiver. */
+	private final String name;
+	/** Number of received datagrams. */
+	private final AtomicLong packets = new AtomicLong();
+	/** Number of received bytes. */
+	private final AtomicLong bytes = new AtomicLong();
+	/** Number of stored messages. */
+	private final AtomicLong messages = new AtomicLong();
+	/** Number of datagrams dropped because they were too big. */
+	private final AtomicLong dropped = new AtomicLong();
+	/** Number of datagrams which couldn't be parsed. */
+	private final AtomicLong errors = new AtomicLong();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param name
+	 *            name of the receiver
+	 */
+	public ReceiverStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Method for counting received datagram.
+	 * 
+	 * @param size
+	 *            size of datagram in bytes
+	 */
+	void packetReceived(int size) {
+		packets.incrementAndGet();
+		bytes.addAndGet(size);
+	}
+
+	/**
+	 * Method for counting stored messages.
+	 * 
+	 * @param count
+	 *            number of messages
+	 */
+	void messagesStored(int count) {
+		messages.addAndGet(count);
+	}
+
+	/** Method for counting dropped datagram. */
+	void packetDropped() {
+		dropped.incrementAndGet();
+	}
+
+	/** Method for counting datagram which couldn't be parsed. */
+	void parseFailed() {
+		errors.incrementAndGet();
+	}
+
+	/**
+	 * Getter for name of the receiver.
+	 * 
+	 * @return name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Getter for number of received datagrams.
+	 * 
+	 * @return number of datagrams
+	 */
+	public long getPackets() {
+		return packets.get();
+	}
+
+	/**
+	 * Getter for number of received bytes.
+	 * 
+	 * @return number of bytes
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	/**
+	 * Getter for number of stored messages.
+	 * 
+	 * @return number of messages
+	 */
+	public long getMessages() {
+		return messages.get();
+	}
+
+	/**
+	 * Getter for number of datagrams dropped because they were too big.
+	 * 
+	 * @return number of datagrams
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Getter for number of datagrams which couldn't be parsed.
+	 * 
+	 * @return number of datagrams
+	 */
+	public long getErrors() {
+		return errors.get();
+	}
+
+	@Override
+	public String toString() {
+		return name + ": packets=" + getPackets() + ", bytes=" + getBytes() + ", messages=" + getMessages()
+				+ ", dropped=" + getDropped() + ", errors=" + getErrors();
+	}
+}
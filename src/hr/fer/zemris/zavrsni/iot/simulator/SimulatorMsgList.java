@@ -1,27 +1,170 @@
 package hr.fer.zemris.zavrsni.iot.simulator;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+import hr.fer.zemris.zavrsni.iot.metrics.Counter;
+import hr.fer.zemris.zavrsni.iot.metrics.Gauge;
+import hr.fer.zemris.zavrsni.iot.metrics.Histogram;
+import hr.fer.zemris.zavrsni.iot.metrics.Metrics;
+import hr.fer.zemris.zavrsni.iot.simulator.DestinationMailbox.EvictionPolicy;
+import hr.fer.zemris.zavrsni.iot.storage.MessageJournal;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+import hr.fer.zemris.zavrsni.iot.utils.DeduplicationIndex;
 import hr.fer.zemris.zavrsni.iot.utils.Message;
+import hr.fer.zemris.zavrsni.iot.utils.MessageArena;
 
 /**
- * Singleton class for storing simulator messages.
+ * Singleton class for storing simulator messages. Messages are kept in
+ * {@link DestinationMailbox}, so messages for some thing can be found without
+ * going through messages of all other things. Duplicates are recognized by
+ * {@link DeduplicationIndex}. Stored messages and messages which are taken
+ * are reported to {@link MessageJournal}, if it is set. Thing can have
+ * {@link MessageListener}s (for example one of every open connection of the
+ * thing) which are called whenever message for it is stored.
+ * Number of stored messages and time messages wait before they are delivered
+ * to clients are recorded in {@link Metrics}.
+ * <p>
+ * Messages for things which don't take them would stay forever, so mailbox is
+ * limited with following settings:
+ * 
+ * <pre>
+ * iot.simulator.ttl          - time in milliseconds after which message is removed, 0 for no limit (default 86400000)
+ * iot.simulator.max.per.thing - maximal number of messages of one thing, 0 for no limit (default 10000)
+ * iot.simulator.max.memory   - maximal number of bytes of all messages (estimated, or taken in arena off
+ *                              heap), 0 for no limit (default 134217728)
+ * iot.simulator.eviction     - what is removed when messages take too much memory: oldest (the oldest message,
+ *                              default) or destination (all messages of thing with the oldest message)
+ * </pre>
+ * 
+ * Removed messages are counted as expired or evicted and reported to
+ * {@link MessageJournal}. If {@code iot.simulator.offheap} setting is true,
+ * messages are kept outside of Java heap in {@link MessageArena}.
  * 
  * @author Nikola Presečki
  * @version 1.0
  */
 public class SimulatorMsgList {
 
+	/** Default time in milliseconds for which duplicates are suppressed. */
+	private static final long DEFAULT_DEDUP_WINDOW = 60000;
+	/** Default maximal number of messages remembered for suppressing duplicates. */
+	private static final int DEFAULT_DEDUP_SIZE = 100000;
+	/** Default time to live of message in milliseconds. */
+	private static final long DEFAULT_TTL = 86400000;
+	/** Default maximal number of messages of one thing. */
+	private static final int DEFAULT_MAX_PER_THING = 10000;
+	/** Default maximal estimated number of bytes of all messages. */
+	private static final long DEFAULT_MAX_MEMORY = 134217728;
+	/** Longest time in milliseconds between two removals of expired messages. */
+	private static final long EXPIRY_INTERVAL = 1000;
+	/** Number of stored messages. */
+	private static final Counter STORED = Metrics.counter("simulator.messages.stored");
+	/** Number of ignored repeated messages. */
+	private static final Counter DUPLICATES = Metrics.counter("simulator.messages.duplicate");
+	/** Number of messages delivered to clients. */
+	private static final Counter DELIVERED = Metrics.counter("simulator.messages.delivered");
+	/** Time from storing message to delivering it to client. */
+	private static final Histogram DELIVERY_LATENCY = Metrics.histogram("simulator.delivery.latency");
+	/** Number of messages removed because of time to live. */
+	private static final Counter EXPIRED = Metrics.counter("simulator.messages.expired");
+	/** Number of messages removed because of limits of thing or memory. */
+	private static final Counter EVICTED = Metrics.counter("simulator.messages.evicted");
+
 	/** Class instance. */
 	private static SimulatorMsgList instance = null;
-	/** List for storing messages. */
-	private static List<Message> messages;
+	/** Mailbox for storing messages. */
+	private static DestinationMailbox messages;
+	/** Index of recently added messages. */
+	private static DeduplicationIndex recentMessages;
+	/** Listeners mapped by thing ID, array is replaced on every change. */
+	private static ConcurrentMap<String, MessageListener[]> listeners;
+	/** Journal of stored and removed messages. */
+	private static volatile MessageJournal journal = MessageJournal.NONE;
 
 	/** Private constructor for stoping instantiation. */
 	private SimulatorMsgList() {
-		messages = Collections.synchronizedList(new ArrayList<Message>());
+		long timeToLive = Configuration.getLong("iot.simulator.ttl", DEFAULT_TTL);
+		final MessageArena arena = Configuration.getBoolean("iot.simulator.offheap", false) ? new MessageArena()
+				: null;
+		messages = new DestinationMailbox(timeToLive,
+				Configuration.getInt("iot.simulator.max.per.thing", DEFAULT_MAX_PER_THING),
+				Configuration.getLong("iot.simulator.max.memory", DEFAULT_MAX_MEMORY),
+				Configuration.getEnum("iot.simulator.eviction", EvictionPolicy.class, EvictionPolicy.OLDEST),
+				new EvictionListener() {
+
+					@Override
+					public void messageEvicted(Message message, Reason reason) {
+						journal.messageRemoved(message);
+						if (reason == Reason.EXPIRED)
+							EXPIRED.increment();
+						else
+							EVICTED.increment();
+					}
+				}, arena);
+		listeners = new ConcurrentHashMap<>();
+		recentMessages = new DeduplicationIndex(Configuration.getLong("iot.dedup.window", DEFAULT_DEDUP_WINDOW),
+				Configuration.getInt("iot.dedup.size", DEFAULT_DEDUP_SIZE));
+		Metrics.gauge("simulator.queue.depth", new Gauge() {
+
+			@Override
+			public long getValue() {
+				return messages.size();
+			}
+		});
+		Metrics.gauge("simulator.queue.bytes", new Gauge() {
+
+			@Override
+			public long getValue() {
+				return messages.getBytes();
+			}
+		});
+		if (arena != null) {
+			Metrics.gauge("simulator.queue.offheap.bytes", new Gauge() {
+
+				@Override
+				public long getValue() {
+					return arena.getAllocatedBytes();
+				}
+			});
+		}
+		if (timeToLive > 0)
+			startExpiry(Math.min(timeToLive, EXPIRY_INTERVAL));
+	}
+
+	/**
+	 * Method for starting thread which removes expired messages of things
+	 * which don't ask for them.
+	 * 
+	 * @param interval
+	 *            time between removals in milliseconds
+	 */
+	private static void startExpiry(long interval) {
+		ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "simulator-expiry");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				messages.removeExpired();
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
 	}
 
 	/**
@@ -42,14 +185,119 @@ public class SimulatorMsgList {
 	}
 
 	/**
-	 * Method for adding message into inner collection.
+	 * Method for setting journal to which stored and removed messages are
+	 * reported.
+	 * 
+	 * @param messageJournal
+	 *            journal
+	 */
+	public void setJournal(MessageJournal messageJournal) {
+		journal = messageJournal;
+	}
+
+	/**
+	 * Method for adding message into inner collection. Message is stored even
+	 * if journal couldn't record it, because simulator can't be told to send
+	 * it again.
 	 * 
 	 * @param message
 	 *            client message
 	 */
 	public void addMessage(Message message) {
-		if (!messages.contains(message))
-			messages.add(message);
+		if (!recentMessages.add(message)) {
+			DUPLICATES.increment();
+			return;
+		}
+		journal.messageAdded(message);
+		message.setEnqueueTime(System.nanoTime());
+		messages.add(message);
+		STORED.increment();
+		notifyListeners(message.getDestID());
+	}
+
+	/**
+	 * Method for putting back message which was taken with
+	 * {@link #takeMessageFor(String)}, but couldn't be delivered because
+	 * connection of thing was closed. Message keeps its enqueue time, it is
+	 * added after messages of the thing which are waiting and listeners of
+	 * the thing are called again.
+	 * 
+	 * @param message
+	 *            taken message
+	 */
+	public void returnMessage(Message message) {
+		journal.messageAdded(message);
+		messages.add(message);
+		notifyListeners(message.getDestID());
+	}
+
+	/**
+	 * Method for adding listener of messages for given thing. Thing can have
+	 * many listeners and all of them are called.
+	 * 
+	 * @param destID
+	 *            ID of thing
+	 * @param listener
+	 *            listener
+	 */
+	public void addListener(String destID, MessageListener listener) {
+		while (true) {
+			MessageListener[] current = listeners.get(destID);
+			if (current == null) {
+				if (listeners.putIfAbsent(destID, new MessageListener[] { listener }) == null)
+					return;
+				continue;
+			}
+			MessageListener[] added = Arrays.copyOf(current, current.length + 1);
+			added[current.length] = listener;
+			if (listeners.replace(destID, current, added))
+				return;
+		}
+	}
+
+	/**
+	 * Method for removing listener of messages for given thing.
+	 * 
+	 * @param destID
+	 *            ID of thing
+	 * @param listener
+	 *            listener
+	 */
+	public void removeListener(String destID, MessageListener listener) {
+		while (true) {
+			MessageListener[] current = listeners.get(destID);
+			if (current == null)
+				return;
+			int index = 0;
+			while (index < current.length && current[index] != listener)
+				index++;
+			if (index == current.length)
+				return;
+			if (current.length == 1) {
+				if (listeners.remove(destID, current))
+					return;
+				continue;
+			}
+			MessageListener[] removed = new MessageListener[current.length - 1];
+			System.arraycopy(current, 0, removed, 0, index);
+			System.arraycopy(current, index + 1, removed, index, removed.length - index);
+			if (listeners.replace(destID, current, removed))
+				return;
+		}
+	}
+
+	/**
+	 * Method for calling all listeners of given thing.
+	 * 
+	 * @param destID
+	 *            ID of thing
+	 */
+	private static void notifyListeners(String destID) {
+		MessageListener[] current = listeners.get(destID);
+		if (current != null) {
+			for (MessageListener listener : current)
+				listener.messagesAvailable(destID);
+		}
 	}
 
 	/**
@@ -59,26 +307,49 @@ public class SimulatorMsgList {
 	 *            client message
 	 */
 	public void removeMessage(Message message) {
-		messages.remove(message);
+		if (messages.remove(message))
+			journal.messageRemoved(message);
 	}
 
 	/**
-	 * Method for getting client messages.
+	 * Method for getting copy of client messages.
 	 * 
 	 * @return list of client messages
 	 */
 	public List<Message> getMessages() {
-		return messages;
+		return messages.snapshot();
 	}
 
 	/**
-	 * Method for adding all client messages.
+	 * Method for adding all client messages. Messages are recorded to journal
+	 * as one batch, they get the same enqueue time and listener of every thing
+	 * is informed once, after all messages are stored.
 	 * 
 	 * @param list
 	 *            of client messages
 	 */
 	public void addAllMessages(List<Message> msgs) {
-		messages.addAll(msgs);
+		List<Message> fresh = new ArrayList<>(msgs.size());
+		for (Message message : msgs) {
+			if (recentMessages.add(message))
+				fresh.add(message);
+			else
+				DUPLICATES.increment();
+		}
+		if (fresh.isEmpty())
+			return;
+		// whole batch is recorded before any message can be taken and removed
+		journal.messagesAdded(fresh);
+		long now = System.nanoTime();
+		Set<String> destinations = new HashSet<>();
+		for (Message message : fresh) {
+			message.setEnqueueTime(now);
+			messages.add(message);
+			destinations.add(message.getDestID());
+		}
+		STORED.add(fresh.size());
+		for (String destID : destinations)
+			notifyListeners(destID);
 	}
 	
 	/**
@@ -90,17 +361,94 @@ public class SimulatorMsgList {
 		return messages.isEmpty();
 	}
 
+	/**
+	 * Method for getting number of stored messages.
+	 * 
+	 * @return number of messages
+	 */
+	public int size() {
+		return messages.size();
+	}
+
+	/**
+	 * Method for getting number of messages removed because they were stored
+	 * longer than time to live.
+	 * 
+	 * @return number of messages
+	 */
+	public long getExpiredCount() {
+		return EXPIRED.get();
+	}
+
+	/**
+	 * Method for getting number of messages removed because of limit of their
+	 * thing or limit of memory.
+	 * 
+	 * @return number of messages
+	 */
+	public long getEvictedCount() {
+		return EVICTED.get();
+	}
+
 	/**
 	 * Method for 'poping' (get and remove) first message from collection.
 	 * 
 	 * @return message or null if collection is empty
 	 */
 	public Message popFirstMessage() {
-		if (!messages.isEmpty()) {
-			Message msg = messages.get(0);
-			messages.remove(0);
-			return msg;
-		}
-		return null;
+		return removed(messages.pollAny());
+	}
+
+	/**
+	 * Method for 'poping' (get and remove) first message for given thing.
+	 * 
+	 * @param destID
+	 *            ID of destination thing
+	 * @return message or null if there is no message for given thing
+	 */
+	public Message popMessageFor(String destID) {
+		Message message = takeMessageFor(destID);
+		if (message != null)
+			messageDelivered(message);
+		return message;
+	}
+
+	/**
+	 * Method for taking first message for given thing which is delivered
+	 * later. Message isn't counted as delivered until
+	 * {@link #messageDelivered(Message)} is called; if it can't be delivered,
+	 * it should be put back with {@link #returnMessage(Message)}.
+	 * 
+	 * @param destID
+	 *            ID of destination thing
+	 * @return message or null if there is no message for given thing
+	 */
+	public Message takeMessageFor(String destID) {
+		return removed(messages.poll(destID));
+	}
+
+	/**
+	 * Method for reporting that message taken with
+	 * {@link #takeMessageFor(String)} is written to client.
+	 * 
+	 * @param message
+	 *            delivered message
+	 */
+	public void messageDelivered(Message message) {
+		DELIVERY_LATENCY.recordSince(message.getEnqueueTime());
+		DELIVERED.increment();
+	}
+
+	/**
+	 * Method for reporting message which is taken from collection.
+	 * 
+	 * @param message
+	 *            taken message or null
+	 * @return given message
+	 */
+	private Message removed(Message message) {
+		if (message != null)
+			journal.messageRemoved(message);
+		return message;
 	}
 }
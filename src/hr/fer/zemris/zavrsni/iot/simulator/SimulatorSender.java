@@ -0,0 +1,258 @@
+package hr.fer.zemris.zavrsni.iot.simulator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.Collection;
+import java.util.List;
+
+import hr.fer.zemris.zavrsni.iot.metrics.Counter;
+import hr.fer.zemris.zavrsni.iot.metrics.Metrics;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+import hr.fer.zemris.zavrsni.iot.utils.MessageCodec;
+
+/**
+ * Long-lived sender of datagram packets to simulator. It uses one
+ * {@link DatagramChannel} which is connected to the simulator, so address is
+ * resolved only once and there is no new socket for every packet. If sending
+ * fails, simulator address is resolved again, channel is reconnected and
+ * sending is tried once more. Messages are encoded into one reused direct
+ * buffer. Closed sender is not opened again; sending then throws
+ * {@link ClosedChannelException}.
+ * <p>
+ * If {@code iot.simulator.aggregate} setting is true, messages sent together
+ * are packed as inner frames of one datagram (see {@link MessageCodec}) which
+ * is not bigger than {@code iot.simulator.mtu} bytes (default 1472, payload of
+ * Ethernet frame). Message which is sent alone or which doesn't fit into
+ * datagram with other messages is sent in its own datagram as before.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class SimulatorSender implements Closeable {
+
+	/** Initial size of send buffer in bytes. */
+	private static final int INITIAL_BUFFER_SIZE = 2048;
+
+	/** Default maximal size of datagram with packed messages in bytes. */
+	private static final int DEFAULT_MTU = 1472;
+	/** Number of datagrams sent to simulator. */
+	private static final Counter DATAGRAMS_SENT = Metrics.counter("simulator.datagrams.sent");
+
+	/** True if messages sent together are packed into one datagram. */
+	private final boolean aggregate = Configuration.getBoolean("iot.simulator.aggregate", false);
+	/** Maximal size of datagram with packed messages in bytes. */
+	private final int maxDatagramSize = Configuration.getInt("iot.simulator.mtu", DEFAULT_MTU);
+	/** Simulator host name or IP address. */
+	private final String host;
+	/** Simulator port. */
+	private final int port;
+	/** Channel connected to simulator. */
+	private DatagramChannel channel;
+	/** Buffer into which messages are encoded. */
+	private ByteBuffer sendBuffer = ByteBuffer.allocateDirect(INITIAL_BUFFER_SIZE);
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param host
+	 *            simulator host name or IP address
+	 * @param port
+	 *            port on which simulator is listening
+	 * @throws IOException
+	 *             if channel can't be opened or address can't be resolved
+	 */
+	public SimulatorSender(String host, int port) throws IOException {
+		this.host = host;
+		this.port = port;
+		connect();
+	}
+
+	/**
+	 * Method for sending data as one datagram packet.
+	 * 
+	 * @param data
+	 *            data which will be sent
+	 * @throws IOException
+	 *             if packet can't be sent even after reconnecting
+	 */
+	public void send(byte[] data) throws IOException {
+		send(ByteBuffer.wrap(data));
+	}
+
+	/**
+	 * Method for sending message as one datagram packet.
+	 * 
+	 * @param message
+	 *            message which will be sent
+	 * @throws IOException
+	 *             if packet can't be sent even after reconnecting
+	 */
+	public void send(Message message) throws IOException {
+		ensureCapacity(MessageCodec.simulatorFrameLength(message));
+		sendBuffer.clear();
+		MessageCodec.encodeForSimulator(message, sendBuffer);
+		sendBuffer.flip();
+		send(sendBuffer);
+	}
+
+	/**
+	 * Method for sending messages as inner frames of one datagram packet.
+	 * 
+	 * @param messages
+	 *            messages which will be sent
+	 * @param length
+	 *            number of bytes of datagram
+	 * @throws IOException
+	 *             if packet can't be sent even after reconnecting
+	 */
+	private void sendPacked(List<Message> messages, int length) throws IOException {
+		ensureCapacity(length);
+		sendBuffer.clear();
+		MessageCodec.encodeForSimulator(messages, sendBuffer);
+		sendBuffer.flip();
+		send(sendBuffer);
+	}
+
+	/**
+	 * Method for making send buffer bigger if it has less than given number
+	 * of bytes.
+	 * 
+	 * @param length
+	 *            number of bytes
+	 */
+	private void ensureCapacity(int length) {
+		if (sendBuffer.capacity() < length)
+			sendBuffer = ByteBuffer.allocateDirect(Integer.highestOneBit(length) << 1);
+	}
+
+	/**
+	 * Method for sending buffer content as one datagram packet.
+	 * 
+	 * @param buffer
+	 *            buffer with data between position and limit
+	 * @throws ClosedChannelException
+	 *             if sender is closed
+	 * @throws IOException
+	 *             if packet can't be sent even after reconnecting
+	 */
+	private void send(ByteBuffer buffer) throws IOException {
+		if (channel == null)
+			throw new ClosedChannelException();
+		int start = buffer.position();
+		try {
+			channel.write(buffer);
+		} catch (IOException e) {
+			connect();
+			buffer.position(start);
+			channel.write(buffer);
+		}
+		DATAGRAMS_SENT.increment();
+	}
+
+	/**
+	 * Method for sending messages, every message in its own datagram packet
+	 * or, if aggregation is turned on, as many messages as fit in one
+	 * datagram packet. If some packet can't be sent, other packets are still
+	 * sent. Messages of every packet which is sent are added to given
+	 * collection, so caller knows which messages went out even if exception
+	 * is thrown.
+	 * 
+	 * @param messages
+	 *            messages which will be sent
+	 * @param sent
+	 *            collection to which sent messages are added
+	 * @throws IOException
+	 *             if some packet can't be sent even after reconnecting
+	 */
+	public void sendAll(List<Message> messages, Collection<? super Message> sent) throws IOException {
+		IOException error = null;
+		int size = messages.size();
+		for (int start = 0, end; start < size; start = end) {
+			// takes messages while they fit into one datagram
+			int length = 0;
+			for (end = start; aggregate && end < size; ++end) {
+				int inner = MessageCodec.simulatorInnerLength(messages.get(end));
+				if (MessageCodec.simulatorDatagramLength(length + inner) > maxDatagramSize)
+					break;
+				length += inner;
+			}
+			try {
+				if (end - start > 1) {
+					sendPacked(messages.subList(start, end), MessageCodec.simulatorDatagramLength(length));
+				} else {
+					end = start + 1;
+					send(messages.get(start));
+				}
+				sent.addAll(messages.subList(start, end));
+			} catch (IOException e) {
+				error = e;
+			}
+		}
+		if (error != null)
+			throw error;
+	}
+
+	/**
+	 * Method for checking if messages sent together are packed into one
+	 * datagram.
+	 * 
+	 * @return true if messages are packed, otherwise false
+	 */
+	public boolean isAggregating() {
+		return aggregate;
+	}
+
+	/**
+	 * Getter for maximal size of datagram with packed messages.
+	 * 
+	 * @return number of bytes
+	 */
+	public int getMaxDatagramSize() {
+		return maxDatagramSize;
+	}
+
+	/**
+	 * Method for (re)connecting channel to the simulator. Address of the
+	 * simulator is resolved every time this method is called. Old channel is
+	 * closed only after new channel is connected, so sender always has a
+	 * channel once it is constructed.
+	 * 
+	 * @throws IOException
+	 *             if channel can't be opened or address can't be resolved
+	 */
+	private void connect() throws IOException {
+		InetSocketAddress address = new InetSocketAddress(host, port);
+		if (address.isUnresolved())
+			throw new UnknownHostException(host);
+		DatagramChannel connected = DatagramChannel.open();
+		try {
+			connected.connect(address);
+		} catch (IOException e) {
+			connected.close();
+			throw e;
+		}
+		DatagramChannel old = channel;
+		channel = connected;
+		if (old != null) {
+			try {
+				old.close();
+			} catch (IOException e) {
+				// old channel isn't used anymore
+			}
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+			channel = null;
+		}
+	}
+}
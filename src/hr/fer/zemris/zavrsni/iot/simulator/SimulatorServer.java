@@ -1,26 +1,84 @@
 package hr.fer.zemris.zavrsni.iot.simulator;
 
 import java.io.IOException;
-import java.io.PrintStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.ServerSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
+import hr.fer.zemris.zavrsni.iot.log.Logger;
+import hr.fer.zemris.zavrsni.iot.metrics.Gauge;
+import hr.fer.zemris.zavrsni.iot.metrics.Histogram;
+import hr.fer.zemris.zavrsni.iot.metrics.Metrics;
+import hr.fer.zemris.zavrsni.iot.utils.BufferPool;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
 import hr.fer.zemris.zavrsni.iot.utils.Message;
+import hr.fer.zemris.zavrsni.iot.utils.ShardedProcessor;
 
 /**
- * SOmething
+ * Server for simulator UDP messages. Every received datagram is parsed
+ * directly from pooled direct buffer and its messages are stored in
+ * {@code SimulatorMsgList} together. Datagram can have many messages one
+ * after another (see {@link Message#parseSimulatorMessages}).
+ * Maximal size of datagram is set with {@code iot.simulator.max.datagram}
+ * setting (default 8192 bytes); bigger datagrams are dropped.
+ * <p>
+ * Number of receiver threads is set with {@code iot.simulator.receivers}
+ * setting (default 1). One thread receives datagrams and given number of
+ * workers parse and store them. If {@code iot.simulator.reuseport} setting is
+ * true (default false) and system supports {@code SO_REUSEPORT}, every
+ * receiver has its own socket on the same port instead. Kernel chooses socket
+ * by address and port of sender, so this helps only when datagrams come from
+ * many senders; all datagrams of one simulator still come to one receiver.
+ * Counters are kept for every socket, so with one socket and many workers
+ * there is only one set of counters ("receiver-0") for the receiver and all
+ * its workers. Counters are available with {@link #getReceiverStats()}; their
+ * sums and time from receiving datagram to storing its message are recorded
+ * in {@link Metrics}.
+ * <p>
+ * If {@code iot.engine.shards} setting is bigger than 0, receivers don't
+ * store messages themselves. Every message is given to the shard of its
+ * destination thing in {@link ShardedProcessor}, so messages for one thing
+ * are always stored by the same thread and in order in which they were
+ * received, no matter how many receivers there are. Capacity of queue of
+ * every shard is set with {@code iot.engine.shard.capacity} setting (default
+ * 8192); receiver waits if queue of the shard is full. Ingest time then ends
+ * when message is given to shard, and stored messages are counted by shards
+ * in counters named "shards". Messages which wait in shards are stored
+ * before messages are saved at shutdown (see {@link #closeShards()}).
  * 
  * @author Nikola Presečki
  * @version 1.0
  */
 public class SimulatorServer {
 
-	/** Datagram socket for connection. */
-	private DatagramSocket serverSocket;
-	/** Output stream on which server will write its 'log' */
-	private PrintStream logStream = System.out;
+	/** Number of free buffers kept in pool for every receiver. */
+	private static final int POOLED_BUFFERS = 16;
+	/** Counters of all started receivers. */
+	private static final List<ReceiverStats> RECEIVER_STATS = new CopyOnWriteArrayList<>();
+	/** Time from receiving datagram to storing its message. */
+	private static final Histogram INGEST_LATENCY = Metrics.histogram("simulator.ingest.latency");
+	/** Tracker of messages sent to simulator, null if messages aren't tracked. */
+	private static volatile DeliveryTracker deliveryTracker;
+	/** Shards which store received messages, null if receivers store them. */
+	private static volatile ShardedProcessor<Message> shards;
+
+	/** Datagram channels for connection, one for every receiver. */
+	private List<DatagramChannel> serverChannels = new ArrayList<>();
+	/** Pool of receive buffers. */
+	private BufferPool bufferPool;
+	/** Maximal size of received datagram in bytes. */
+	private final int maxDatagramSize = Configuration.getInt("iot.simulator.max.datagram", 8192);
+	/** Logger of simulator server. */
+	private static final Logger LOG = Logger.getLogger("simulator");
 
 	/**
 	 * Constructor with no arguments. It defines that default port for listening
@@ -42,45 +100,302 @@ public class SimulatorServer {
 	 *             if there is problem with server
 	 */
 	public SimulatorServer(int port) throws Exception {
-		serverSocket = new DatagramSocket(port);
-		startServer();
+		int receivers = Math.max(1, Configuration.getInt("iot.simulator.receivers", 1));
+		// datagrams from one sender always come to the same socket, so sockets are shared only on request
+		SocketOption<Boolean> reusePort = null;
+		if (receivers > 1 && Configuration.getBoolean("iot.simulator.reuseport", false))
+			reusePort = findReusePortOption();
+		int sockets = reusePort != null ? receivers : 1;
+		for (int i = 0; i < sockets; ++i) {
+			DatagramChannel channel = DatagramChannel.open();
+			if (reusePort != null)
+				channel.setOption(reusePort, true);
+			channel.bind(new InetSocketAddress(port));
+			serverChannels.add(channel);
+		}
+		// one byte more, so too big datagrams can be recognized
+		bufferPool = new BufferPool(maxDatagramSize + 1, POOLED_BUFFERS * receivers);
+		for (StatsGauge gauge : StatsGauge.values())
+			Metrics.gauge(gauge.metricName, gauge);
+		int shardCount = Configuration.getInt("iot.engine.shards", 0);
+		if (shardCount > 0)
+			startShards(shardCount);
+		startServer(receivers);
 	}
 
 	/**
-	 * Method for starting server. It is infinite loop
+	 * Method for starting server. Current thread is used as one of receivers
+	 * and it runs in infinite loop.
 	 * 
+	 * @param receivers
+	 *            number of receivers (or parsing workers if there is only one
+	 *            socket)
 	 * @throws IOException
-	 *             if there is problem with {@link ServerSocket}.
+	 *             if there is problem with {@link DatagramChannel}.
 	 */
-	private void startServer() throws IOException {
-		logStream.println("Simulator server started listening on port: " + serverSocket.getLocalPort() + "\n");
-		byte[] receiveData = new byte[1024];
-		while (true) {
-			DatagramPacket receivePacket = new DatagramPacket(receiveData, receiveData.length);
-			serverSocket.receive(receivePacket);
-			String msg = new String(receivePacket.getData());
-			Message message = Message.parseSimulatorMessage(msg);
-			SimulatorMsgList.getInstance().addMessage(message);
+	private void startServer(int receivers) throws IOException {
+		LOG.info("Simulator server started listening on port: "
+				+ serverChannels.get(0).socket().getLocalPort() + " with " + serverChannels.size() + " socket(s)");
+		ExecutorService workers = null;
+		if (receivers > 1 && serverChannels.size() == 1) {
+			// one receiver hands datagrams to workers, if workers are late receiver parses itself
+			workers = new ThreadPoolExecutor(receivers, receivers, 0, TimeUnit.MILLISECONDS,
+					new ArrayBlockingQueue<Runnable>(POOLED_BUFFERS * receivers),
+					new ThreadPoolExecutor.CallerRunsPolicy());
 		}
+		for (int i = 1; i < serverChannels.size(); ++i) {
+			Thread thread = new Thread(new Receiver(serverChannels.get(i), null, i), "simulator-receiver-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+		new Receiver(serverChannels.get(0), workers, 0).run();
 	}
 
 	/**
-	 * Method for sending datagram packet to given adress and port.
+	 * Method for starting shards which store received messages.
 	 * 
-	 * @param ipAddress
-	 *            ip adress of server
-	 * @param port
-	 *            port on which server is listening
-	 * @param data
-	 *            data which will be send
+	 * @param shardCount
+	 *            number of shards
+	 */
+	private void startShards(int shardCount) {
+		final ReceiverStats stats = new ReceiverStats("shards");
+		RECEIVER_STATS.add(stats);
+		final ShardedProcessor<Message> processor = new ShardedProcessor<>("simulator", shardCount,
+				Configuration.getInt("iot.engine.shard.capacity", 8192), new ShardedProcessor.Handler<Message>() {
+
+					@Override
+					public void handle(List<Message> items) {
+						store(items);
+						stats.messagesStored(items.size());
+					}
+				});
+		Metrics.gauge("simulator.shards.queued", new Gauge() {
+
+			@Override
+			public long getValue() {
+				return processor.getQueuedCount();
+			}
+		});
+		shards = processor;
+	}
+
+	/**
+	 * Method for storing received messages. Messages which acknowledge sent
+	 * messages are given to delivery tracker first.
+	 * 
+	 * @param messages
+	 *            received messages
+	 */
+	private static void store(List<Message> messages) {
+		DeliveryTracker tracker = deliveryTracker;
+		if (tracker != null) {
+			for (Message message : messages)
+				tracker.acknowledge(message);
+		}
+		SimulatorMsgList.getInstance().addAllMessages(messages);
+	}
+
+	/**
+	 * Method for stopping shards. Messages which wait in shards are stored
+	 * first, so this should be called before messages are saved at shutdown.
+	 * Messages received after that are not stored.
+	 */
+	public static void closeShards() {
+		ShardedProcessor<Message> processor = shards;
+		if (processor != null)
+			processor.close();
+	}
+
+	/**
+	 * Method for getting counters of all started receivers, one for every
+	 * socket. Datagrams parsed by workers are counted in counters of receiver
+	 * which received them.
+	 * 
+	 * @return list of receiver counters
+	 */
+	public static List<ReceiverStats> getReceiverStats() {
+		return Collections.unmodifiableList(RECEIVER_STATS);
+	}
+
+	/**
+	 * Setter for tracker which is informed about every received message, so
+	 * it can recognize acknowledgements of sent messages.
+	 * 
+	 * @param tracker
+	 *            tracker of sent messages or null
+	 */
+	public static void setDeliveryTracker(DeliveryTracker tracker) {
+		deliveryTracker = tracker;
+	}
+
+	/**
+	 * Method for finding {@code SO_REUSEPORT} socket option. Option is found
+	 * by name, because it doesn't exist on every Java version and system.
+	 * 
+	 * @return option or null if it is not supported
 	 * @throws IOException
-	 *             if there is problem with sending packet
+	 *             if channel for checking can't be opened
+	 */
+	@SuppressWarnings("unchecked")
+	private static SocketOption<Boolean> findReusePortOption() throws IOException {
+		try (DatagramChannel channel = DatagramChannel.open()) {
+			for (SocketOption<?> option : channel.supportedOptions()) {
+				if ("SO_REUSEPORT".equals(option.name()) && option.type() == Boolean.class)
+					return (SocketOption<Boolean>) option;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Receiver of datagrams from one channel. Received datagram is parsed in
+	 * the same thread or it is given to workers.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private class Receiver implements Runnable {
+		/** Channel from which datagrams are received. */
+		private final DatagramChannel channel;
+		/** Workers which parse datagrams, null if receiver parses itself. */
+		private final ExecutorService workers;
+		/** Counters of this receiver. */
+		private final ReceiverStats stats;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param channel
+		 *            channel from which datagrams are received
+		 * @param workers
+		 *            workers which parse datagrams, null if receiver parses
+		 *            itself
+		 * @param index
+		 *            index of receiver
+		 */
+		Receiver(DatagramChannel channel, ExecutorService workers, int index) {
+			this.channel = channel;
+			this.workers = workers;
+			this.stats = new ReceiverStats("receiver-" + index);
+			RECEIVER_STATS.add(stats);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				final ByteBuffer buffer = bufferPool.acquire();
+				try {
+					channel.receive(buffer);
+				} catch (IOException e) {
+					LOG.error(e.toString());
+					bufferPool.release(buffer);
+					if (!channel.isOpen())
+						return;
+					continue;
+				}
+				final long received = System.nanoTime();
+				buffer.flip();
+				stats.packetReceived(buffer.remaining());
+				if (workers == null) {
+					process(buffer, received);
+					continue;
+				}
+				workers.execute(new Runnable() {
+					@Override
+					public void run() {
+						process(buffer, received);
+					}
+				});
+			}
+		}
+
+		/**
+		 * Method for parsing datagram and storing message. Buffer is returned
+		 * to pool at the end.
+		 * 
+		 * @param buffer
+		 *            buffer with received datagram
+		 * @param received
+		 *            time when datagram was received, as
+		 *            {@link System#nanoTime()}
+		 */
+		private void process(ByteBuffer buffer, long received) {
+			try {
+				if (buffer.remaining() > maxDatagramSize) {
+					stats.packetDropped();
+					LOG.warn("Datagram bigger than " + maxDatagramSize + " bytes dropped");
+					return;
+				}
+				List<Message> messages = new ArrayList<>(1);
+				Message.parseSimulatorMessages(buffer, messages);
+				ShardedProcessor<Message> processor = shards;
+				if (processor == null) {
+					store(messages);
+					stats.messagesStored(messages.size());
+				} else {
+					for (Message message : messages)
+						processor.submit(message.getDestID(), message);
+				}
+				INGEST_LATENCY.recordSince(received);
+			} catch (IllegalArgumentException e) {
+				stats.parseFailed();
+				LOG.warn("Invalid simulator message: " + e.getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				bufferPool.release(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Gauges which sum counters of all receivers.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
 	 */
-	public static void sendMessage(String ipAddress, int port, byte[] data) throws IOException {
-		DatagramSocket clientSocket = new DatagramSocket();
-		InetAddress IPAddress = InetAddress.getByName(ipAddress);
-		DatagramPacket sendPacket = new DatagramPacket(data, data.length, IPAddress, port);
-		clientSocket.send(sendPacket);
-		clientSocket.close();
+	private enum StatsGauge implements Gauge {
+		/** Number of received datagrams. */
+		PACKETS("simulator.packets"),
+		/** Number of received bytes. */
+		BYTES("simulator.bytes"),
+		/** Number of datagrams dropped because they were too big. */
+		DROPPED("simulator.packets.dropped"),
+		/** Number of datagrams which couldn't be parsed. */
+		ERRORS("simulator.packets.invalid");
+
+		/** Name of the metric. */
+		private final String metricName;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param metricName
+		 *            name of the metric
+		 */
+		StatsGauge(String metricName) {
+			this.metricName = metricName;
+		}
+
+		@Override
+		public long getValue() {
+			long sum = 0;
+			for (ReceiverStats stats : RECEIVER_STATS) {
+				switch (this) {
+				case PACKETS:
+					sum += stats.getPackets();
+					break;
+				case BYTES:
+					sum += stats.getBytes();
+					break;
+				case DROPPED:
+					sum += stats.getDropped();
+					break;
+				default:
+					sum += stats.getErrors();
+				}
+			}
+			return sum;
+		}
 	}
 }
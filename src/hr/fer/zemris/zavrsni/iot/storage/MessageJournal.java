@@ -0,0 +1,64 @@
+package hr.fer.zemris.zavrsni.iot.storage;
+
+import java.util.List;
+
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Journal to which message list reports every message which it stores and
+ * every message which leaves it. Messages which were stored and didn't leave
+ * are the ones which have to be restored after server is started again.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public interface MessageJournal {
+
+	/** Journal which doesn't record anything. */
+	MessageJournal NONE = new MessageJournal() {
+
+		@Override
+		public boolean messageAdded(Message message) {
+			return true;
+		}
+
+		@Override
+		public void messageRemoved(Message message) {
+		}
+	};
+
+	/**
+	 * Method for recording message which is stored in list. Method returns
+	 * after message is written as configured journal requires.
+	 * 
+	 * @param message
+	 *            stored message
+	 * @return false if message couldn't be recorded, otherwise true
+	 */
+	boolean messageAdded(Message message);
+
+	/**
+	 * Method for recording messages which are stored in list together. Method
+	 * returns after all messages are written as configured journal requires.
+	 * 
+	 * @param messages
+	 *            stored messages
+	 * @return false if messages couldn't be recorded, otherwise true
+	 */
+	default boolean messagesAdded(List<Message> messages) {
+		for (Message message : messages) {
+			if (!messageAdded(message))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Method for recording message which left the list (it is delivered or
+	 * dropped).
+	 * 
+	 * @param message
+	 *            removed message
+	 */
+	void messageRemoved(Message message);
+}
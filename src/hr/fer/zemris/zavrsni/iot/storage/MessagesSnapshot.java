@@ -0,0 +1,270 @@
+package hr.fer.zemris.zavrsni.iot.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import hr.fer.zemris.zavrsni.iot.storage.MessagesStoreClass.MessageHandler;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+import hr.fer.zemris.zavrsni.iot.utils.MessageCodec;
+
+/**
+ * Class contains methods for storing and receiving messages from binary
+ * snapshot file. It is the same list of messages as XML file of
+ * {@link MessagesStoreClass}, but it is read without any parsing of text, so
+ * large number of messages is restored quickly. File is read through memory
+ * mapping.
+ * <p>
+ * File format is: -MAGIC VERSION COUNT RECORDS-, where magic, version and
+ * count are 32 bit numbers and every record is 32 bit length followed by
+ * message encoded with {@link MessageCodec#encodeRecord(Message, ByteBuffer)}.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class MessagesSnapshot {
+
+	/** First bytes of every snapshot, "IOTS". */
+	private static final int MAGIC = 0x494F5453;
+	/** Version of file format. */
+	private static final int VERSION = 1;
+	/** Number of bytes before first record. */
+	private static final int HEADER_LENGTH = 12;
+	/** Size of write buffer in bytes. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Private constructor for stoping instantiation. */
+	private MessagesSnapshot() {
+	}
+
+	/**
+	 * Method for checking if given file is snapshot.
+	 * 
+	 * @param fileName
+	 *            name of the file
+	 * @return true if file exists and starts as snapshot, otherwise false
+	 * @throws IOException
+	 *             if there is problem with file
+	 */
+	public static boolean isSnapshot(String fileName) throws IOException {
+		Path file = Paths.get(fileName);
+		if (!Files.exists(file))
+			return false;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			while (header.hasRemaining() && channel.read(header) >= 0)
+				;
+			return !header.hasRemaining() && header.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Method for storing messages to snapshot file.
+	 * 
+	 * @param fileName
+	 *            name of the snapshot file
+	 * @param messages
+	 *            messages for storing
+	 * @throws IOException
+	 *             if there is problem with file
+	 */
+	public static void storeMessages(String fileName, Iterable<Message> messages) throws IOException {
+		try (Writer writer = new Writer(fileName)) {
+			for (Message message : messages)
+				writer.write(message);
+			writer.commit();
+		}
+	}
+
+	/**
+	 * Method for reading messages from snapshot file. If file doesn't exist,
+	 * empty list is returned.
+	 * 
+	 * @param fileName
+	 *            name of the snapshot file
+	 * @return list of stored messages
+	 * @throws IOException
+	 *             if there is problem with file or file is not valid snapshot
+	 */
+	public static List<Message> readMessages(String fileName) throws IOException {
+		final List<Message> messages = new ArrayList<>();
+		readMessages(fileName, new MessageHandler() {
+
+			@Override
+			public void handle(Message message) {
+				messages.add(message);
+			}
+		});
+		return messages;
+	}
+
+	/**
+	 * Method for reading messages from snapshot file one by one. If file
+	 * doesn't exist, method will do nothing.
+	 * 
+	 * @param fileName
+	 *            name of the snapshot file
+	 * @param handler
+	 *            handler of read messages
+	 * @throws IOException
+	 *             if there is problem with file or file is not valid snapshot
+	 */
+	public static void readMessages(String fileName, MessageHandler handler) throws IOException {
+		Path file = Paths.get(fileName);
+		if (!Files.exists(file))
+			return;
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Snapshot " + fileName + " is too big");
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC)
+			throw new IOException(fileName + " is not snapshot");
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported snapshot version " + version);
+		int count = buffer.getInt();
+		try {
+			for (int i = 0; i < count; ++i) {
+				if (buffer.remaining() < 4)
+					throw new IOException("Snapshot " + fileName + " is cut after " + i + " messages");
+				int length = buffer.getInt();
+				if (length < 0 || length > buffer.remaining())
+					throw new IOException("Snapshot " + fileName + " is cut after " + i + " messages");
+				ByteBuffer record = buffer.slice();
+				record.limit(length);
+				buffer.position(buffer.position() + length);
+				handler.handle(MessageCodec.decodeRecord(record));
+			}
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Invalid message in snapshot " + fileName, e);
+		}
+	}
+
+	/**
+	 * Writer of snapshot file which takes messages one by one. File is
+	 * written under temporary name and renamed when writer is committed, so
+	 * old file stays if writing fails. Writer which is closed without commit
+	 * removes temporary file.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	public static class Writer implements Closeable {
+
+		/** Snapshot file. */
+		private final Path file;
+		/** File which is written. */
+		private final Path temporary;
+		/** Channel of temporary file. */
+		private final FileChannel channel;
+		/** Buffer of records which are not yet written. */
+		private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		/** Number of written messages. */
+		private int count;
+		/** Flag which is true after file is renamed. */
+		private boolean committed;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param fileName
+		 *            name of the snapshot file
+		 * @throws IOException
+		 *             if file can't be made
+		 */
+		public Writer(String fileName) throws IOException {
+			file = Paths.get(fileName).toAbsolutePath();
+			temporary = file.resolveSibling(file.getFileName() + ".tmp");
+			channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE);
+			// count is written when writer is committed
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(0);
+		}
+
+		/**
+		 * Method for writing one message.
+		 * 
+		 * @param message
+		 *            message
+		 * @throws IOException
+		 *             if message can't be written
+		 */
+		public void write(Message message) throws IOException {
+			int length = MessageCodec.recordLength(message);
+			if (buffer.remaining() < 4 + length)
+				flush();
+			if (buffer.remaining() < 4 + length) {
+				// message is bigger than buffer
+				ByteBuffer record = ByteBuffer.allocate(4 + length);
+				record.putInt(length);
+				MessageCodec.encodeRecord(message, record);
+				record.flip();
+				writeFully(record);
+			} else {
+				buffer.putInt(length);
+				MessageCodec.encodeRecord(message, buffer);
+			}
+			++count;
+		}
+
+		/**
+		 * Method for finishing snapshot and replacing old file with it.
+		 * 
+		 * @throws IOException
+		 *             if snapshot can't be finished
+		 */
+		public void commit() throws IOException {
+			flush();
+			ByteBuffer header = ByteBuffer.allocate(4);
+			header.putInt(0, count);
+			channel.write(header, HEADER_LENGTH - 4);
+			channel.force(true);
+			channel.close();
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			committed = true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+			if (!committed)
+				Files.deleteIfExists(temporary);
+		}
+
+		/**
+		 * Method for writing buffered records to file.
+		 * 
+		 * @throws IOException
+		 *             if records can't be written
+		 */
+		private void flush() throws IOException {
+			buffer.flip();
+			writeFully(buffer);
+			buffer.clear();
+		}
+
+		/**
+		 * Method for writing whole buffer to file.
+		 * 
+		 * @param data
+		 *            buffer with data between position and limit
+		 * @throws IOException
+		 *             if data can't be written
+		 */
+		private void writeFully(ByteBuffer data) throws IOException {
+			while (data.hasRemaining())
+				channel.write(data);
+		}
+	}
+}
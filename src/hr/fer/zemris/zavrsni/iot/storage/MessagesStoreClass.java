@@ -1,32 +1,30 @@
 package hr.fer.zemris.zavrsni.iot.storage;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 import hr.fer.zemris.zavrsni.iot.utils.Message;
 
 /**
  * Class contains methods for storing and receiving client messages from some
- * persistent file. Messages are from {@code ClientMsgList}.
+ * persistent file. Messages are from {@code ClientMsgList}. Files are read and
+ * written as stream of XML events, so only one message is in memory at the
+ * time.
  * 
  * @author Nikola Presečki
  * @version 1.0
@@ -49,67 +47,74 @@ public class MessagesStoreClass {
 	private static final String NAME_PREV_MSG_ID = "previous_message_id";
 	/** Name of the encryption element. */
 	private static final String NAME_ENCRYPT = "encryption";
+	/** Encoding of the file. */
+	private static final String ENCODING = "UTF-8";
+	/** Indentation of one level. */
+	private static final String INDENT = "    ";
 
 	/**
 	 * Method for storing client messages to persistent file. Messages are
-	 * readed from {@code ClientMsgList}.
+	 * readed from {@code ClientMsgList}. File is written under temporary name
+	 * and renamed when it is complete, so old file stays if writing fails.
 	 * 
 	 * @param fileName
 	 *            name of the XML file in which messages will be stored
 	 * @param messages
-	 *            list of messages for storing
-	 * @throws ParserConfigurationException
-	 *             if there is something wrong with parsing
-	 * @throws TransformerException
-	 *             if there is something wrong with making xml file from DOM
+	 *            messages for storing
+	 * @throws IOException
+	 *             if there is problem with file
+	 * @throws XMLStreamException
+	 *             if there is something wrong with writing XML
 	 */
-	public static void storeClientMessages(String fileName, List<Message> messages)
-			throws ParserConfigurationException, TransformerException {
-		DocumentBuilderFactory docFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder docBuilder = docFactory.newDocumentBuilder();
-		// root element
-		Document doc = docBuilder.newDocument();
-		Element rootElement = doc.createElement(NAME_ROOT);
-		doc.appendChild(rootElement);
-		// get messages for storing
-		for (Message clientMessage : messages) {
-			// message element
-			Element message = doc.createElement(NAME_MSG);
-			rootElement.appendChild(message);
-
-			// set message id as attribute
-			message.setAttribute(NAME_MSG_ID, String.valueOf(clientMessage.getMessageID()));
-
-			// source id element
-			Element srcID = doc.createElement(NAME_SRC_ID);
-			srcID.appendChild(doc.createTextNode(clientMessage.getSrcID()));
-			message.appendChild(srcID);
-
-			// destination id element
-			Element destID = doc.createElement(NAME_DEST_ID);
-			destID.appendChild(doc.createTextNode(clientMessage.getDestID()));
-			message.appendChild(destID);
-
-			// json data element
-			Element jsonData = doc.createElement(NAME_JSON_DATA);
-			jsonData.appendChild(doc.createTextNode(clientMessage.getJsonData()));
-			message.appendChild(jsonData);
-
-			// encryption element
-			Element encryption = doc.createElement(NAME_ENCRYPT);
-			encryption.appendChild(doc.createTextNode("" + clientMessage.getEncryption()));
-			message.appendChild(encryption);
-
-			// set previous message id as attribute
-			message.setAttribute(NAME_PREV_MSG_ID, String.valueOf(clientMessage.getPreviousMessageID()));
+	public static void storeClientMessages(String fileName, Iterable<Message> messages)
+			throws IOException, XMLStreamException {
+		Path file = Paths.get(fileName).toAbsolutePath();
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		try (OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+			XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(output, ENCODING);
+			writer.writeStartDocument(ENCODING, "1.0");
+			writer.writeCharacters("\n");
+			// root element
+			writer.writeStartElement(NAME_ROOT);
+			for (Message clientMessage : messages) {
+				// message element with message id and previous message id as attributes
+				writer.writeCharacters("\n" + INDENT);
+				writer.writeStartElement(NAME_MSG);
+				writer.writeAttribute(NAME_MSG_ID, String.valueOf(clientMessage.getMessageID()));
+				writer.writeAttribute(NAME_PREV_MSG_ID, String.valueOf(clientMessage.getPreviousMessageID()));
+				writeElement(writer, NAME_SRC_ID, clientMessage.getSrcID());
+				writeElement(writer, NAME_DEST_ID, clientMessage.getDestID());
+				writeElement(writer, NAME_JSON_DATA, clientMessage.getJsonData());
+				writeElement(writer, NAME_ENCRYPT, "" + clientMessage.getEncryption());
+				writer.writeCharacters("\n" + INDENT);
+				writer.writeEndElement();
+			}
+			writer.writeCharacters("\n");
+			writer.writeEndElement();
+			writer.writeCharacters("\n");
+			writer.writeEndDocument();
+			writer.close();
 		}
-		// write the content into xml file
-		TransformerFactory transformerFactory = TransformerFactory.newInstance();
-		Transformer transformer = transformerFactory.newTransformer();
-		transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-		DOMSource source = new DOMSource(doc);
-		StreamResult result = new StreamResult(new File(fileName));
-		transformer.transform(source, result);
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Method for writing one indented child element of message.
+	 * 
+	 * @param writer
+	 *            XML writer
+	 * @param name
+	 *            name of the element
+	 * @param text
+	 *            text of the element
+	 * @throws XMLStreamException
+	 *             if there is something wrong with writing XML
+	 */
+	private static void writeElement(XMLStreamWriter writer, String name, String text) throws XMLStreamException {
+		writer.writeCharacters("\n" + INDENT + INDENT);
+		writer.writeStartElement(name);
+		writer.writeCharacters(text == null ? "" : text);
+		writer.writeEndElement();
 	}
 
 	/**
@@ -120,39 +125,107 @@ public class MessagesStoreClass {
 	 * @param fileName
 	 *            name of the XML file
 	 * @return list of stored messages
-	 * @throws ParserConfigurationException
-	 *             if there is problem with parsing
 	 * @throws IOException
 	 *             if there is problem with file
-	 * @throws SAXException
+	 * @throws XMLStreamException
 	 *             if there is problem with reading file
 	 */
-	public static List<Message> readStoredClientMessages(String fileName)
-			throws ParserConfigurationException, SAXException, IOException {
-		List<Message> messages = new ArrayList<>();
-		File fXmlFile = Paths.get(fileName).toFile();
-		if (!fXmlFile.exists())
-			return messages;
-		DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-		DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
-		Document doc = dBuilder.parse(fXmlFile);
-		doc.getDocumentElement().normalize();
-		// find root element
-		NodeList nList = doc.getElementsByTagName(NAME_MSG);
-		for (int i = 0, len = nList.getLength(); i < len; ++i) {
-			// find message node
-			Node nNode = nList.item(i);
-			if (nNode.getNodeType() == Node.ELEMENT_NODE) {
-				Element eElement = (Element) nNode;
-				Message clientMessage = new Message(eElement.getAttribute(NAME_MSG_ID),
-						eElement.getElementsByTagName(NAME_SRC_ID).item(0).getTextContent(),
-						eElement.getElementsByTagName(NAME_DEST_ID).item(0).getTextContent(),
-						eElement.getElementsByTagName(NAME_JSON_DATA).item(0).getTextContent(),
-						eElement.getAttribute(NAME_PREV_MSG_ID),
-						eElement.getElementsByTagName(NAME_ENCRYPT).item(0).getTextContent().charAt(0)-'0');
-				messages.add(clientMessage);
+	public static List<Message> readStoredClientMessages(String fileName) throws IOException, XMLStreamException {
+		final List<Message> messages = new ArrayList<>();
+		readStoredClientMessages(fileName, new MessageHandler() {
+
+			@Override
+			public void handle(Message message) {
+				messages.add(message);
 			}
-		}
+		});
 		return messages;
 	}
+
+	/**
+	 * Method for reading stored client messages from persistent file one by
+	 * one. Every message is given to handler as soon as it is read. If file is
+	 * not already created or it doesn't exists, method will do nothing.
+	 * 
+	 * @param fileName
+	 *            name of the XML file
+	 * @param handler
+	 *            handler of read messages
+	 * @throws IOException
+	 *             if there is problem with file
+	 * @throws XMLStreamException
+	 *             if there is problem with reading file
+	 */
+	public static void readStoredClientMessages(String fileName, MessageHandler handler)
+			throws IOException, XMLStreamException {
+		Path file = Paths.get(fileName);
+		if (!Files.exists(file))
+			return;
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		// stored messages don't need DTD or external entities
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		try (InputStream input = Files.newInputStream(file)) {
+			XMLStreamReader reader = factory.createXMLStreamReader(input);
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT && NAME_MSG.equals(reader.getLocalName()))
+						handler.handle(readMessage(reader));
+				}
+			} finally {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Method for reading one message element. Reader is positioned at the start
+	 * of the element and it is left at the end of the element.
+	 * 
+	 * @param reader
+	 *            XML reader
+	 * @return read message
+	 * @throws XMLStreamException
+	 *             if message element is not valid
+	 */
+	private static Message readMessage(XMLStreamReader reader) throws XMLStreamException {
+		String msgID = reader.getAttributeValue(null, NAME_MSG_ID);
+		String prevMsgID = reader.getAttributeValue(null, NAME_PREV_MSG_ID);
+		String srcID = null;
+		String destID = null;
+		String jsonData = null;
+		String encryption = null;
+		while (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			String name = reader.getLocalName();
+			String text = reader.getElementText();
+			if (NAME_SRC_ID.equals(name))
+				srcID = text;
+			else if (NAME_DEST_ID.equals(name))
+				destID = text;
+			else if (NAME_JSON_DATA.equals(name))
+				jsonData = text;
+			else if (NAME_ENCRYPT.equals(name))
+				encryption = text;
+		}
+		if (srcID == null || destID == null || jsonData == null || encryption == null || encryption.isEmpty())
+			throw new XMLStreamException("Incomplete message " + msgID, reader.getLocation());
+		return new Message(msgID == null ? "" : msgID, srcID, destID, jsonData, prevMsgID, encryption.charAt(0) - '0');
+	}
+
+	/**
+	 * Handler of messages which are read from file.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	public interface MessageHandler {
+
+		/**
+		 * Method which is called for every read message.
+		 * 
+		 * @param message
+		 *            read message
+		 */
+		void handle(Message message);
+	}
 }
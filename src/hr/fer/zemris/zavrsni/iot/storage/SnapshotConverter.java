@@ -0,0 +1,70 @@
+package hr.fer.zemris.zavrsni.iot.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+
+/**
+ * Tool for converting stored messages between XML file of
+ * {@link MessagesStoreClass} and binary snapshot of {@link MessagesSnapshot}.
+ * There are 2 command line arguments needed:
+ * <p>
+ * <pre>
+ * 1. input file, XML file or snapshot (format is recognized from content)
+ * 2. output file, written in the other format
+ * </pre>
+ * <p>
+ * XML file is converted to snapshot while it is read, so any number of
+ * messages can be converted.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class SnapshotConverter {
+
+	/**
+	 * Main method which is called first.
+	 * 
+	 * @param args
+	 *            command line arguments, input and output file
+	 */
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println("Usage: SnapshotConverter <input file> <output file>");
+			return;
+		}
+		if (!Files.exists(Paths.get(args[0]))) {
+			System.err.println("File " + args[0] + " doesn't exist");
+			return;
+		}
+		try {
+			if (MessagesSnapshot.isSnapshot(args[0])) {
+				MessagesStoreClass.storeClientMessages(args[1], MessagesSnapshot.readMessages(args[0]));
+				System.out.println("Snapshot " + args[0] + " converted to XML file " + args[1]);
+			} else {
+				final int[] count = new int[1];
+				try (final MessagesSnapshot.Writer writer = new MessagesSnapshot.Writer(args[1])) {
+					MessagesStoreClass.readStoredClientMessages(args[0], new MessagesStoreClass.MessageHandler() {
+
+						@Override
+						public void handle(Message message) {
+							try {
+								writer.write(message);
+								++count[0];
+							} catch (IOException e) {
+								throw new UncheckedIOException(e);
+							}
+						}
+					});
+					writer.commit();
+				}
+				System.out.println(count[0] + " messages from " + args[0] + " converted to snapshot " + args[1]);
+			}
+		} catch (Exception e) {
+			System.err.println("Error while converting " + args[0] + "\n" + e.toString());
+		}
+	}
+}
@@ -0,0 +1,618 @@
+package hr.fer.zemris.zavrsni.iot.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import hr.fer.zemris.zavrsni.iot.log.Logger;
+import hr.fer.zemris.zavrsni.iot.utils.Configuration;
+import hr.fer.zemris.zavrsni.iot.utils.Message;
+import hr.fer.zemris.zavrsni.iot.utils.MessageCodec;
+import hr.fer.zemris.zavrsni.iot.utils.MessageKey;
+
+/**
+ * Append-only log of stored and removed messages of client and simulator
+ * message lists. Log is kept in directory as numbered segment files and every
+ * record is -LENGTH CRC32 OPERATION LIST DATA-, where data is whole message for
+ * stored message and message ID and source ID for removed message. When
+ * server is started, all segments are replayed and messages which were stored
+ * and not removed are given back (see
+ * {@link #getRecoveredMessages(MessageList)}). Record which is cut or whose
+ * checksum doesn't match ends its segment.
+ * <p>
+ * Settings:
+ * <pre>
+ * iot.wal.sync             - when log is written to disk: per_message, group_commit (default) or interval
+ * iot.wal.sync.interval    - time in milliseconds between writes to disk with interval policy (default 1000)
+ * iot.wal.segment.size     - size of segment in bytes after which new segment is started (default 16 MiB)
+ * iot.wal.compact.interval - time in milliseconds between compactions (default 60000)
+ * </pre>
+ * Compaction closes current segment and rewrites all closed segments into one
+ * segment which contains only messages which are still stored. Rewritten
+ * segment is first kept under its own name, which marks that compaction is
+ * done, and it takes place of closed segments only after they are deleted.
+ * Compaction which was done, but not finished, is finished when log is opened.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class WriteAheadLog implements Closeable {
+
+	/** Logger of write-ahead log. */
+	private static final Logger LOG = Logger.getLogger("wal");
+	/** Default size of segment in bytes. */
+	private static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+	/** Default time in milliseconds between writes to disk. */
+	private static final long DEFAULT_SYNC_INTERVAL = 1000;
+	/** Default time in milliseconds between compactions. */
+	private static final long DEFAULT_COMPACT_INTERVAL = 60000;
+	/** Prefix of segment file name. */
+	private static final String SEGMENT_PREFIX = "journal-";
+	/** Suffix of segment file name. */
+	private static final String SEGMENT_SUFFIX = ".log";
+	/** Suffix of segment which is being compacted. */
+	private static final String COMPACT_SUFFIX = ".compact";
+	/** Suffix of compacted segment which didn't replace closed segments yet. */
+	private static final String COMPACTED_SUFFIX = ".compacted";
+	/** Number of bytes of length and checksum before every record. */
+	private static final int RECORD_HEADER = 8;
+	/** Operation of stored message. */
+	private static final byte OP_ADD = 'A';
+	/** Operation of removed message. */
+	private static final byte OP_REMOVE = 'R';
+
+	/** Directory with segments. */
+	private final Path directory;
+	/** When log is written to disk. */
+	private final SyncPolicy syncPolicy;
+	/** Size of segment after which new segment is started. */
+	private final long segmentSize;
+	/** Messages which were stored when log was opened. */
+	private final Map<MessageList, Map<MessageKey, Message>> recovered = new EnumMap<>(MessageList.class);
+	/** Thread for writes to disk with interval policy and for compactions. */
+	private final ScheduledExecutorService scheduler;
+	/** Lock held while log is written to disk. */
+	private final Object syncLock = new Object();
+	/** Lock held while log is compacted. */
+	private final Object compactLock = new Object();
+	/** Checksum of appended records. */
+	private final CRC32 checksum = new CRC32();
+	/** Buffer in which appended record is made. */
+	private ByteBuffer recordBuffer = ByteBuffer.allocateDirect(4096);
+	/** Current segment. */
+	private volatile FileChannel channel;
+	/** Number of current segment. */
+	private long segmentNumber;
+	/** Number of bytes written to current segment. */
+	private long segmentBytes;
+	/** Number of appended records. */
+	private volatile long writtenRecords;
+	/** Number of records which are written to disk. */
+	private volatile long syncedRecords;
+	/** Flag which is true after log is closed. */
+	private volatile boolean closed;
+
+	/**
+	 * Constructor. Existing segments in directory are replayed and new segment
+	 * is started.
+	 * 
+	 * @param directory
+	 *            directory with segments, it is made if it doesn't exist
+	 * @throws IOException
+	 *             if segments can't be read or new segment can't be made
+	 */
+	public WriteAheadLog(String directory) throws IOException {
+		this.directory = Paths.get(directory);
+		this.syncPolicy = Configuration.getEnum("iot.wal.sync", SyncPolicy.class, SyncPolicy.GROUP_COMMIT);
+		this.segmentSize = Configuration.getLong("iot.wal.segment.size", DEFAULT_SEGMENT_SIZE);
+		Files.createDirectories(this.directory);
+		// remove compaction which didn't finish
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory,
+				SEGMENT_PREFIX + "*" + COMPACT_SUFFIX)) {
+			for (Path path : stream)
+				Files.delete(path);
+		}
+		// finish compaction which was done, but old segments weren't removed
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory,
+				SEGMENT_PREFIX + "*" + COMPACTED_SUFFIX)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				try {
+					finishCompaction(path, Long.parseLong(
+							name.substring(SEGMENT_PREFIX.length(), name.length() - COMPACTED_SUFFIX.length())));
+				} catch (NumberFormatException e) {
+					LOG.warn("Ignoring " + name);
+				}
+			}
+		}
+		// replay existing segments
+		for (MessageList list : MessageList.values())
+			recovered.put(list, new LinkedHashMap<MessageKey, Message>());
+		long lastSegment = 0;
+		for (Map.Entry<Long, Path> segment : listSegments().entrySet()) {
+			replay(segment.getValue(), recovered);
+			lastSegment = segment.getKey();
+		}
+		openSegment(lastSegment + 1);
+		// start background work
+		scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "write-ahead-log");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		if (syncPolicy == SyncPolicy.INTERVAL) {
+			long interval = Configuration.getLong("iot.wal.sync.interval", DEFAULT_SYNC_INTERVAL);
+			scheduler.scheduleWithFixedDelay(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						sync(writtenRecords);
+					} catch (IOException e) {
+						LOG.error(e.toString());
+					}
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+		long compactInterval = Configuration.getLong("iot.wal.compact.interval", DEFAULT_COMPACT_INTERVAL);
+		scheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					compact();
+				} catch (IOException e) {
+					LOG.error("Compaction failed: " + e.toString());
+				}
+			}
+		}, compactInterval, compactInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method for getting messages of given list which were stored when log was
+	 * opened, in order in which they were stored.
+	 * 
+	 * @param list
+	 *            message list
+	 * @return stored messages
+	 */
+	public List<Message> getRecoveredMessages(MessageList list) {
+		return new ArrayList<>(recovered.get(list).values());
+	}
+
+	/**
+	 * Method for getting journal which records messages of given list to this
+	 * log.
+	 * 
+	 * @param list
+	 *            message list
+	 * @return journal of given list
+	 */
+	public MessageJournal journalFor(final MessageList list) {
+		return new MessageJournal() {
+
+			@Override
+			public boolean messageAdded(Message message) {
+				try {
+					long record = append(OP_ADD, list, message);
+					if (syncPolicy == SyncPolicy.GROUP_COMMIT)
+						sync(record);
+					return true;
+				} catch (IOException e) {
+					LOG.error(e.toString());
+					return false;
+				}
+			}
+
+			@Override
+			public boolean messagesAdded(List<Message> messages) {
+				// whole batch waits for one write to disk
+				try {
+					long record = 0;
+					for (Message message : messages)
+						record = append(OP_ADD, list, message);
+					if (syncPolicy == SyncPolicy.GROUP_COMMIT)
+						sync(record);
+					return true;
+				} catch (IOException e) {
+					LOG.error(e.toString());
+					return false;
+				}
+			}
+
+			@Override
+			public void messageRemoved(Message message) {
+				// lost removal only means that message is delivered again, so there is no waiting for disk
+				try {
+					append(OP_REMOVE, list, message);
+				} catch (IOException e) {
+					LOG.error(e.toString());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Method for closing current segment and rewriting all closed segments into
+	 * one segment with messages which are still stored. It is called
+	 * periodically, but it can be called at any time.
+	 * 
+	 * @throws IOException
+	 *             if segments can't be read or written
+	 */
+	public void compact() throws IOException {
+		synchronized (compactLock) {
+			compactClosedSegments();
+		}
+	}
+
+	/**
+	 * Method for compacting log while compaction lock is held.
+	 * 
+	 * @throws IOException
+	 *             if segments can't be read or written
+	 */
+	private void compactClosedSegments() throws IOException {
+		Map<Long, Path> segments;
+		synchronized (this) {
+			if (closed)
+				return;
+			boolean rolled = segmentBytes > 0;
+			if (rolled)
+				roll();
+			segments = listSegments();
+			segments.remove(segmentNumber);
+			if (segments.isEmpty() || (!rolled && segments.size() == 1))
+				return;
+		}
+		// closed segments are not written anymore, so they are read without lock
+		Map<MessageList, Map<MessageKey, Message>> live = new EnumMap<>(MessageList.class);
+		for (MessageList list : MessageList.values())
+			live.put(list, new LinkedHashMap<MessageKey, Message>());
+		long lastSegment = 0;
+		for (Map.Entry<Long, Path> segment : segments.entrySet()) {
+			replay(segment.getValue(), live);
+			lastSegment = segment.getKey();
+		}
+		Path target = segmentPath(lastSegment);
+		Path temporary = directory.resolve(SEGMENT_PREFIX + lastSegment + COMPACT_SUFFIX);
+		try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = ByteBuffer.allocate(4096);
+			CRC32 crc = new CRC32();
+			for (Map.Entry<MessageList, Map<MessageKey, Message>> entry : live.entrySet()) {
+				for (Message message : entry.getValue().values()) {
+					buffer = encode(buffer, crc, OP_ADD, entry.getKey(), message);
+					while (buffer.hasRemaining())
+						out.write(buffer);
+				}
+			}
+			out.force(true);
+		}
+		// after this move compacted segment is used instead of closed segments, even if server stops now
+		Path compacted = directory.resolve(SEGMENT_PREFIX + lastSegment + COMPACTED_SUFFIX);
+		Files.move(temporary, compacted, StandardCopyOption.ATOMIC_MOVE);
+		finishCompaction(compacted, lastSegment);
+	}
+
+	/**
+	 * Method for replacing closed segments with compacted segment. All
+	 * segments up to the given number are deleted before compacted segment
+	 * gets name of the last one, so their removal records are never missing
+	 * while their stored messages are still read.
+	 * 
+	 * @param compacted
+	 *            compacted segment file
+	 * @param lastSegment
+	 *            number of the last segment which was compacted
+	 * @throws IOException
+	 *             if segments can't be deleted or compacted segment can't be
+	 *             renamed
+	 */
+	private void finishCompaction(Path compacted, long lastSegment) throws IOException {
+		for (Map.Entry<Long, Path> segment : listSegments().entrySet()) {
+			if (segment.getKey() <= lastSegment)
+				Files.deleteIfExists(segment.getValue());
+		}
+		Files.move(compacted, segmentPath(lastSegment), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		scheduler.shutdownNow();
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			synchronized (syncLock) {
+				channel.force(false);
+				syncedRecords = writtenRecords;
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Method for appending record to current segment.
+	 * 
+	 * @param operation
+	 *            record operation
+	 * @param list
+	 *            message list
+	 * @param message
+	 *            message
+	 * @return number of appended record
+	 * @throws IOException
+	 *             if record can't be written
+	 */
+	private synchronized long append(byte operation, MessageList list, Message message) throws IOException {
+		if (closed)
+			throw new ClosedChannelException();
+		recordBuffer = encode(recordBuffer, checksum, operation, list, message);
+		segmentBytes += recordBuffer.remaining();
+		while (recordBuffer.hasRemaining())
+			channel.write(recordBuffer);
+		long record = ++writtenRecords;
+		if (syncPolicy == SyncPolicy.PER_MESSAGE) {
+			channel.force(false);
+			syncedRecords = record;
+		}
+		if (segmentBytes >= segmentSize)
+			roll();
+		return record;
+	}
+
+	/**
+	 * Method for writing log to disk until given record. Threads which wait
+	 * for the same write are served with one write (group commit).
+	 * 
+	 * @param record
+	 *            number of record which has to be on disk
+	 * @throws IOException
+	 *             if log can't be written to disk
+	 */
+	private void sync(long record) throws IOException {
+		if (syncedRecords >= record)
+			return;
+		synchronized (syncLock) {
+			if (syncedRecords >= record || closed)
+				return;
+			// every record appended until now is written with this thread's write
+			long target = writtenRecords;
+			channel.force(false);
+			syncedRecords = target;
+		}
+	}
+
+	/**
+	 * Method for closing current segment and starting new one. It is called
+	 * while lock of this log is held.
+	 * 
+	 * @throws IOException
+	 *             if segment can't be closed or new segment can't be made
+	 */
+	private void roll() throws IOException {
+		synchronized (syncLock) {
+			channel.force(false);
+			syncedRecords = writtenRecords;
+			channel.close();
+			openSegment(segmentNumber + 1);
+		}
+	}
+
+	/**
+	 * Method for starting new segment.
+	 * 
+	 * @param number
+	 *            number of segment
+	 * @throws IOException
+	 *             if segment can't be made
+	 */
+	private void openSegment(long number) throws IOException {
+		channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		segmentNumber = number;
+		segmentBytes = 0;
+	}
+
+	/**
+	 * Method for making record in buffer. Returned buffer is ready for
+	 * writing.
+	 * 
+	 * @param buffer
+	 *            buffer which is used if record fits into it
+	 * @param crc
+	 *            checksum which is used for record
+	 * @param operation
+	 *            record operation
+	 * @param list
+	 *            message list
+	 * @param message
+	 *            message
+	 * @return buffer with record
+	 */
+	private static ByteBuffer encode(ByteBuffer buffer, CRC32 crc, byte operation, MessageList list,
+			Message message) {
+		int length = 2 + (operation == OP_ADD ? MessageCodec.recordLength(message)
+				: MessageCodec.stringLength(message.getMessageID()) + MessageCodec.stringLength(message.getSrcID()));
+		if (buffer.capacity() < RECORD_HEADER + length) {
+			int capacity = Integer.highestOneBit(RECORD_HEADER + length) << 1;
+			buffer = buffer.isDirect() ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		}
+		buffer.clear();
+		buffer.position(RECORD_HEADER);
+		buffer.put(operation);
+		buffer.put((byte) list.ordinal());
+		if (operation == OP_ADD) {
+			MessageCodec.encodeRecord(message, buffer);
+		} else {
+			MessageCodec.putString(buffer, message.getMessageID());
+			MessageCodec.putString(buffer, message.getSrcID());
+		}
+		buffer.flip();
+		buffer.position(RECORD_HEADER);
+		crc.reset();
+		crc.update(buffer);
+		buffer.position(0);
+		buffer.putInt(0, length);
+		buffer.putInt(4, (int) crc.getValue());
+		return buffer;
+	}
+
+	/**
+	 * Method for replaying records of one segment into maps of stored
+	 * messages.
+	 * 
+	 * @param segment
+	 *            segment file
+	 * @param messages
+	 *            stored messages of every list mapped by message key
+	 * @throws IOException
+	 *             if segment can't be read
+	 */
+	private static void replay(Path segment, Map<MessageList, Map<MessageKey, Message>> messages) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+			buffer = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+		}
+		CRC32 crc = new CRC32();
+		MessageList[] lists = MessageList.values();
+		while (buffer.remaining() >= RECORD_HEADER) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			int expected = buffer.getInt();
+			if (length < 2 || length > buffer.remaining()) {
+				printBrokenRecord(segment, start);
+				return;
+			}
+			ByteBuffer record = buffer.slice();
+			record.limit(length);
+			crc.reset();
+			crc.update(record);
+			record.rewind();
+			buffer.position(buffer.position() + length);
+			byte operation = record.get();
+			int list = record.get();
+			if ((int) crc.getValue() != expected || list < 0 || list >= lists.length) {
+				printBrokenRecord(segment, start);
+				return;
+			}
+			try {
+				Map<MessageKey, Message> listMessages = messages.get(lists[list]);
+				if (operation == OP_ADD) {
+					Message message = MessageCodec.decodeRecord(record);
+					listMessages.put(MessageKey.of(message), message);
+				} else {
+					String msgID = MessageCodec.getString(record);
+					listMessages.remove(MessageKey.of(msgID, MessageCodec.getString(record)));
+				}
+			} catch (IllegalArgumentException e) {
+				printBrokenRecord(segment, start);
+				return;
+			}
+		}
+		if (buffer.hasRemaining())
+			printBrokenRecord(segment, buffer.position());
+	}
+
+	/**
+	 * Method for informing that rest of segment is ignored.
+	 * 
+	 * @param segment
+	 *            segment file
+	 * @param position
+	 *            position of broken record
+	 */
+	private static void printBrokenRecord(Path segment, int position) {
+		LOG.warn("Ignoring " + segment.getFileName() + " from byte " + position);
+	}
+
+	/**
+	 * Method for getting all segments sorted by their numbers.
+	 * 
+	 * @return segment files mapped by segment number
+	 * @throws IOException
+	 *             if directory can't be read
+	 */
+	private Map<Long, Path> listSegments() throws IOException {
+		Map<Long, Path> segments = new TreeMap<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory,
+				SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				String name = path.getFileName().toString();
+				try {
+					segments.put(Long.parseLong(
+							name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), path);
+				} catch (NumberFormatException e) {
+					LOG.warn("Ignoring " + name);
+				}
+			}
+		}
+		return segments;
+	}
+
+	/**
+	 * Method for getting file of segment with given number.
+	 * 
+	 * @param number
+	 *            number of segment
+	 * @return segment file
+	 */
+	private Path segmentPath(long number) {
+		return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Message lists whose messages are recorded in log.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	public enum MessageList {
+		/** Messages from clients which are sent to simulator. */
+		CLIENT,
+		/** Messages from simulator which are waiting for clients. */
+		SIMULATOR
+	}
+
+	/**
+	 * When appended records are written to disk.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	public enum SyncPolicy {
+		/** Every record is written to disk as soon as it is appended. */
+		PER_MESSAGE,
+		/**
+		 * Stored message waits until it is written to disk, but all waiting
+		 * messages are written together.
+		 */
+		GROUP_COMMIT,
+		/** Records are written to disk periodically and nobody waits. */
+		INTERVAL
+	}
+}
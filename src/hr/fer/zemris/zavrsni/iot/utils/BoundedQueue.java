@@ -0,0 +1,109 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded queue in which producers can wait for free space and consumer can
+ * wait for element.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ * 
+ * @param <E>
+ *            type of queue elements
+ */
+public interface BoundedQueue<E> {
+
+	/**
+	 * Method for adding element if there is free space.
+	 * 
+	 * @param element
+	 *            element which will be added
+	 * @return true if element is added, false if queue is full
+	 */
+	boolean offer(E element);
+
+	/**
+	 * Method for adding element. If queue is full, method waits until there
+	 * is free space.
+	 * 
+	 * @param element
+	 *            element which will be added
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	void put(E element) throws InterruptedException;
+
+	/**
+	 * Method for 'poping' (get and remove) first element.
+	 * 
+	 * @return element or null if queue is empty
+	 */
+	E poll();
+
+	/**
+	 * Method for 'poping' first element. If queue is empty, method waits until
+	 * some element is added.
+	 * 
+	 * @return element
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	E take() throws InterruptedException;
+
+	/**
+	 * Method for 'poping' first element. If queue is empty, method waits until
+	 * some element is added, but not longer than given time.
+	 * 
+	 * @param timeout
+	 *            maximal time of waiting
+	 * @param unit
+	 *            unit of timeout
+	 * @return element or null if time passed and queue is still empty
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	E poll(long timeout, TimeUnit unit) throws InterruptedException;
+
+	/**
+	 * Method for 'poping' all available elements, but not more than given
+	 * number, into given collection.
+	 * 
+	 * @param collection
+	 *            collection to which elements are added
+	 * @param maxElements
+	 *            maximal number of elements
+	 * @return number of added elements
+	 */
+	int drainTo(Collection<? super E> collection, int maxElements);
+
+	/**
+	 * Method for getting copy of elements which are currently in the queue.
+	 * 
+	 * @return list of elements in queue order
+	 */
+	List<E> snapshot();
+
+	/**
+	 * Method for getting number of elements in queue.
+	 * 
+	 * @return number of elements
+	 */
+	int size();
+
+	/**
+	 * Method for checking if queue is empty.
+	 * 
+	 * @return true if queue is empty, otherwise false
+	 */
+	boolean isEmpty();
+
+	/**
+	 * Method for getting capacity of the queue.
+	 * 
+	 * @return capacity
+	 */
+	int capacity();
+}
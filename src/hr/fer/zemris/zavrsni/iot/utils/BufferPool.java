@@ -0,0 +1,66 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of direct byte buffers with the same capacity. Buffers are reused, so
+ * receiving packets doesn't allocate new memory for every packet. If pool is
+ * empty, new buffer is made and if pool is full, returned buffer is left to
+ * garbage collector.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class BufferPool {
+
+	/** Free buffers. */
+	private final RingBufferQueue<ByteBuffer> buffers;
+	/** Capacity of every buffer. */
+	private final int bufferSize;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param bufferSize
+	 *            capacity of every buffer in bytes
+	 * @param maxBuffers
+	 *            maximal number of free buffers kept in pool
+	 */
+	public BufferPool(int bufferSize, int maxBuffers) {
+		this.bufferSize = bufferSize;
+		this.buffers = new RingBufferQueue<>(maxBuffers);
+	}
+
+	/**
+	 * Method for getting cleared buffer from pool.
+	 * 
+	 * @return buffer
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer buffer = buffers.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Method for returning buffer to pool.
+	 * 
+	 * @param buffer
+	 *            buffer which is not used anymore
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer.capacity() == bufferSize)
+			buffers.offer(buffer);
+	}
+
+	/**
+	 * Method for getting capacity of buffers in pool.
+	 * 
+	 * @return capacity in bytes
+	 */
+	public int getBufferSize() {
+		return bufferSize;
+	}
+}
@@ -0,0 +1,115 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+/**
+ * Class contains methods for reading optional server settings. Settings are
+ * given as system properties (for example {@code -Diot.client.queue.capacity=1024})
+ * and if some setting is missing or it is not valid, given default value is
+ * used.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class Configuration {
+
+	/** Private constructor for stoping instantiation. */
+	private Configuration() {
+	}
+
+	/**
+	 * Method for getting string setting.
+	 * 
+	 * @param key
+	 *            name of the setting
+	 * @param defaultValue
+	 *            value which is used if setting is not given
+	 * @return value of the setting
+	 */
+	public static String getString(String key, String defaultValue) {
+		String value = System.getProperty(key);
+		if (value == null || value.trim().isEmpty())
+			return defaultValue;
+		return value.trim();
+	}
+
+	/**
+	 * Method for getting integer setting.
+	 * 
+	 * @param key
+	 *            name of the setting
+	 * @param defaultValue
+	 *            value which is used if setting is not given or it is invalid
+	 * @return value of the setting
+	 */
+	public static int getInt(String key, int defaultValue) {
+		String value = getString(key, null);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid value of setting " + key + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Method for getting long setting.
+	 * 
+	 * @param key
+	 *            name of the setting
+	 * @param defaultValue
+	 *            value which is used if setting is not given or it is invalid
+	 * @return value of the setting
+	 */
+	public static long getLong(String key, long defaultValue) {
+		String value = getString(key, null);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			System.err.println("Invalid value of setting " + key + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Method for getting boolean setting.
+	 * 
+	 * @param key
+	 *            name of the setting
+	 * @param defaultValue
+	 *            value which is used if setting is not given
+	 * @return value of the setting
+	 */
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		String value = getString(key, null);
+		if (value == null)
+			return defaultValue;
+		return Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Method for getting setting which is one of enum constants. Name of the
+	 * constant is case insensitive.
+	 * 
+	 * @param key
+	 *            name of the setting
+	 * @param type
+	 *            enum class
+	 * @param defaultValue
+	 *            value which is used if setting is not given or it is invalid
+	 * @return value of the setting
+	 */
+	public static <E extends Enum<E>> E getEnum(String key, Class<E> type, E defaultValue) {
+		String value = getString(key, null);
+		if (value == null)
+			return defaultValue;
+		for (E constant : type.getEnumConstants()) {
+			if (constant.name().equalsIgnoreCase(value.replace('-', '_')))
+				return constant;
+		}
+		System.err.println("Invalid value of setting " + key + ": " + value);
+		return defaultValue;
+	}
+}
@@ -0,0 +1,143 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Index of recently seen messages which is used for suppressing duplicates.
+ * Message is identified by its {@link MessageKey} (message ID and source thing
+ * ID), so checking is done with one hash lookup and no strings are made.
+ * Entries are kept only for given time window and there can't be more entries
+ * than given maximum; oldest entries are evicted first.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class DeduplicationIndex {
+
+	/** Seen message keys mapped to time when they were seen. */
+	private final ConcurrentMap<MessageKey, Long> seen = new ConcurrentHashMap<>();
+	/** Seen entries in order in which they were added. */
+	private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+	/** Number of entries in order queue. */
+	private final AtomicInteger size = new AtomicInteger();
+	/** How long entry is kept in nanoseconds. */
+	private final long windowNanos;
+	/** Maximal number of entries. */
+	private final int maxEntries;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param windowMillis
+	 *            how long message is remembered in milliseconds
+	 * @param maxEntries
+	 *            maximal number of remembered messages
+	 */
+	public DeduplicationIndex(long windowMillis, int maxEntries) {
+		if (windowMillis <= 0 || maxEntries <= 0)
+			throw new IllegalArgumentException("Window and number of entries must be positive");
+		this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Method for remembering given message. If the same message (same message
+	 * ID and source ID) was already seen inside time window, method returns
+	 * false. Message without message ID can't be told apart from other
+	 * messages of its source, so it is never a duplicate and it isn't
+	 * remembered.
+	 * 
+	 * @param message
+	 *            message which is checked
+	 * @return true if message is not a duplicate, otherwise false
+	 */
+	public boolean add(Message message) {
+		if (!message.hasMessageID())
+			return true;
+		long now = System.nanoTime();
+		evict(now);
+		MessageKey key = MessageKey.of(message);
+		Long time = seen.get(key);
+		if (time != null && now - time < windowNanos)
+			return false;
+		Long newTime = Long.valueOf(now);
+		if (time == null ? seen.putIfAbsent(key, newTime) != null : !seen.replace(key, time, newTime))
+			return false;
+		order.add(new Entry(key, newTime));
+		size.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Method for forgetting given message, so the same message can be added
+	 * again.
+	 * 
+	 * @param message
+	 *            message which will be forgotten
+	 */
+	public void remove(Message message) {
+		if (message.hasMessageID())
+			seen.remove(MessageKey.of(message));
+	}
+
+	/**
+	 * Method for getting number of remembered messages.
+	 * 
+	 * @return number of messages
+	 */
+	public int size() {
+		return seen.size();
+	}
+
+	/**
+	 * Method for removing entries which are older than time window and
+	 * entries above maximal number.
+	 * 
+	 * @param now
+	 *            current time in nanoseconds
+	 */
+	private void evict(long now) {
+		while (true) {
+			Entry head = order.peek();
+			if (head == null)
+				return;
+			if (size.get() < maxEntries && now - head.time < windowNanos)
+				return;
+			if (order.remove(head)) {
+				size.decrementAndGet();
+				seen.remove(head.key, head.time);
+			}
+		}
+	}
+
+	/**
+	 * Entry in order of seen messages.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class Entry {
+		/** Message key. */
+		private final MessageKey key;
+		/** Time when message was seen. */
+		private final Long time;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param key
+		 *            message key
+		 * @param time
+		 *            time when message was seen
+		 */
+		Entry(MessageKey key, Long time) {
+			this.key = key;
+			this.time = time;
+		}
+	}
+}
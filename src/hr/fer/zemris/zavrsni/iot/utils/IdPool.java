@@ -0,0 +1,63 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+/**
+ * Pool of thing IDs. The same thing sends and gets many messages, so messages
+ * share one string of its ID instead of keeping their own copies. Pool is a
+ * table with number of places given with {@code iot.id.pool.size} setting
+ * (rounded up to power of two) and every ID has one place, chosen by its hash
+ * code. New ID replaces ID which was in its place, so pool never grows, and
+ * IDs of things which are active are shared again as soon as they come back
+ * in their place. Two active things whose IDs have the same place only share
+ * their IDs less often. Strings are never changed, so table is read and
+ * written without locks.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class IdPool {
+
+	/** Default maximal number of IDs in pool. */
+	private static final int DEFAULT_SIZE = 65536;
+	/** Maximal number of places in pool. */
+	private static final int MAX_PLACES = 1 << 30;
+	/** IDs in pool by their places. */
+	private static final String[] IDS = new String[places(Configuration.getInt("iot.id.pool.size", DEFAULT_SIZE))];
+
+	/** Private constructor for stoping instantiation. */
+	private IdPool() {
+	}
+
+	/**
+	 * Method for getting shared string of given ID.
+	 * 
+	 * @param id
+	 *            ID
+	 * @return string from pool or given ID if it wasn't in pool
+	 */
+	public static String intern(String id) {
+		if (id == null)
+			return null;
+		int hash = id.hashCode();
+		int place = (hash ^ (hash >>> 16)) & (IDS.length - 1);
+		String shared = IDS[place];
+		if (id.equals(shared))
+			return shared;
+		IDS[place] = id;
+		return id;
+	}
+
+	/**
+	 * Method for getting number of places of pool.
+	 * 
+	 * @param size
+	 *            wanted number of places
+	 * @return the smallest power of two which is not smaller than given size
+	 */
+	private static int places(int size) {
+		if (size <= 1)
+			return 1;
+		if (size >= MAX_PLACES)
+			return MAX_PLACES;
+		return Integer.highestOneBit(size - 1) << 1;
+	}
+}
@@ -0,0 +1,338 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class contains methods for reading top-level fields of JSON object directly
+ * from its UTF-8 bytes, without parsing whole object. Scanning goes from the
+ * start of the object and stops at the field which is looked for; values of
+ * other fields are only skipped (nested objects and arrays by counting
+ * brackets). Checking fields doesn't make any objects, unless field name or
+ * value has escaped characters. Data which is not valid JSON object is treated
+ * as if it doesn't have the field, so methods never throw exception because of
+ * data.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class JsonScanner {
+
+	/** Private constructor for stoping instantiation. */
+	private JsonScanner() {
+	}
+
+	/**
+	 * Method for finding value of top-level field.
+	 * 
+	 * @param json
+	 *            JSON object encoded as UTF-8
+	 * @param key
+	 *            name of the field
+	 * @return index of the first byte of value or -1 if there is no such field
+	 */
+	public static int findValue(byte[] json, String key) {
+		int i = skipWhitespace(json, 0);
+		if (i >= json.length || json[i] != '{')
+			return -1;
+		i = skipWhitespace(json, i + 1);
+		while (i < json.length && json[i] == '"') {
+			int keyEnd = skipString(json, i);
+			if (keyEnd < 0)
+				return -1;
+			boolean found = stringEquals(json, i, keyEnd, key);
+			i = skipWhitespace(json, keyEnd);
+			if (i >= json.length || json[i] != ':')
+				return -1;
+			i = skipWhitespace(json, i + 1);
+			if (i >= json.length)
+				return -1;
+			if (found)
+				return i;
+			i = skipValue(json, i);
+			if (i < 0)
+				return -1;
+			i = skipWhitespace(json, i);
+			if (i >= json.length || json[i] != ',')
+				return -1;
+			i = skipWhitespace(json, i + 1);
+		}
+		return -1;
+	}
+
+	/**
+	 * Method for checking if JSON object has given top-level field.
+	 * 
+	 * @param json
+	 *            JSON object encoded as UTF-8
+	 * @param key
+	 *            name of the field
+	 * @return true if object has the field, otherwise false
+	 */
+	public static boolean hasField(byte[] json, String key) {
+		return findValue(json, key) >= 0;
+	}
+
+	/**
+	 * Method for reading string value of top-level field.
+	 * 
+	 * @param json
+	 *            JSON object encoded as UTF-8
+	 * @param key
+	 *            name of the field
+	 * @return value or null if there is no such field or its value is not a
+	 *         string
+	 */
+	public static String getString(byte[] json, String key) {
+		int start = findValue(json, key);
+		if (start < 0 || json[start] != '"')
+			return null;
+		int end = skipString(json, start);
+		return end < 0 ? null : decodeString(json, start, end);
+	}
+
+	/**
+	 * Method for reading value of top-level field as JSON text, for example
+	 * number, literal, object or array.
+	 * 
+	 * @param json
+	 *            JSON object encoded as UTF-8
+	 * @param key
+	 *            name of the field
+	 * @return value as it is written in JSON or null if there is no such field
+	 */
+	public static String getRawValue(byte[] json, String key) {
+		int start = findValue(json, key);
+		if (start < 0)
+			return null;
+		int end = skipValue(json, start);
+		return end < 0 ? null : new String(json, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Method for checking if top-level field has given string value.
+	 * 
+	 * @param json
+	 *            JSON object encoded as UTF-8
+	 * @param key
+	 *            name of the field
+	 * @param value
+	 *            expected value
+	 * @return true if field is a string equal to given value, otherwise false
+	 */
+	public static boolean fieldEquals(byte[] json, String key, String value) {
+		int start = findValue(json, key);
+		if (start < 0 || json[start] != '"')
+			return false;
+		int end = skipString(json, start);
+		return end >= 0 && stringEquals(json, start, end, value);
+	}
+
+	/**
+	 * Method for checking if top-level field is an array which has given
+	 * string element, for example {@code "SENSOR":["GPS"]}.
+	 * 
+	 * @param json
+	 *            JSON object encoded as UTF-8
+	 * @param key
+	 *            name of the field
+	 * @param value
+	 *            expected element
+	 * @return true if array has the element, otherwise false
+	 */
+	public static boolean arrayContains(byte[] json, String key, String value) {
+		int i = findValue(json, key);
+		if (i < 0 || json[i] != '[')
+			return false;
+		i = skipWhitespace(json, i + 1);
+		while (i < json.length && json[i] != ']') {
+			int end = skipValue(json, i);
+			if (end < 0)
+				return false;
+			if (json[i] == '"' && stringEquals(json, i, end, value))
+				return true;
+			i = skipWhitespace(json, end);
+			if (i >= json.length || json[i] != ',')
+				return false;
+			i = skipWhitespace(json, i + 1);
+		}
+		return false;
+	}
+
+	/**
+	 * Method for skipping whitespace.
+	 * 
+	 * @param json
+	 *            JSON encoded as UTF-8
+	 * @param i
+	 *            index from which whitespace is skipped
+	 * @return index of the first byte which is not whitespace
+	 */
+	private static int skipWhitespace(byte[] json, int i) {
+		while (i < json.length && (json[i] == ' ' || json[i] == '\t' || json[i] == '\n' || json[i] == '\r'))
+			i++;
+		return i;
+	}
+
+	/**
+	 * Method for skipping string.
+	 * 
+	 * @param json
+	 *            JSON encoded as UTF-8
+	 * @param start
+	 *            index of opening quote
+	 * @return index after closing quote or -1 if string is not closed
+	 */
+	private static int skipString(byte[] json, int start) {
+		for (int i = start + 1; i < json.length; ++i) {
+			if (json[i] == '\\')
+				i++;
+			else if (json[i] == '"')
+				return i + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Method for skipping value of any type.
+	 * 
+	 * @param json
+	 *            JSON encoded as UTF-8
+	 * @param start
+	 *            index of the first byte of value
+	 * @return index after value or -1 if value is not valid
+	 */
+	private static int skipValue(byte[] json, int start) {
+		if (start >= json.length)
+			return -1;
+		byte first = json[start];
+		if (first == '"')
+			return skipString(json, start);
+		if (first == '{' || first == '[') {
+			int depth = 0;
+			for (int i = start; i < json.length; ++i) {
+				byte b = json[i];
+				if (b == '"') {
+					i = skipString(json, i);
+					if (i < 0)
+						return -1;
+					i--;
+				} else if (b == '{' || b == '[') {
+					depth++;
+				} else if ((b == '}' || b == ']') && --depth == 0) {
+					return i + 1;
+				}
+			}
+			return -1;
+		}
+		int i = start;
+		while (i < json.length && json[i] != ',' && json[i] != '}' && json[i] != ']' && json[i] != ' '
+				&& json[i] != '\t' && json[i] != '\n' && json[i] != '\r')
+			i++;
+		return i == start ? -1 : i;
+	}
+
+	/**
+	 * Method for comparing JSON string with text. String without escaped
+	 * characters is compared byte by byte, without decoding it.
+	 * 
+	 * @param json
+	 *            JSON encoded as UTF-8
+	 * @param start
+	 *            index of opening quote
+	 * @param end
+	 *            index after closing quote
+	 * @param text
+	 *            text
+	 * @return true if string is equal to text, otherwise false
+	 */
+	private static boolean stringEquals(byte[] json, int start, int end, String text) {
+		int i = start + 1;
+		int last = end - 1;
+		for (int j = 0, len = text.length(); j < len; ++j) {
+			char c = text.charAt(j);
+			if (i < last && json[i] == '\\')
+				return decodeString(json, start, end).equals(text);
+			if (c < 0x80) {
+				if (i >= last || json[i] != c)
+					return false;
+				i++;
+				continue;
+			}
+			int code = c;
+			if (Character.isHighSurrogate(c) && j + 1 < len && Character.isLowSurrogate(text.charAt(j + 1)))
+				code = Character.toCodePoint(c, text.charAt(++j));
+			int bytes = code < 0x800 ? 2 : code < 0x10000 ? 3 : 4;
+			if (last - i < bytes)
+				return false;
+			int shift = 6 * (bytes - 1);
+			int lead = bytes == 2 ? 0xC0 : bytes == 3 ? 0xE0 : 0xF0;
+			if ((json[i++] & 0xFF) != (lead | code >> shift))
+				return false;
+			for (shift -= 6; shift >= 0; shift -= 6) {
+				if ((json[i++] & 0xFF) != (0x80 | (code >> shift & 0x3F)))
+					return false;
+			}
+		}
+		if (i < last && json[i] == '\\')
+			return decodeString(json, start, end).equals(text);
+		return i == last;
+	}
+
+	/**
+	 * Method for decoding JSON string with escaped characters.
+	 * 
+	 * @param json
+	 *            JSON encoded as UTF-8
+	 * @param start
+	 *            index of opening quote
+	 * @param end
+	 *            index after closing quote
+	 * @return decoded string
+	 */
+	private static String decodeString(byte[] json, int start, int end) {
+		String raw = new String(json, start + 1, end - start - 2, StandardCharsets.UTF_8);
+		if (raw.indexOf('\\') < 0)
+			return raw;
+		StringBuilder sb = new StringBuilder(raw.length());
+		for (int i = 0, len = raw.length(); i < len; ++i) {
+			char c = raw.charAt(i);
+			if (c != '\\' || i + 1 == len) {
+				sb.append(c);
+				continue;
+			}
+			char escaped = raw.charAt(++i);
+			switch (escaped) {
+			case 'b':
+				sb.append('\b');
+				break;
+			case 'f':
+				sb.append('\f');
+				break;
+			case 'n':
+				sb.append('\n');
+				break;
+			case 'r':
+				sb.append('\r');
+				break;
+			case 't':
+				sb.append('\t');
+				break;
+			case 'u':
+				if (i + 4 < len) {
+					try {
+						sb.append((char) Integer.parseInt(raw.substring(i + 1, i + 5), 16));
+						i += 4;
+						break;
+					} catch (NumberFormatException e) {
+						// not valid escape, kept as it is
+					}
+				}
+				sb.append('\\').append(escaped);
+				break;
+			default:
+				sb.append(escaped);
+			}
+		}
+		return sb.toString();
+	}
+}
@@ -1,30 +1,52 @@
 package hr.fer.zemris.zavrsni.iot.utils;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
 
 /**
  * Class which represents message. There are messages from client and from
  * simulator and they both have the same format. Every message has its own id,
  * source thing id, destination thing id and previous message id (if this id is
- * 0, it means there is no previous message).
+ * 0, it means there is no previous message). Messages keep JSON data as UTF-8
+ * bytes and make string only when it is needed. Message and previous message
+ * IDs are packed into numbers with {@link PackedId} and thing IDs are shared
+ * through {@link IdPool}, so millions of stored messages take less memory.
+ * Message can't be changed after it is made (except its enqueue time), so its
+ * hash code is computed only once.
  * 
  * @author Nikola Presečki
  * @version 1.0
- *
+ * 
  */
 public class Message {
-	/** Message ID. */
-	private String messageID;
-	/** Previous message ID . */
-	private String previousMessageID;
+	/** Approximate number of bytes of message object and its JSON array. */
+	private static final int SIZE_OVERHEAD = 96;
+	/** JSON data of message without data. */
+	private static final byte[] NO_DATA = new byte[0];
+	/** Message ID packed with {@link PackedId}, 0 if message has no ID. */
+	private final long messageKey;
+	/** Message ID which can't be packed, null if ID is packed. */
+	private final String messageIDText;
+	/** Previous message ID packed with {@link PackedId}. */
+	private final long previousKey;
+	/** Previous message ID which can't be packed, null if ID is packed. */
+	private final String previousText;
 	/** Source thing ID. */
-	private String srcID;
+	private final String srcID;
 	/** Destination thing ID. */
-	private String destID;
-	/** Unparsed JSON data. */
-	private String jsonData;
+	private final String destID;
+	/** Unparsed JSON data encoded as UTF-8, null if there is no data. */
+	private final byte[] jsonBytes;
+	/** Number of characters of JSON data, -1 until it is counted. */
+	private int jsonChars = -1;
 	/** Encryption 0 - NONE, 1 - FULL ... */
-	private int encryption;
+	private final int encryption;
+	/** Hash code, 0 until it is computed. */
+	private int hash;
+	/** Time when message was stored in message list, as {@link System#nanoTime()}. */
+	private volatile long enqueueTime;
 
 	/**
 	 * Constructor.
@@ -44,15 +66,51 @@ public class Message {
 	 */
 	public Message(String messageID, String srcID, String destID, String jsonDATA, String previousMessageID,
 			int encryption) {
-		super();
-		this.messageID = messageID;
-		this.srcID = srcID;
-		this.destID = destID;
-		this.jsonData = jsonDATA;
-		if(previousMessageID != null)
-			this.previousMessageID = previousMessageID;
-		else
-			this.previousMessageID = "00000000";
+		this(messageID, srcID, destID, jsonDATA == null ? null : jsonDATA.getBytes(StandardCharsets.UTF_8),
+				previousMessageID, encryption);
+	}
+
+	/**
+	 * Constructor for decoded messages whose JSON data is still encoded. IDs
+	 * of 8 ASCII characters are packed into numbers and thing IDs are taken
+	 * from {@link IdPool}, so many stored messages don't keep many copies of
+	 * the same strings.
+	 * 
+	 * @param messageID
+	 *            Message ID as 64 bit number
+	 * @param srcID
+	 *            Source thing ID
+	 * @param destID
+	 *            Destination thing ID
+	 * @param jsonBytes
+	 *            Unparsed JSON data encoded as UTF-8.
+	 * @param previousMessageID
+	 *            id of previous message (if exists, otherwise 0)
+	 * @param encryption
+	 *            Encryption 0 - NONE, 1 - FULL ...
+	 */
+	Message(String messageID, String srcID, String destID, byte[] jsonBytes, String previousMessageID,
+			int encryption) {
+		if (previousMessageID == null)
+			previousMessageID = "00000000";
+		// packed number 0 means that there is no message ID
+		if (PackedId.canPack(messageID) && PackedId.pack(messageID) != 0) {
+			this.messageKey = PackedId.pack(messageID);
+			this.messageIDText = null;
+		} else {
+			this.messageKey = 0;
+			this.messageIDText = messageID;
+		}
+		if (PackedId.canPack(previousMessageID)) {
+			this.previousKey = PackedId.pack(previousMessageID);
+			this.previousText = null;
+		} else {
+			this.previousKey = 0;
+			this.previousText = previousMessageID;
+		}
+		this.srcID = IdPool.intern(srcID);
+		this.destID = IdPool.intern(destID);
+		this.jsonBytes = jsonBytes;
 		this.encryption = encryption;
 	}
 
@@ -94,6 +152,38 @@ public class Message {
 		return new Message(msgID, srcID, destID, jsonData, pMsgID, encryption);
 	}
 
+	/**
+	 * Method for parsing received simulator message directly from buffer.
+	 * Format is the same as in {@link #parseSimulatorMessage(String)} and
+	 * message is read from buffer position to its limit, encoded as UTF-8.
+	 * 
+	 * @param buffer
+	 *            buffer with properly formatted message
+	 * @return newly created message.
+	 * @throws IllegalArgumentException
+	 *             if message is too short
+	 */
+	public static Message parseSimulatorMessage(ByteBuffer buffer) {
+		return MessageCodec.decodeSimulatorMessage(buffer);
+	}
+
+	/**
+	 * Method for parsing all messages of received simulator datagram. Datagram
+	 * can have many inner frames one after another (see {@link MessageCodec})
+	 * and it is read from buffer position to its limit.
+	 * 
+	 * @param buffer
+	 *            buffer with datagram
+	 * @param messages
+	 *            collection to which parsed messages are added
+	 * @return number of parsed messages
+	 * @throws IllegalArgumentException
+	 *             if datagram is not valid
+	 */
+	public static int parseSimulatorMessages(ByteBuffer buffer, Collection<? super Message> messages) {
+		return MessageCodec.decodeSimulatorDatagram(buffer, messages);
+	}
+
 	/**
 	 * Method for parsing simulator message to client in string format. Return
 	 * format of message is: -messageID srcID destID prevMsgID JSON_DATA-.
@@ -101,7 +191,7 @@ public class Message {
 	 * @return message in described format
 	 */
 	public String makeReturnMessageForClient() {
-		return "" + encryption + messageID + srcID + destID + previousMessageID + jsonData;
+		return "" + encryption + getMessageID() + srcID + destID + getPreviousMessageID() + getJsonData();
 	}
 
 	/**
@@ -111,18 +201,9 @@ public class Message {
 	 * @return message in described format as byte array
 	 */
 	public byte[] makeReturnMessageForSimulator() {
-		String message = messageID + srcID + destID + jsonData;
-		String innerFlags = new String(new char[] { 4, 128 }); // 0000010010000000
-		if (Long.valueOf(previousMessageID) != 0) {
-			innerFlags = new String(new char[] { 12, 128 }); // 0000110010000000
-			message = messageID + srcID + destID + previousMessageID + jsonData;
-		}
-		String messageLen = String.format("%02d", message.length());
-		String innerMsg = innerFlags + messageLen + message;
-		String outerLen = String.format("%02d", innerMsg.length());
-		String outerFlags = new String(new char[] { 0, 0 }); // 0000000000000000
-		String outMsg = outerFlags + outerLen + innerMsg;
-		return outMsg.getBytes(StandardCharsets.UTF_8);
+		ByteBuffer buffer = ByteBuffer.allocate(MessageCodec.simulatorFrameLength(this));
+		MessageCodec.encodeForSimulator(this, buffer);
+		return buffer.array();
 	}
 
 	/**
@@ -131,16 +212,69 @@ public class Message {
 	 * @return previous message ID
 	 */
 	public String getPreviousMessageID() {
-		return previousMessageID;
+		return previousText != null ? previousText : PackedId.unpack(previousKey);
 	}
 
 	/**
 	 * Getter for message ID.
 	 * 
-	 * @return message ID
+	 * @return message ID or null if message has no ID
 	 */
 	public String getMessageID() {
-		return messageID;
+		if (messageIDText != null)
+			return messageIDText;
+		return messageKey == 0 ? null : PackedId.unpack(messageKey);
+	}
+
+	/**
+	 * Method for checking if message has message ID, without making string
+	 * from packed ID.
+	 * 
+	 * @return true if message has ID, otherwise false
+	 */
+	boolean hasMessageID() {
+		return messageIDText != null || messageKey != 0;
+	}
+
+	/**
+	 * Getter for packed message ID.
+	 * 
+	 * @return packed ID, meaningful only if {@link #getMessageIDText()} is
+	 *         null
+	 */
+	long getMessageKey() {
+		return messageKey;
+	}
+
+	/**
+	 * Getter for message ID which can't be packed. Message without ID is
+	 * written as message with empty ID.
+	 * 
+	 * @return message ID, empty string if message has no ID or null if ID is
+	 *         packed
+	 */
+	String getMessageIDText() {
+		if (messageIDText == null && messageKey == 0)
+			return "";
+		return messageIDText;
+	}
+
+	/**
+	 * Getter for packed previous message ID.
+	 * 
+	 * @return packed ID, meaningful only if {@link #getPreviousText()} is null
+	 */
+	long getPreviousKey() {
+		return previousKey;
+	}
+
+	/**
+	 * Getter for previous message ID which can't be packed.
+	 * 
+	 * @return previous message ID or null if ID is packed
+	 */
+	String getPreviousText() {
+		return previousText;
 	}
 
 	/**
@@ -162,12 +296,102 @@ public class Message {
 	}
 
 	/**
-	 * Getter for JSON data.
+	 * Getter for JSON data. Data is kept as UTF-8 bytes, so string is made on
+	 * every call.
 	 * 
 	 * @return JSON data
 	 */
 	public String getJsonData() {
-		return jsonData;
+		return jsonBytes == null ? null : new String(jsonBytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Method for reading string field of JSON data, for example {@code CMD},
+	 * without parsing whole JSON (see {@link JsonScanner}).
+	 * 
+	 * @param key
+	 *            name of top-level field
+	 * @return value or null if there is no such string field
+	 */
+	public String getJsonField(String key) {
+		return JsonScanner.getString(getJsonBytes(), key);
+	}
+
+	/**
+	 * Method for checking if JSON data has given top-level field.
+	 * 
+	 * @param key
+	 *            name of top-level field
+	 * @return true if there is such field, otherwise false
+	 */
+	public boolean hasJsonField(String key) {
+		return JsonScanner.hasField(getJsonBytes(), key);
+	}
+
+	/**
+	 * Method for checking if string field of JSON data has given value,
+	 * without making any objects. It can be used for routing messages by
+	 * command, for example {@code jsonFieldEquals("CMD", "GET")}.
+	 * 
+	 * @param key
+	 *            name of top-level field
+	 * @param value
+	 *            expected value
+	 * @return true if field has given value, otherwise false
+	 */
+	public boolean jsonFieldEquals(String key, String value) {
+		return JsonScanner.fieldEquals(getJsonBytes(), key, value);
+	}
+
+	/**
+	 * Method for checking if array field of JSON data has given string
+	 * element, without making any objects, for example
+	 * {@code jsonArrayContains("SENSOR", "GPS")}.
+	 * 
+	 * @param key
+	 *            name of top-level field
+	 * @param value
+	 *            expected element
+	 * @return true if array has given element, otherwise false
+	 */
+	public boolean jsonArrayContains(String key, String value) {
+		return JsonScanner.arrayContains(getJsonBytes(), key, value);
+	}
+
+	/**
+	 * Getter for JSON data encoded as UTF-8.
+	 * 
+	 * @return JSON data as bytes, empty if there is no data
+	 */
+	byte[] getJsonBytes() {
+		return jsonBytes == null ? NO_DATA : jsonBytes;
+	}
+
+	/**
+	 * Method for getting number of characters of JSON data without making
+	 * string from bytes.
+	 * 
+	 * @return number of characters
+	 */
+	int getJsonCharCount() {
+		if (jsonChars < 0)
+			jsonChars = jsonBytes == null ? 0 : Utf8.charCount(jsonBytes);
+		return jsonChars;
+	}
+
+	/**
+	 * Method for estimating number of bytes which message takes in memory.
+	 * Thing IDs are shared by messages, so they are not counted.
+	 * 
+	 * @return estimated number of bytes
+	 */
+	public int getSizeEstimate() {
+		int size = SIZE_OVERHEAD + getJsonBytes().length;
+		if (messageIDText != null)
+			size += 2 * messageIDText.length();
+		if (previousText != null)
+			size += 2 * previousText.length();
+		return size;
 	}
 
 	/**
@@ -179,21 +403,46 @@ public class Message {
 		return encryption;
 	}
 
+	/**
+	 * Getter for time when message was stored in message list.
+	 * 
+	 * @return time as returned by {@link System#nanoTime()}, 0 if message
+	 *         wasn't stored
+	 */
+	public long getEnqueueTime() {
+		return enqueueTime;
+	}
+
+	/**
+	 * Setter for time when message was stored in message list. Time is not
+	 * part of message, so it doesn't change equality of messages.
+	 * 
+	 * @param enqueueTime
+	 *            time as returned by {@link System#nanoTime()}
+	 */
+	public void setEnqueueTime(long enqueueTime) {
+		this.enqueueTime = enqueueTime;
+	}
+
 	@Override
 	public String toString() {
-		return "Message:\nmessageID=" + messageID + "\nsrcID=" + srcID + "\ndestID=" + destID + "\nprevMessageID="
-				+ previousMessageID + "\ndata:" + jsonData + "\n";
+		return "Message:\nmessageID=" + getMessageID() + "\nsrcID=" + srcID + "\ndestID=" + destID
+				+ "\nprevMessageID=" + getPreviousMessageID() + "\ndata:" + getJsonData() + "\n";
 	}
 
 	@Override
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + ((destID == null) ? 0 : destID.hashCode());
-		result = prime * result + ((jsonData == null) ? 0 : jsonData.hashCode());
-		result = prime * result + ((messageID == null) ? 0 : messageID.hashCode());
-		result = prime * result + ((previousMessageID == null) ? 0 : previousMessageID.hashCode());
-		result = prime * result + ((srcID == null) ? 0 : srcID.hashCode());
+		int result = hash;
+		if (result == 0) {
+			final int prime = 31;
+			result = 1;
+			result = prime * result + ((destID == null) ? 0 : destID.hashCode());
+			result = prime * result + Arrays.hashCode(jsonBytes);
+			result = prime * result + (messageIDText == null ? Long.hashCode(messageKey) : messageIDText.hashCode());
+			result = prime * result + (previousText == null ? Long.hashCode(previousKey) : previousText.hashCode());
+			result = prime * result + ((srcID == null) ? 0 : srcID.hashCode());
+			hash = result;
+		}
 		return result;
 	}
 
@@ -206,32 +455,31 @@ public class Message {
 		if (getClass() != obj.getClass())
 			return false;
 		Message other = (Message) obj;
-		if (destID == null) {
-			if (other.destID != null)
-				return false;
-		} else if (!destID.equals(other.destID))
+		if (messageKey != other.messageKey || previousKey != other.previousKey)
 			return false;
-		if (jsonData == null) {
-			if (other.jsonData != null)
+		if (messageIDText == null) {
+			if (other.messageIDText != null)
 				return false;
-		} else if (!jsonData.equals(other.jsonData))
+		} else if (!messageIDText.equals(other.messageIDText))
 			return false;
-		if (messageID == null) {
-			if (other.messageID != null)
+		if (previousText == null) {
+			if (other.previousText != null)
 				return false;
-		} else if (!messageID.equals(other.messageID))
+		} else if (!previousText.equals(other.previousText))
 			return false;
-		if (previousMessageID == null) {
-			if (other.previousMessageID != null)
+		if (destID == null) {
+			if (other.destID != null)
 				return false;
-		} else if (!previousMessageID.equals(other.previousMessageID))
+		} else if (!destID.equals(other.destID))
 			return false;
 		if (srcID == null) {
 			if (other.srcID != null)
 				return false;
 		} else if (!srcID.equals(other.srcID))
 			return false;
-		return true;
+		if (hash != 0 && other.hash != 0 && hash != other.hash)
+			return false;
+		return Arrays.equals(jsonBytes, other.jsonBytes);
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,365 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * Arena which keeps encoded messages outside of Java heap, so large number of
+ * stored messages doesn't make garbage collection slower. Messages are written
+ * one after another as storage records of {@link MessageCodec} into direct
+ * buffers (chunks) of the same size. Message is found by handle, which is
+ * index of chunk and position in it packed into 64 bit number.
+ * <p>
+ * Space of message is rounded up to size class (four classes between two
+ * powers of two, so at most a quarter of space is lost) and freed space is
+ * kept in list of its class and given to the next message of the same class,
+ * so message which stays long keeps only its own space and not whole chunk.
+ * Every chunk also counts its messages and when all of them are freed, its
+ * free space is taken out of lists and whole chunk is reused. Few empty
+ * chunks are kept for next messages and others are left to garbage
+ * collector, which frees their memory. Message which is larger than chunk
+ * gets its own chunk.
+ * Size of chunks is given with {@code iot.offheap.chunk.size} setting in
+ * bytes. Direct memory is limited by JVM option
+ * {@code -XX:MaxDirectMemorySize}.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class MessageArena {
+
+	/** Default size of chunk in bytes. */
+	private static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+	/** Maximal number of empty chunks which are kept. */
+	private static final int MAX_FREE_CHUNKS = 4;
+	/** Number of bytes before every record: record length and enqueue time. */
+	private static final int RECORD_HEADER = 12;
+	/** Size of the smallest size class in bytes. */
+	private static final int MIN_SLOT = 32;
+	/** Number of size classes between two powers of two. */
+	private static final int CLASSES_PER_DOUBLING = 4;
+
+	/** Size of chunk in bytes. */
+	private final int chunkSize;
+	/** Chunks by index, null for indexes which are not used. */
+	private volatile Chunk[] chunks = new Chunk[16];
+	/** Number of used indexes at the start of chunks array. */
+	private int chunkCount;
+	/** Unused indexes smaller than chunk count. */
+	private final Deque<Integer> freeIndexes = new ArrayDeque<>();
+	/** Indexes of empty chunks which are kept for reuse. */
+	private final Deque<Integer> emptyChunks = new ArrayDeque<>();
+	/** Handles of freed space by size class. */
+	private final SlotList[] freeSlots = new SlotList[CLASSES_PER_DOUBLING * Integer.SIZE];
+	/** Index of chunk to which messages are written, -1 if there is none. */
+	private int current = -1;
+	/** Number of bytes of all chunks. */
+	private volatile long allocatedBytes;
+
+	/**
+	 * Constructor for arena with configured size of chunks.
+	 */
+	public MessageArena() {
+		this(Configuration.getInt("iot.offheap.chunk.size", DEFAULT_CHUNK_SIZE));
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param chunkSize
+	 *            size of chunk in bytes
+	 */
+	public MessageArena(int chunkSize) {
+		if (chunkSize < RECORD_HEADER)
+			throw new IllegalArgumentException("Chunk size is too small: " + chunkSize);
+		this.chunkSize = chunkSize;
+	}
+
+	/**
+	 * Method for storing message. Message keeps its enqueue time.
+	 * 
+	 * @param message
+	 *            message
+	 * @return handle of stored message
+	 */
+	public long store(Message message) {
+		int length = MessageCodec.recordLength(message);
+		long handle = allocate(slotSize(RECORD_HEADER + length));
+		ByteBuffer buffer = chunks[(int) (handle >>> 32)].buffer.duplicate();
+		buffer.position((int) handle);
+		buffer.putInt(length);
+		buffer.putLong(message.getEnqueueTime());
+		MessageCodec.encodeRecord(message, buffer);
+		return handle;
+	}
+
+	/**
+	 * Method for reading stored message. Every call makes new message object.
+	 * 
+	 * @param handle
+	 *            handle of message which is not freed
+	 * @return message
+	 */
+	public Message load(long handle) {
+		ByteBuffer buffer = chunks[(int) (handle >>> 32)].buffer.duplicate();
+		buffer.position((int) handle);
+		int length = buffer.getInt();
+		long enqueueTime = buffer.getLong();
+		buffer.limit(buffer.position() + length);
+		Message message = MessageCodec.decodeRecord(buffer);
+		message.setEnqueueTime(enqueueTime);
+		return message;
+	}
+
+	/**
+	 * Method for reading enqueue time of stored message without reading the
+	 * message.
+	 * 
+	 * @param handle
+	 *            handle of message which is not freed
+	 * @return enqueue time
+	 */
+	public long getEnqueueTime(long handle) {
+		return chunks[(int) (handle >>> 32)].buffer.getLong((int) handle + 4);
+	}
+
+	/**
+	 * Method for freeing stored message. Handle can't be used after message is
+	 * freed.
+	 * 
+	 * @param handle
+	 *            handle of message
+	 */
+	public synchronized void free(long handle) {
+		int index = (int) (handle >>> 32);
+		Chunk chunk = chunks[index];
+		int size = slotSize(RECORD_HEADER + chunk.buffer.getInt((int) handle));
+		if (--chunk.messages == 0) {
+			release(index, chunk);
+			return;
+		}
+		if (size <= chunkSize) {
+			int sizeClass = sizeClass(size);
+			if (freeSlots[sizeClass] == null)
+				freeSlots[sizeClass] = new SlotList();
+			freeSlots[sizeClass].push(handle);
+		}
+	}
+
+	/**
+	 * Method for getting number of bytes which message takes in arena, with
+	 * its header and rounded up to its size class.
+	 * 
+	 * @param message
+	 *            message
+	 * @return number of bytes
+	 */
+	public int sizeOf(Message message) {
+		return slotSize(RECORD_HEADER + MessageCodec.recordLength(message));
+	}
+
+	/**
+	 * Method for getting number of bytes of direct memory taken by arena.
+	 * 
+	 * @return number of bytes
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * Method for reserving space for one record. Freed space of the same size
+	 * class is used first.
+	 * 
+	 * @param size
+	 *            number of bytes, rounded up to size class
+	 * @return handle of reserved space
+	 */
+	private synchronized long allocate(int size) {
+		if (size > chunkSize) {
+			// large record gets its own chunk, which is released when record is freed
+			int index = newChunk(size);
+			Chunk large = chunks[index];
+			large.used = size;
+			large.messages = 1;
+			return (long) index << 32;
+		}
+		SlotList free = freeSlots[sizeClass(size)];
+		if (free != null && free.count > 0) {
+			long handle = free.pop();
+			chunks[(int) (handle >>> 32)].messages++;
+			return handle;
+		}
+		Chunk chunk = current < 0 ? null : chunks[current];
+		if (chunk == null || chunk.buffer.capacity() - chunk.used < size) {
+			int previous = current;
+			current = newChunk(size);
+			if (chunk != null && chunk.messages == 0)
+				release(previous, chunk);
+			chunk = chunks[current];
+		}
+		int offset = chunk.used;
+		chunk.used += size;
+		chunk.messages++;
+		return (long) current << 32 | offset;
+	}
+
+	/**
+	 * Method for getting empty chunk with at least given number of bytes.
+	 * 
+	 * @param size
+	 *            number of bytes
+	 * @return index of chunk
+	 */
+	private int newChunk(int size) {
+		if (size <= chunkSize && !emptyChunks.isEmpty())
+			return emptyChunks.pop();
+		int index;
+		if (!freeIndexes.isEmpty()) {
+			index = freeIndexes.pop();
+		} else {
+			index = chunkCount++;
+			if (index == chunks.length)
+				chunks = Arrays.copyOf(chunks, 2 * index);
+		}
+		int capacity = Math.max(size, chunkSize);
+		chunks[index] = new Chunk(ByteBuffer.allocateDirect(capacity));
+		allocatedBytes += capacity;
+		return index;
+	}
+
+	/**
+	 * Method for reusing chunk whose messages are all freed. Its freed space
+	 * is taken out of lists first.
+	 * 
+	 * @param index
+	 *            index of chunk
+	 * @param chunk
+	 *            chunk
+	 */
+	private void release(int index, Chunk chunk) {
+		if (chunk.buffer.capacity() <= chunkSize) {
+			for (SlotList free : freeSlots) {
+				if (free != null)
+					free.removeChunk(index);
+			}
+		}
+		chunk.used = 0;
+		if (index == current)
+			return;
+		if (chunk.buffer.capacity() == chunkSize && emptyChunks.size() < MAX_FREE_CHUNKS) {
+			emptyChunks.push(index);
+			return;
+		}
+		chunks[index] = null;
+		freeIndexes.push(index);
+		allocatedBytes -= chunk.buffer.capacity();
+	}
+
+	/**
+	 * Method for rounding size of record up to its size class.
+	 * 
+	 * @param size
+	 *            number of bytes
+	 * @return number of bytes of size class
+	 */
+	private static int slotSize(int size) {
+		if (size <= MIN_SLOT)
+			return MIN_SLOT;
+		int base = Integer.highestOneBit(size - 1);
+		int step = base / CLASSES_PER_DOUBLING;
+		return base + ((size - 1 - base) / step + 1) * step;
+	}
+
+	/**
+	 * Method for getting index of size class.
+	 * 
+	 * @param slotSize
+	 *            number of bytes of size class, not larger than chunk
+	 * @return index of size class
+	 */
+	private static int sizeClass(int slotSize) {
+		if (slotSize <= MIN_SLOT)
+			return 0;
+		int base = Integer.highestOneBit(slotSize - 1);
+		int step = base / CLASSES_PER_DOUBLING;
+		return (Integer.numberOfTrailingZeros(base) - Integer.numberOfTrailingZeros(MIN_SLOT)) * CLASSES_PER_DOUBLING
+				+ (slotSize - 1 - base) / step + 1;
+	}
+
+	/**
+	 * Handles of freed space of one size class.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class SlotList {
+		/** Handles, first count of them are used. */
+		private long[] handles = new long[16];
+		/** Number of handles. */
+		private int count;
+
+		/**
+		 * Method for adding handle.
+		 * 
+		 * @param handle
+		 *            handle of freed space
+		 */
+		private void push(long handle) {
+			if (count == handles.length)
+				handles = Arrays.copyOf(handles, 2 * count);
+			handles[count++] = handle;
+		}
+
+		/**
+		 * Method for taking the last added handle. List must not be empty.
+		 * 
+		 * @return handle of freed space
+		 */
+		private long pop() {
+			return handles[--count];
+		}
+
+		/**
+		 * Method for removing all handles of given chunk.
+		 * 
+		 * @param index
+		 *            index of chunk
+		 */
+		private void removeChunk(int index) {
+			int kept = 0;
+			for (int i = 0; i < count; ++i) {
+				if ((int) (handles[i] >>> 32) != index)
+					handles[kept++] = handles[i];
+			}
+			count = kept;
+		}
+	}
+
+	/**
+	 * Direct buffer with messages.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 */
+	private static class Chunk {
+		/** Buffer with records. */
+		private final ByteBuffer buffer;
+		/** Number of used bytes. */
+		private int used;
+		/** Number of messages which are not freed. */
+		private int messages;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param buffer
+		 *            buffer with records
+		 */
+		private Chunk(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+	}
+}
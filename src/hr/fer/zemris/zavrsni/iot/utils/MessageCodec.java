@@ -0,0 +1,700 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Class contains methods for decoding and encoding messages directly from and
+ * to {@link ByteBuffer}. Header fields are read and written at their fixed
+ * places without making temporary strings, and JSON data of decoded message is
+ * kept as bytes until somebody asks for it.
+ * <p>
+ * Client message format is: -ENCRYPTION MSG_ID SRC_ID DEST_ID PREV_MSG_ID
+ * JSON_DATA-. Simulator message format is: -OUTER_FLAGS LENGTH INNER_FLAGS
+ * LENGTH MSG_ID SRC_ID DEST_ID [PREV_MSG_ID] JSON_DATA-, where flags are two
+ * characters, lengths are decimal numbers with at least two digits and length
+ * is counted in characters. Text is encoded as UTF-8.
+ * <p>
+ * One simulator datagram can have many inner frames after one outer header:
+ * -OUTER_FLAGS LENGTH (INNER_FLAGS LENGTH MSG_ID SRC_ID DEST_ID [PREV_MSG_ID]
+ * JSON_DATA)...-, where outer length is the number of characters of all inner
+ * frames. Datagram with one inner frame is the usual simulator message.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class MessageCodec {
+
+	/** Bit of the first inner flags character which is set if previous message ID is in body. */
+	private static final int PREVIOUS_FLAG = 8;
+	/** Maximal number of digits of decimal length field. */
+	private static final int MAX_DIGITS = 9;
+	/** Number of characters in every ID. */
+	private static final int ID_LENGTH = 8;
+	/** Number of characters of flags and lengths before simulator message. */
+	private static final int SIMULATOR_HEADER_LENGTH = 8;
+	/** Number of characters of flags or length field. */
+	private static final int FIELD_LENGTH = 2;
+	/** Length of string in storage record which means that string is null. */
+	private static final int NULL_LENGTH = 0xFFFF;
+	/** Outer flags, 0000000000000000. */
+	private static final byte[] OUTER_FLAGS = { 0, 0 };
+	/** Inner flags without previous message, 0000010010000000 as UTF-8. */
+	private static final byte[] INNER_FLAGS = { 4, (byte) 0xC2, (byte) 0x80 };
+	/** Inner flags with previous message, 0000110010000000 as UTF-8. */
+	private static final byte[] INNER_FLAGS_PREVIOUS = { 12, (byte) 0xC2, (byte) 0x80 };
+
+	/** Private constructor for stoping instantiation. */
+	private MessageCodec() {
+	}
+
+	/**
+	 * Method for decoding client message from buffer position to its limit.
+	 * 
+	 * @param buffer
+	 *            buffer with properly formatted message, without new line
+	 * @return decoded message
+	 * @throws IllegalArgumentException
+	 *             if message is too short
+	 */
+	public static Message decodeClientMessage(ByteBuffer buffer) {
+		if (!buffer.hasRemaining())
+			throw new IllegalArgumentException("Message is too short");
+		int encryption = buffer.get() - '0';
+		String msgID = Utf8.readChars(buffer, ID_LENGTH);
+		String srcID = Utf8.readChars(buffer, ID_LENGTH);
+		String destID = Utf8.readChars(buffer, ID_LENGTH);
+		String pMsgID = Utf8.readChars(buffer, ID_LENGTH);
+		return new Message(msgID, srcID, destID, Utf8.readRemainingBytes(buffer), pMsgID, encryption);
+	}
+
+	/**
+	 * Method for decoding simulator message from buffer position to its
+	 * limit.
+	 * 
+	 * @param buffer
+	 *            buffer with properly formatted message
+	 * @return decoded message
+	 * @throws IllegalArgumentException
+	 *             if message is too short
+	 */
+	public static Message decodeSimulatorMessage(ByteBuffer buffer) {
+		// flags + lengths --- we don't need this
+		Utf8.skipChars(buffer, SIMULATOR_HEADER_LENGTH);
+		return decodeBody(buffer, true);
+	}
+
+	/**
+	 * Method for decoding all messages of simulator datagram from buffer
+	 * position to its limit. Datagram can have many inner frames one after
+	 * another. Outer length must be the number of characters after it, and
+	 * inner lengths can have any number of digits, so every inner frame must
+	 * end exactly at the start of the next inner frame or at the end of
+	 * datagram. Datagram whose lengths don't add up is rejected as a whole.
+	 * 
+	 * @param buffer
+	 *            buffer with datagram
+	 * @param messages
+	 *            collection to which decoded messages are added
+	 * @return number of decoded messages
+	 * @throws IllegalArgumentException
+	 *             if datagram is not valid; no message is added then
+	 */
+	public static int decodeSimulatorDatagram(ByteBuffer buffer, Collection<? super Message> messages) {
+		List<Message> decoded = decodeFrames(buffer);
+		messages.addAll(decoded);
+		return decoded.size();
+	}
+
+	/**
+	 * Method for decoding all inner frames of simulator datagram.
+	 * 
+	 * @param buffer
+	 *            buffer with datagram
+	 * @return decoded messages, at least one
+	 * @throws IllegalArgumentException
+	 *             if lengths don't match content
+	 */
+	private static List<Message> decodeFrames(ByteBuffer buffer) {
+		Utf8.skipChars(buffer, OUTER_FLAGS.length);
+		int digitsStart = buffer.position();
+		int digits = 0;
+		while (digitsStart + digits < buffer.limit() && digits <= MAX_DIGITS
+				&& isDigit(buffer.get(digitsStart + digits)))
+			digits++;
+		if (digits < FIELD_LENGTH || digits > MAX_DIGITS)
+			throw new IllegalArgumentException("Invalid outer length");
+		buffer.position(digitsStart + digits);
+		if (parseDecimal(buffer, digitsStart, digits) != charsToLimit(buffer))
+			throw new IllegalArgumentException("Outer length doesn't match datagram");
+		List<Message> decoded = new ArrayList<>(1);
+		if (!decodeInnerFrames(buffer, buffer.position(), decoded, new BitSet()))
+			throw new IllegalArgumentException("Inner lengths don't match datagram");
+		buffer.position(buffer.limit());
+		return decoded;
+	}
+
+	/**
+	 * Method for decoding inner frames with decimal lengths from given
+	 * position to buffer limit. Number of digits of every length is tried
+	 * from the shortest, and it is accepted only if the rest of datagram can
+	 * also be decoded with it. Positions from which the rest can't be decoded
+	 * are remembered, so every position is tried only once.
+	 * 
+	 * @param buffer
+	 *            buffer with datagram
+	 * @param position
+	 *            position of inner flags of the first frame
+	 * @param decoded
+	 *            list to which decoded messages are added; it is unchanged if
+	 *            method returns false
+	 * @param failed
+	 *            positions, relative to buffer position, from which frames
+	 *            can't be decoded
+	 * @return true if all frames are decoded, otherwise false
+	 */
+	private static boolean decodeInnerFrames(ByteBuffer buffer, int position, List<Message> decoded,
+			BitSet failed) {
+		int limit = buffer.limit();
+		if (position == limit)
+			return !decoded.isEmpty();
+		if (failed.get(position - buffer.position()) || !isInnerFlagsAt(buffer, position))
+			return false;
+		boolean previous = (buffer.get(position) & PREVIOUS_FLAG) != 0;
+		int lengthStart = position + INNER_FLAGS.length;
+		int size = decoded.size();
+		for (int digits = FIELD_LENGTH; digits <= MAX_DIGITS && lengthStart + digits <= limit; ++digits) {
+			if (!isDigit(buffer.get(lengthStart + digits - 1)))
+				break;
+			ByteBuffer body = buffer.duplicate();
+			body.position(lengthStart + digits);
+			try {
+				Utf8.skipChars(body, parseDecimal(buffer, lengthStart, digits));
+				int end = body.position();
+				if (end != limit && !isInnerFlagsAt(buffer, end))
+					continue;
+				body.limit(end).position(lengthStart + digits);
+				decoded.add(decodeBody(body, previous));
+				if (decodeInnerFrames(buffer, end, decoded, failed))
+					return true;
+			} catch (IllegalArgumentException e) {
+				// body is too short for this length
+			}
+			decoded.subList(size, decoded.size()).clear();
+		}
+		failed.set(position - buffer.position());
+		return false;
+	}
+
+	/**
+	 * Method for decoding message body (IDs and JSON data) from buffer
+	 * position to its limit.
+	 * 
+	 * @param buffer
+	 *            buffer with body
+	 * @param previous
+	 *            true if previous message ID is part of body
+	 * @return decoded message
+	 * @throws IllegalArgumentException
+	 *             if body is too short
+	 */
+	private static Message decodeBody(ByteBuffer buffer, boolean previous) {
+		String msgID = Utf8.readChars(buffer, ID_LENGTH);
+		String srcID = Utf8.readChars(buffer, ID_LENGTH);
+		String destID = Utf8.readChars(buffer, ID_LENGTH);
+		String pMsgID = previous ? Utf8.readChars(buffer, ID_LENGTH) : null;
+		return new Message(msgID, srcID, destID, Utf8.readRemainingBytes(buffer), pMsgID, 0);
+	}
+
+	/**
+	 * Method for getting number of bytes of message encoded for simulator.
+	 * 
+	 * @param message
+	 *            message
+	 * @return number of bytes
+	 */
+	public static int simulatorFrameLength(Message message) {
+		boolean previous = hasPreviousMessage(message);
+		int bodyChars = bodyChars(message, previous);
+		int innerChars = FIELD_LENGTH + decimalLength(bodyChars) + bodyChars;
+		return OUTER_FLAGS.length + decimalLength(innerChars) + INNER_FLAGS.length + decimalLength(bodyChars)
+				+ bodyBytes(message, previous);
+	}
+
+	/**
+	 * Method for encoding message for simulator. Written bytes are the same as
+	 * {@link Message#makeReturnMessageForSimulator()} always returned.
+	 * 
+	 * @param message
+	 *            message
+	 * @param buffer
+	 *            buffer to which message is written
+	 * @throws BufferOverflowException
+	 *             if there is not enough space in buffer
+	 */
+	public static void encodeForSimulator(Message message, ByteBuffer buffer) {
+		boolean previous = hasPreviousMessage(message);
+		int bodyChars = bodyChars(message, previous);
+		int innerChars = FIELD_LENGTH + decimalLength(bodyChars) + bodyChars;
+		buffer.put(OUTER_FLAGS);
+		putDecimal(buffer, innerChars);
+		buffer.put(previous ? INNER_FLAGS_PREVIOUS : INNER_FLAGS);
+		putDecimal(buffer, bodyChars);
+		putBody(buffer, message, previous);
+	}
+
+	/**
+	 * Method for getting number of bytes of message encoded as one inner frame
+	 * of simulator datagram.
+	 * 
+	 * @param message
+	 *            message
+	 * @return number of bytes
+	 */
+	public static int simulatorInnerLength(Message message) {
+		boolean previous = hasPreviousMessage(message);
+		return INNER_FLAGS.length + decimalLength(bodyChars(message, previous)) + bodyBytes(message, previous);
+	}
+
+	/**
+	 * Method for getting maximal number of bytes of simulator datagram whose
+	 * inner frames have given number of bytes. Outer length counts characters,
+	 * which are never more than bytes, so its number of digits is not bigger
+	 * than the number of digits of given value.
+	 * 
+	 * @param innerBytes
+	 *            number of bytes of all inner frames
+	 * @return number of bytes
+	 */
+	public static int simulatorDatagramLength(int innerBytes) {
+		return OUTER_FLAGS.length + decimalLength(innerBytes) + innerBytes;
+	}
+
+	/**
+	 * Method for encoding messages for simulator as one datagram with one
+	 * outer header and inner frame of every message. Datagram with one
+	 * message is the same as the one written by
+	 * {@link #encodeForSimulator(Message, ByteBuffer)}.
+	 * 
+	 * @param messages
+	 *            messages, at least one
+	 * @param buffer
+	 *            buffer to which datagram is written
+	 * @throws BufferOverflowException
+	 *             if there is not enough space in buffer
+	 */
+	public static void encodeForSimulator(List<Message> messages, ByteBuffer buffer) {
+		int innerChars = 0;
+		for (Message message : messages) {
+			int bodyChars = bodyChars(message, hasPreviousMessage(message));
+			innerChars += FIELD_LENGTH + decimalLength(bodyChars) + bodyChars;
+		}
+		buffer.put(OUTER_FLAGS);
+		putDecimal(buffer, innerChars);
+		for (Message message : messages) {
+			boolean previous = hasPreviousMessage(message);
+			buffer.put(previous ? INNER_FLAGS_PREVIOUS : INNER_FLAGS);
+			putDecimal(buffer, bodyChars(message, previous));
+			putBody(buffer, message, previous);
+		}
+	}
+
+	/**
+	 * Method for getting number of bytes of message encoded for client,
+	 * without new line.
+	 * 
+	 * @param message
+	 *            message
+	 * @return number of bytes
+	 */
+	public static int clientFrameLength(Message message) {
+		int encryption = message.getEncryption();
+		int prefix = encryption >= 0 && encryption < 10 ? 1 : Integer.toString(encryption).length();
+		return prefix + bodyBytes(message, true);
+	}
+
+	/**
+	 * Method for encoding message for client, without new line. Written bytes
+	 * are the same as {@link Message#makeReturnMessageForClient()} encoded as
+	 * UTF-8.
+	 * 
+	 * @param message
+	 *            message
+	 * @param buffer
+	 *            buffer to which message is written
+	 * @throws BufferOverflowException
+	 *             if there is not enough space in buffer
+	 */
+	public static void encodeForClient(Message message, ByteBuffer buffer) {
+		int encryption = message.getEncryption();
+		if (encryption >= 0 && encryption < 10)
+			buffer.put((byte) ('0' + encryption));
+		else
+			Utf8.put(buffer, Integer.toString(encryption));
+		putMessageID(buffer, message);
+		Utf8.put(buffer, message.getSrcID());
+		Utf8.put(buffer, message.getDestID());
+		putPreviousMessageID(buffer, message);
+		buffer.put(message.getJsonBytes());
+	}
+
+	/**
+	 * Method for getting number of bytes of message encoded as storage record.
+	 * 
+	 * @param message
+	 *            message
+	 * @return number of bytes
+	 */
+	public static int recordLength(Message message) {
+		return 4 + stringLength(message.getMessageID()) + stringLength(message.getSrcID())
+				+ stringLength(message.getDestID()) + stringLength(message.getPreviousMessageID()) + 4
+				+ message.getJsonBytes().length;
+	}
+
+	/**
+	 * Method for encoding message as storage record. Record keeps all fields
+	 * of message as they are: -ENCRYPTION MSG_ID SRC_ID DEST_ID PREV_MSG_ID
+	 * JSON_DATA-, where encryption is 32 bit number, every ID is written by
+	 * {@link #putString(ByteBuffer, String)} and JSON data is 32 bit length in
+	 * bytes followed by UTF-8 bytes.
+	 * 
+	 * @param message
+	 *            message
+	 * @param buffer
+	 *            buffer to which record is written
+	 * @throws BufferOverflowException
+	 *             if there is not enough space in buffer
+	 */
+	public static void encodeRecord(Message message, ByteBuffer buffer) {
+		byte[] jsonBytes = message.getJsonBytes();
+		buffer.putInt(message.getEncryption());
+		putString(buffer, message.getMessageID());
+		putString(buffer, message.getSrcID());
+		putString(buffer, message.getDestID());
+		putString(buffer, message.getPreviousMessageID());
+		buffer.putInt(jsonBytes.length);
+		buffer.put(jsonBytes);
+	}
+
+	/**
+	 * Method for decoding message from storage record written by
+	 * {@link #encodeRecord(Message, ByteBuffer)}.
+	 * 
+	 * @param buffer
+	 *            buffer positioned at the start of record
+	 * @return decoded message
+	 * @throws IllegalArgumentException
+	 *             if record is not valid
+	 */
+	public static Message decodeRecord(ByteBuffer buffer) {
+		if (buffer.remaining() < 4)
+			throw new IllegalArgumentException("Record is too short");
+		int encryption = buffer.getInt();
+		String msgID = getString(buffer);
+		String srcID = getString(buffer);
+		String destID = getString(buffer);
+		String pMsgID = getString(buffer);
+		if (buffer.remaining() < 4)
+			throw new IllegalArgumentException("Record is too short");
+		int jsonLength = buffer.getInt();
+		if (jsonLength < 0 || jsonLength > buffer.remaining())
+			throw new IllegalArgumentException("Record is too short");
+		byte[] jsonBytes = new byte[jsonLength];
+		buffer.get(jsonBytes);
+		return new Message(msgID, srcID, destID, jsonBytes, pMsgID, encryption);
+	}
+
+	/**
+	 * Method for getting number of bytes of string written by
+	 * {@link #putString(ByteBuffer, String)}.
+	 * 
+	 * @param text
+	 *            text
+	 * @return number of bytes
+	 */
+	public static int stringLength(String text) {
+		return text == null ? 2 : 2 + Utf8.encodedLength(text);
+	}
+
+	/**
+	 * Method for writing string as 16 bit length in bytes followed by UTF-8
+	 * bytes. Null is written only as length {@value #NULL_LENGTH}.
+	 * 
+	 * @param buffer
+	 *            buffer to which string is written
+	 * @param text
+	 *            text, shorter than 65535 bytes when encoded, or null
+	 * @throws BufferOverflowException
+	 *             if there is not enough space in buffer
+	 */
+	public static void putString(ByteBuffer buffer, String text) {
+		if (text == null) {
+			buffer.putShort((short) NULL_LENGTH);
+			return;
+		}
+		buffer.putShort((short) Utf8.encodedLength(text));
+		Utf8.put(buffer, text);
+	}
+
+	/**
+	 * Method for reading string written by
+	 * {@link #putString(ByteBuffer, String)}.
+	 * 
+	 * @param buffer
+	 *            buffer from which string is read
+	 * @return read string, null if null was written
+	 * @throws IllegalArgumentException
+	 *             if buffer doesn't have whole string
+	 */
+	public static String getString(ByteBuffer buffer) {
+		if (buffer.remaining() < 2)
+			throw new IllegalArgumentException("Record is too short");
+		int length = buffer.getShort() & 0xFFFF;
+		return length == NULL_LENGTH ? null : Utf8.readBytes(buffer, length);
+	}
+
+	/**
+	 * Method for checking if message has previous message (previous message
+	 * ID is not all zeros).
+	 * 
+	 * @param message
+	 *            message
+	 * @return true if message has previous message, otherwise false
+	 */
+	public static boolean hasPreviousMessage(Message message) {
+		String previousMessageID = message.getPreviousText();
+		if (previousMessageID == null)
+			return message.getPreviousKey() != PackedId.ZEROS;
+		for (int i = 0, len = previousMessageID.length(); i < len; ++i) {
+			if (previousMessageID.charAt(i) != '0')
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Method for getting number of characters of message body (IDs and JSON
+	 * data).
+	 * 
+	 * @param message
+	 *            message
+	 * @param previous
+	 *            true if previous message ID is part of body
+	 * @return number of characters
+	 */
+	private static int bodyChars(Message message, boolean previous) {
+		int chars = idChars(message.getMessageIDText()) + message.getSrcID().length()
+				+ message.getDestID().length() + message.getJsonCharCount();
+		if (previous)
+			chars += idChars(message.getPreviousText());
+		return chars;
+	}
+
+	/**
+	 * Method for getting number of bytes of message body (IDs and JSON data).
+	 * 
+	 * @param message
+	 *            message
+	 * @param previous
+	 *            true if previous message ID is part of body
+	 * @return number of bytes
+	 */
+	private static int bodyBytes(Message message, boolean previous) {
+		int bytes = idBytes(message.getMessageIDText()) + Utf8.encodedLength(message.getSrcID())
+				+ Utf8.encodedLength(message.getDestID()) + message.getJsonBytes().length;
+		if (previous)
+			bytes += idBytes(message.getPreviousText());
+		return bytes;
+	}
+
+	/**
+	 * Method for writing message body (IDs and JSON data).
+	 * 
+	 * @param buffer
+	 *            buffer to which body is written
+	 * @param message
+	 *            message
+	 * @param previous
+	 *            true if previous message ID is part of body
+	 */
+	private static void putBody(ByteBuffer buffer, Message message, boolean previous) {
+		putMessageID(buffer, message);
+		Utf8.put(buffer, message.getSrcID());
+		Utf8.put(buffer, message.getDestID());
+		if (previous)
+			putPreviousMessageID(buffer, message);
+		buffer.put(message.getJsonBytes());
+	}
+
+	/**
+	 * Method for writing message ID without making string from packed ID.
+	 * 
+	 * @param buffer
+	 *            buffer to which ID is written
+	 * @param message
+	 *            message
+	 */
+	private static void putMessageID(ByteBuffer buffer, Message message) {
+		if (message.getMessageIDText() == null)
+			PackedId.put(buffer, message.getMessageKey());
+		else
+			Utf8.put(buffer, message.getMessageIDText());
+	}
+
+	/**
+	 * Method for writing previous message ID without making string from
+	 * packed ID.
+	 * 
+	 * @param buffer
+	 *            buffer to which ID is written
+	 * @param message
+	 *            message
+	 */
+	private static void putPreviousMessageID(ByteBuffer buffer, Message message) {
+		if (message.getPreviousText() == null)
+			PackedId.put(buffer, message.getPreviousKey());
+		else
+			Utf8.put(buffer, message.getPreviousText());
+	}
+
+	/**
+	 * Method for getting number of characters of ID.
+	 * 
+	 * @param text
+	 *            ID which can't be packed or null if ID is packed
+	 * @return number of characters
+	 */
+	private static int idChars(String text) {
+		return text == null ? PackedId.LENGTH : text.length();
+	}
+
+	/**
+	 * Method for getting number of bytes of ID encoded as UTF-8.
+	 * 
+	 * @param text
+	 *            ID which can't be packed or null if ID is packed
+	 * @return number of bytes
+	 */
+	private static int idBytes(String text) {
+		return text == null ? PackedId.LENGTH : Utf8.encodedLength(text);
+	}
+
+	/**
+	 * Method for checking if byte is first character of inner flags.
+	 * 
+	 * @param b
+	 *            byte
+	 * @return true if byte is inner flags with or without previous message
+	 */
+	private static boolean isInnerFlags(int b) {
+		return b == INNER_FLAGS[0] || b == INNER_FLAGS_PREVIOUS[0];
+	}
+
+	/**
+	 * Method for checking if inner flags start at given position.
+	 * 
+	 * @param buffer
+	 *            buffer with datagram
+	 * @param position
+	 *            position in buffer
+	 * @return true if all bytes of inner flags with or without previous
+	 *         message are at position
+	 */
+	private static boolean isInnerFlagsAt(ByteBuffer buffer, int position) {
+		if (position + INNER_FLAGS.length > buffer.limit() || !isInnerFlags(buffer.get(position)))
+			return false;
+		for (int i = 1; i < INNER_FLAGS.length; ++i) {
+			if (buffer.get(position + i) != INNER_FLAGS[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Method for checking if byte is decimal digit.
+	 * 
+	 * @param b
+	 *            byte
+	 * @return true if byte is digit, otherwise false
+	 */
+	private static boolean isDigit(byte b) {
+		return b >= '0' && b <= '9';
+	}
+
+	/**
+	 * Method for reading decimal number without moving buffer position.
+	 * 
+	 * @param buffer
+	 *            buffer with digits
+	 * @param start
+	 *            index of the first digit
+	 * @param digits
+	 *            number of digits, not more than {@link #MAX_DIGITS}
+	 * @return number
+	 */
+	private static int parseDecimal(ByteBuffer buffer, int start, int digits) {
+		int value = 0;
+		for (int i = start; i < start + digits; ++i)
+			value = value * 10 + buffer.get(i) - '0';
+		return value;
+	}
+
+	/**
+	 * Method for counting characters from buffer position to its limit
+	 * without moving position.
+	 * 
+	 * @param buffer
+	 *            buffer with UTF-8 text
+	 * @return number of characters
+	 */
+	private static int charsToLimit(ByteBuffer buffer) {
+		int chars = 0;
+		for (int i = buffer.position(), limit = buffer.limit(); i < limit;) {
+			int length = Utf8.sequenceLength(buffer.get(i));
+			i += length;
+			chars += length == 4 ? 2 : 1;
+		}
+		return chars;
+	}
+
+	/**
+	 * Method for getting number of digits of length field (at least two).
+	 * 
+	 * @param value
+	 *            non negative value
+	 * @return number of digits
+	 */
+	private static int decimalLength(int value) {
+		int digits = 1;
+		while (value >= 10) {
+			value /= 10;
+			++digits;
+		}
+		return Math.max(FIELD_LENGTH, digits);
+	}
+
+	/**
+	 * Method for writing length field as decimal number with at least two
+	 * digits.
+	 * 
+	 * @param buffer
+	 *            buffer to which number is written
+	 * @param value
+	 *            non negative value
+	 */
+	private static void putDecimal(ByteBuffer buffer, int value) {
+		int digits = decimalLength(value);
+		if (buffer.remaining() < digits)
+			throw new BufferOverflowException();
+		int start = buffer.position();
+		for (int i = digits - 1; i >= 0; --i) {
+			buffer.put(start + i, (byte) ('0' + value % 10));
+			value /= 10;
+		}
+		buffer.position(start + digits);
+	}
+}
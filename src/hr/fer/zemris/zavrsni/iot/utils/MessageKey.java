@@ -0,0 +1,103 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+/**
+ * Key which identifies message by its message ID and source thing ID. Key is
+ * made from fields which message already has (packed message ID and shared
+ * thing ID from {@link IdPool}), so making key, its hash code and comparing
+ * keys don't make any strings.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class MessageKey {
+
+	/** Message ID packed with {@link PackedId}, 0 if ID is not packed. */
+	private final long packedID;
+	/** Message ID which is not packed, null if ID is packed or message has no ID. */
+	private final String messageID;
+	/** Source thing ID. */
+	private final String srcID;
+	/** Hash code. */
+	private final int hash;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param packedID
+	 *            packed message ID, 0 if ID is not packed
+	 * @param messageID
+	 *            message ID which is not packed
+	 * @param srcID
+	 *            source thing ID
+	 */
+	private MessageKey(long packedID, String messageID, String srcID) {
+		this.packedID = packedID;
+		this.messageID = messageID;
+		this.srcID = srcID;
+		int result = messageID == null ? Long.hashCode(packedID) : messageID.hashCode();
+		this.hash = 31 * result + (srcID == null ? 0 : srcID.hashCode());
+	}
+
+	/**
+	 * Method for getting key of given message.
+	 * 
+	 * @param message
+	 *            message
+	 * @return key made from message ID and source ID
+	 */
+	public static MessageKey of(Message message) {
+		long packed = message.getMessageKey();
+		return new MessageKey(packed, packed == 0 ? message.getMessageID() : null, message.getSrcID());
+	}
+
+	/**
+	 * Method for getting key of message to which given message replies, made
+	 * from its previous message ID and destination ID.
+	 * 
+	 * @param reply
+	 *            message which replies
+	 * @return key of replied message
+	 */
+	public static MessageKey ofPrevious(Message reply) {
+		long packed = reply.getPreviousKey();
+		return new MessageKey(packed, packed == 0 ? reply.getPreviousMessageID() : null, reply.getDestID());
+	}
+
+	/**
+	 * Method for getting key of message with given IDs.
+	 * 
+	 * @param messageID
+	 *            message ID
+	 * @param srcID
+	 *            source thing ID
+	 * @return key made from message ID and source ID
+	 */
+	public static MessageKey of(String messageID, String srcID) {
+		long packed = PackedId.canPack(messageID) ? PackedId.pack(messageID) : 0;
+		return new MessageKey(packed, packed == 0 ? messageID : null, srcID);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof MessageKey))
+			return false;
+		MessageKey other = (MessageKey) obj;
+		if (hash != other.hash || packedID != other.packedID)
+			return false;
+		if (messageID == null ? other.messageID != null : !messageID.equals(other.messageID))
+			return false;
+		return srcID == null ? other.srcID == null : srcID.equals(other.srcID);
+	}
+
+	@Override
+	public String toString() {
+		return (messageID != null || packedID == 0 ? messageID : PackedId.unpack(packedID)) + "/" + srcID;
+	}
+}
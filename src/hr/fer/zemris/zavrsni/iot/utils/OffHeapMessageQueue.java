@@ -0,0 +1,307 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Queue of messages which are kept in {@link MessageArena}. Queue itself keeps
+ * only handles of messages in array of numbers, so garbage collector doesn't
+ * walk through stored messages. Message object is made again when it is taken
+ * from queue, so taken message is equal to added message, but it is not the
+ * same object. Queue is safe for many producers and consumers and it is
+ * guarded by one lock; messages are encoded and decoded outside of it.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public class OffHeapMessageQueue extends AbstractQueue<Message> implements BoundedQueue<Message> {
+
+	/** Initial length of array of handles. */
+	private static final int INITIAL_LENGTH = 16;
+
+	/** Arena in which messages are kept. */
+	private final MessageArena arena;
+	/** Maximal number of messages. */
+	private final int capacity;
+	/** Handles of messages in ring, array grows when it is full. */
+	private long[] handles = new long[INITIAL_LENGTH];
+	/** Index of the first handle. */
+	private int head;
+	/** Number of messages. */
+	private int count;
+	/** Lock which guards handles. */
+	private final ReentrantLock lock = new ReentrantLock();
+	/** Condition for consumers waiting for message. */
+	private final Condition notEmpty = lock.newCondition();
+	/** Condition for producers waiting for free space. */
+	private final Condition notFull = lock.newCondition();
+
+	/**
+	 * Constructor for queue without limit.
+	 * 
+	 * @param arena
+	 *            arena in which messages are kept
+	 */
+	public OffHeapMessageQueue(MessageArena arena) {
+		this(arena, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param arena
+	 *            arena in which messages are kept
+	 * @param capacity
+	 *            maximal number of messages
+	 */
+	public OffHeapMessageQueue(MessageArena arena, int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		this.arena = arena;
+		this.capacity = capacity;
+	}
+
+	@Override
+	public boolean offer(Message message) {
+		long handle = arena.store(message);
+		lock.lock();
+		try {
+			if (count == capacity) {
+				arena.free(handle);
+				return false;
+			}
+			push(handle);
+		} finally {
+			lock.unlock();
+		}
+		return true;
+	}
+
+	@Override
+	public void put(Message message) throws InterruptedException {
+		long handle = arena.store(message);
+		try {
+			lock.lockInterruptibly();
+		} catch (InterruptedException e) {
+			arena.free(handle);
+			throw e;
+		}
+		try {
+			while (count == capacity)
+				notFull.await();
+			push(handle);
+		} catch (InterruptedException e) {
+			arena.free(handle);
+			throw e;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public Message poll() {
+		long handle;
+		lock.lock();
+		try {
+			if (count == 0)
+				return null;
+			handle = pop();
+		} finally {
+			lock.unlock();
+		}
+		return loadAndFree(handle);
+	}
+
+	@Override
+	public Message take() throws InterruptedException {
+		long handle;
+		lock.lockInterruptibly();
+		try {
+			while (count == 0)
+				notEmpty.await();
+			handle = pop();
+		} finally {
+			lock.unlock();
+		}
+		return loadAndFree(handle);
+	}
+
+	@Override
+	public Message poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		long handle;
+		lock.lockInterruptibly();
+		try {
+			while (count == 0) {
+				if (nanos <= 0)
+					return null;
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			handle = pop();
+		} finally {
+			lock.unlock();
+		}
+		return loadAndFree(handle);
+	}
+
+	@Override
+	public Message peek() {
+		lock.lock();
+		try {
+			// message is read under lock, so nobody frees it meanwhile
+			return count == 0 ? null : arena.load(handles[head]);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public int drainTo(Collection<? super Message> collection, int maxElements) {
+		long[] taken;
+		lock.lock();
+		try {
+			int n = Math.min(count, maxElements);
+			taken = new long[n];
+			for (int i = 0; i < n; ++i)
+				taken[i] = pop();
+		} finally {
+			lock.unlock();
+		}
+		for (long handle : taken)
+			collection.add(loadAndFree(handle));
+		return taken.length;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		if (!(o instanceof Message))
+			return false;
+		long handle;
+		lock.lock();
+		try {
+			int i = 0;
+			while (i < count && !o.equals(arena.load(handles[index(i)])))
+				++i;
+			if (i == count)
+				return false;
+			handle = handles[index(i)];
+			// move later handles one place back
+			for (; i < count - 1; ++i)
+				handles[index(i)] = handles[index(i + 1)];
+			--count;
+			notFull.signal();
+		} finally {
+			lock.unlock();
+		}
+		arena.free(handle);
+		return true;
+	}
+
+	@Override
+	public List<Message> snapshot() {
+		lock.lock();
+		try {
+			List<Message> messages = new ArrayList<>(count);
+			for (int i = 0; i < count; ++i)
+				messages.add(arena.load(handles[index(i)]));
+			return messages;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Method for getting iterator over copy of messages, so iterator doesn't
+	 * support removing.
+	 * 
+	 * @return iterator
+	 */
+	@Override
+	public Iterator<Message> iterator() {
+		return Collections.unmodifiableList(snapshot()).iterator();
+	}
+
+	@Override
+	public int size() {
+		lock.lock();
+		try {
+			return count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	@Override
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Method for adding handle to the end of ring. Lock must be held.
+	 * 
+	 * @param handle
+	 *            handle of message
+	 */
+	private void push(long handle) {
+		if (count == handles.length) {
+			long[] grown = new long[(int) Math.min((long) handles.length * 2, Integer.MAX_VALUE - 8)];
+			for (int i = 0; i < count; ++i)
+				grown[i] = handles[index(i)];
+			handles = grown;
+			head = 0;
+		}
+		handles[index(count)] = handle;
+		++count;
+		notEmpty.signal();
+	}
+
+	/**
+	 * Method for taking handle from the start of ring. Lock must be held and
+	 * ring must not be empty.
+	 * 
+	 * @return handle of message
+	 */
+	private long pop() {
+		long handle = handles[head];
+		head = (head + 1) % handles.length;
+		--count;
+		notFull.signal();
+		return handle;
+	}
+
+	/**
+	 * Method for getting array index of handle at given place in ring.
+	 * 
+	 * @param i
+	 *            place in ring, 0 is the first handle
+	 * @return array index
+	 */
+	private int index(int i) {
+		return (head + i) % handles.length;
+	}
+
+	/**
+	 * Method for reading message and freeing its space.
+	 * 
+	 * @param handle
+	 *            handle of message
+	 * @return message
+	 */
+	private Message loadAndFree(long handle) {
+		Message message = arena.load(handle);
+		arena.free(handle);
+		return message;
+	}
+}
@@ -0,0 +1,86 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Class contains methods for keeping 8 character IDs in one 64 bit number.
+ * Every character of ID which is packed is ASCII, so it takes one byte of the
+ * number (first character is the highest byte) and the same byte when it is
+ * encoded as UTF-8. IDs which can't be packed are kept as strings.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class PackedId {
+
+	/** Number of characters of ID which can be packed. */
+	public static final int LENGTH = 8;
+	/** Packed ID "00000000" which means there is no previous message. */
+	public static final long ZEROS = pack("00000000");
+
+	/** Private constructor for stoping instantiation. */
+	private PackedId() {
+	}
+
+	/**
+	 * Method for checking if ID can be packed.
+	 * 
+	 * @param id
+	 *            ID
+	 * @return true if ID has 8 ASCII characters, otherwise false
+	 */
+	public static boolean canPack(String id) {
+		if (id == null || id.length() != LENGTH)
+			return false;
+		for (int i = 0; i < LENGTH; ++i) {
+			if (id.charAt(i) >= 0x80)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Method for packing ID into number.
+	 * 
+	 * @param id
+	 *            ID for which {@link #canPack(String)} is true
+	 * @return packed ID
+	 */
+	public static long pack(String id) {
+		long key = 0;
+		for (int i = 0; i < LENGTH; ++i)
+			key = key << 8 | id.charAt(i);
+		return key;
+	}
+
+	/**
+	 * Method for making string from packed ID.
+	 * 
+	 * @param key
+	 *            packed ID
+	 * @return ID
+	 */
+	public static String unpack(long key) {
+		char[] chars = new char[LENGTH];
+		for (int i = LENGTH - 1; i >= 0; --i) {
+			chars[i] = (char) (key & 0xFF);
+			key >>>= 8;
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Method for writing packed ID as UTF-8.
+	 * 
+	 * @param buffer
+	 *            buffer to which ID is written
+	 * @param key
+	 *            packed ID
+	 * @throws java.nio.BufferOverflowException
+	 *             if there is not enough space in buffer
+	 */
+	public static void put(ByteBuffer buffer, long key) {
+		for (int shift = 8 * (LENGTH - 1); shift >= 0; shift -= 8)
+			buffer.put((byte) (key >>> shift));
+	}
+}
@@ -0,0 +1,305 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free bounded queue backed by ring buffer. Every slot has its own
+ * sequence number, so producers and consumers only compete with compare and
+ * set on their own index and never take a lock. Queue is made for many
+ * producers and one consumer which waits in {@link #take()}, but it is also
+ * safe when producers remove elements (for example when dropping oldest
+ * element). Waiting consumer is woken up as soon as some element is added.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ * 
+ * @param <E>
+ *            type of queue elements
+ */
+public class RingBufferQueue<E> implements BoundedQueue<E> {
+
+	/** Time which blocked producer waits before checking queue again. */
+	private static final long PRODUCER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+	/** Slots of the ring buffer. */
+	private final AtomicReferenceArray<E> buffer;
+	/** Sequence numbers of the slots. */
+	private final AtomicLongArray sequences;
+	/** Mask for getting slot index from position. */
+	private final int mask;
+	/** Position on which next element will be added. */
+	private final AtomicLong tail = new AtomicLong();
+	/** Position from which next element will be taken. */
+	private final AtomicLong head = new AtomicLong();
+	/** Consumer which waits for new element. */
+	private final AtomicReference<Thread> waitingConsumer = new AtomicReference<>();
+	/** Producers which wait for free slot. */
+	private final Queue<Thread> waitingProducers = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param capacity
+	 *            minimal capacity of the queue, it is rounded up to the power
+	 *            of two
+	 */
+	public RingBufferQueue(int capacity) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity)
+			size <<= 1;
+		buffer = new AtomicReferenceArray<>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; ++i)
+			sequences.set(i, i);
+		mask = size - 1;
+	}
+
+	/**
+	 * Method for adding element if there is free slot.
+	 * 
+	 * @param element
+	 *            element which will be added
+	 * @return true if element is added, false if queue is full
+	 */
+	@Override
+	public boolean offer(E element) {
+		if (element == null)
+			throw new NullPointerException();
+		long pos = tail.get();
+		int index;
+		while (true) {
+			index = (int) pos & mask;
+			long diff = sequences.get(index) - pos;
+			if (diff == 0) {
+				if (tail.compareAndSet(pos, pos + 1))
+					break;
+				pos = tail.get();
+			} else if (diff < 0) {
+				return false;
+			} else {
+				pos = tail.get();
+			}
+		}
+		buffer.set(index, element);
+		sequences.set(index, pos + 1);
+		Thread consumer = waitingConsumer.get();
+		if (consumer != null)
+			LockSupport.unpark(consumer);
+		return true;
+	}
+
+	/**
+	 * Method for adding element. If queue is full, method waits until some
+	 * slot is freed.
+	 * 
+	 * @param element
+	 *            element which will be added
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	@Override
+	public void put(E element) throws InterruptedException {
+		if (offer(element))
+			return;
+		Thread current = Thread.currentThread();
+		try {
+			while (true) {
+				waitingProducers.add(current);
+				if (offer(element))
+					return;
+				LockSupport.parkNanos(this, PRODUCER_PARK_NANOS);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+				waitingProducers.remove(current);
+			}
+		} finally {
+			waitingProducers.remove(current);
+		}
+	}
+
+	/**
+	 * Method for 'poping' (get and remove) first element.
+	 * 
+	 * @return element or null if queue is empty
+	 */
+	@Override
+	public E poll() {
+		long pos = head.get();
+		int index;
+		while (true) {
+			index = (int) pos & mask;
+			long diff = sequences.get(index) - (pos + 1);
+			if (diff == 0) {
+				if (head.compareAndSet(pos, pos + 1))
+					break;
+				pos = head.get();
+			} else if (diff < 0) {
+				return null;
+			} else {
+				pos = head.get();
+			}
+		}
+		E element = buffer.get(index);
+		buffer.set(index, null);
+		sequences.set(index, pos + mask + 1);
+		Thread producer = waitingProducers.poll();
+		if (producer != null)
+			LockSupport.unpark(producer);
+		return element;
+	}
+
+	/**
+	 * Method for 'poping' first element. If queue is empty, method waits
+	 * until some element is added. Only one thread should wait at the same
+	 * time.
+	 * 
+	 * @return element
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	@Override
+	public E take() throws InterruptedException {
+		while (true) {
+			E element = poll();
+			if (element != null)
+				return element;
+			waitingConsumer.set(Thread.currentThread());
+			try {
+				element = poll();
+				if (element != null)
+					return element;
+				LockSupport.park(this);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+			} finally {
+				waitingConsumer.set(null);
+			}
+		}
+	}
+
+	/**
+	 * Method for 'poping' first element. If queue is empty, method waits
+	 * until some element is added, but not longer than given time. Only one
+	 * thread should wait at the same time.
+	 * 
+	 * @param timeout
+	 *            maximal time of waiting
+	 * @param unit
+	 *            unit of timeout
+	 * @return element or null if time passed and queue is still empty
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	@Override
+	public E poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (true) {
+			E element = poll();
+			if (element != null)
+				return element;
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0)
+				return null;
+			waitingConsumer.set(Thread.currentThread());
+			try {
+				element = poll();
+				if (element != null)
+					return element;
+				LockSupport.parkNanos(this, remaining);
+				if (Thread.interrupted())
+					throw new InterruptedException();
+			} finally {
+				waitingConsumer.set(null);
+			}
+		}
+	}
+
+	/**
+	 * Method for 'poping' all available elements, but not more than given
+	 * number, into given collection.
+	 * 
+	 * @param collection
+	 *            collection to which elements are added
+	 * @param maxElements
+	 *            maximal number of elements
+	 * @return number of added elements
+	 */
+	@Override
+	public int drainTo(Collection<? super E> collection, int maxElements) {
+		int count = 0;
+		while (count < maxElements) {
+			E element = poll();
+			if (element == null)
+				break;
+			collection.add(element);
+			++count;
+		}
+		return count;
+	}
+
+	/**
+	 * Method for getting copy of elements which are currently in the queue.
+	 * Elements which are added or removed while copying may or may not be in
+	 * the result.
+	 * 
+	 * @return list of elements in queue order
+	 */
+	@Override
+	public List<E> snapshot() {
+		List<E> elements = new ArrayList<>();
+		for (long pos = head.get(), end = tail.get(); pos < end; ++pos) {
+			int index = (int) pos & mask;
+			E element = buffer.get(index);
+			if (element != null && sequences.get(index) == pos + 1)
+				elements.add(element);
+		}
+		return elements;
+	}
+
+	/**
+	 * Method for getting number of elements in queue.
+	 * 
+	 * @return number of elements
+	 */
+	@Override
+	public int size() {
+		while (true) {
+			long headPos = head.get();
+			long tailPos = tail.get();
+			if (headPos == head.get())
+				return (int) Math.max(0, Math.min(tailPos - headPos, capacity()));
+		}
+	}
+
+	/**
+	 * Method for checking if queue is empty.
+	 * 
+	 * @return true if queue is empty, otherwise false
+	 */
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * Method for getting capacity of the queue.
+	 * 
+	 * @return capacity
+	 */
+	@Override
+	public int capacity() {
+		return mask + 1;
+	}
+}
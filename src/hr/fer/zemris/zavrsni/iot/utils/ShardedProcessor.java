@@ -0,0 +1,198 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import hr.fer.zemris.zavrsni.iot.log.Logger;
+
+/**
+ * Processor which splits items between given number of shards by their key.
+ * Every shard has its own thread and its own {@link RingBufferQueue}, so items
+ * with the same key (for example messages for the same thing) are always
+ * processed by the same thread, in order in which they were submitted, and
+ * threads which submit items never wait for each other on a lock. Shard
+ * thread takes all items which are waiting in its queue, up to the batch size,
+ * and gives them to {@link Handler} together. When processor is closed,
+ * items which already wait in queues are still processed.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ * 
+ * @param <T>
+ *            type of items
+ */
+public class ShardedProcessor<T> implements Closeable {
+
+	/** Maximal number of items given to handler at once. */
+	private static final int BATCH_SIZE = 64;
+	/** Longest time in milliseconds for which idle shard thread doesn't check if processor is closed. */
+	private static final long CLOSE_CHECK_INTERVAL = 100;
+	/** Logger of processor. */
+	private static final Logger LOG = Logger.getLogger("engine");
+
+	/** Queues of shards. */
+	private final RingBufferQueue<T>[] queues;
+	/** Threads of shards. */
+	private final Thread[] threads;
+	/** Handler of items. */
+	private final Handler<T> handler;
+	/** Flag if processor is closed. */
+	private volatile boolean closed;
+
+	/**
+	 * Constructor. Shard threads are started immediately.
+	 * 
+	 * @param name
+	 *            name of processor, used for thread names
+	 * @param shards
+	 *            number of shards
+	 * @param capacity
+	 *            capacity of queue of every shard
+	 * @param handler
+	 *            handler of items, called only from shard threads
+	 */
+	@SuppressWarnings("unchecked")
+	public ShardedProcessor(String name, int shards, int capacity, Handler<T> handler) {
+		if (shards < 1)
+			throw new IllegalArgumentException("Number of shards must be positive: " + shards);
+		this.handler = handler;
+		this.queues = (RingBufferQueue<T>[]) new RingBufferQueue<?>[shards];
+		this.threads = new Thread[shards];
+		for (int i = 0; i < shards; ++i) {
+			final RingBufferQueue<T> queue = new RingBufferQueue<>(capacity);
+			queues[i] = queue;
+			threads[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					process(queue);
+				}
+			}, name + "-shard-" + i);
+			threads[i].setDaemon(true);
+			threads[i].start();
+		}
+	}
+
+	/**
+	 * Method for giving item to shard of its key. If queue of the shard is
+	 * full, method waits until there is free space.
+	 * 
+	 * @param key
+	 *            key of item
+	 * @param item
+	 *            item
+	 * @throws InterruptedException
+	 *             if thread is interrupted while waiting
+	 */
+	public void submit(String key, T item) throws InterruptedException {
+		queues[shardOf(key)].put(item);
+	}
+
+	/**
+	 * Method for getting index of shard which processes items with given key.
+	 * 
+	 * @param key
+	 *            key of item
+	 * @return index of shard
+	 */
+	public int shardOf(String key) {
+		int hash = key.hashCode();
+		return ((hash ^ (hash >>> 16)) & Integer.MAX_VALUE) % queues.length;
+	}
+
+	/**
+	 * Method for getting number of shards.
+	 * 
+	 * @return number of shards
+	 */
+	public int getShardCount() {
+		return queues.length;
+	}
+
+	/**
+	 * Method for getting number of items which wait in all shards.
+	 * 
+	 * @return number of items
+	 */
+	public int getQueuedCount() {
+		int count = 0;
+		for (RingBufferQueue<T> queue : queues)
+			count += queue.size();
+		return count;
+	}
+
+	/**
+	 * Method which is run by shard thread. It waits for items and gives them
+	 * to handler until processor is closed and queue is empty, or until
+	 * thread is interrupted.
+	 * 
+	 * @param queue
+	 *            queue of the shard
+	 */
+	private void process(RingBufferQueue<T> queue) {
+		List<T> batch = new ArrayList<>(BATCH_SIZE);
+		try {
+			while (true) {
+				T item = queue.poll(CLOSE_CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+				if (item == null) {
+					if (closed)
+						return;
+					continue;
+				}
+				batch.add(item);
+				queue.drainTo(batch, BATCH_SIZE - 1);
+				try {
+					handler.handle(batch);
+				} catch (RuntimeException e) {
+					LOG.error(Thread.currentThread().getName() + ": " + e);
+				}
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			// thread is stopped, items which wait are not processed
+		}
+	}
+
+	/**
+	 * Method for stopping shard threads. Items which already wait in queues
+	 * are processed first and method returns when all shard threads end.
+	 * Items submitted after that are not processed. Threads aren't
+	 * interrupted, so handler is never interrupted in the middle of batch.
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		for (Thread thread : threads) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Handler of items of one shard.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 * 
+	 * @param <T>
+	 *            type of items
+	 */
+	public interface Handler<T> {
+
+		/**
+		 * Method which is called with items taken from queue of one shard.
+		 * Items are in order in which they were submitted. List is reused
+		 * after method returns.
+		 * 
+		 * @param items
+		 *            items, at least one
+		 */
+		void handle(List<T> items);
+	}
+}
@@ -0,0 +1,141 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.util.Collection;
+
+/**
+ * Hashed timing wheel for timeouts of many items. Time is split into ticks and
+ * every tick has its slot in the wheel; item is put into slot of the tick in
+ * which it expires, together with number of whole turns of the wheel which
+ * have to pass first. Adding item and every tick take constant time no matter
+ * how many items are waiting, because only items of one slot are checked in
+ * every tick. Items can't be cancelled; owner of item should ignore it when
+ * it expires if it isn't needed anymore.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ * 
+ * @param <T>
+ *            type of items
+ */
+public class TimingWheel<T> {
+
+	/** Slots of the wheel, every slot is linked list of its items. */
+	private final Node<T>[] slots;
+	/** Duration of one tick in nanoseconds. */
+	private final long tickNanos;
+	/** Time of tick 0, as {@link System#nanoTime()}. */
+	private final long startTime;
+	/** Last tick which is processed. */
+	private long currentTick;
+	/** Number of items in wheel. */
+	private int size;
+
+	/**
+	 * Constructor.
+	 * 
+	 * @param tickNanos
+	 *            duration of one tick in nanoseconds
+	 * @param slots
+	 *            number of slots in the wheel
+	 */
+	@SuppressWarnings("unchecked")
+	public TimingWheel(long tickNanos, int slots) {
+		if (tickNanos <= 0 || slots <= 0)
+			throw new IllegalArgumentException("Tick and number of slots must be positive");
+		this.slots = (Node<T>[]) new Node<?>[slots];
+		this.tickNanos = tickNanos;
+		this.startTime = System.nanoTime();
+	}
+
+	/**
+	 * Method for adding item which expires after given time. Item expires in
+	 * the first tick which ends after given time, but never before the next
+	 * tick.
+	 * 
+	 * @param item
+	 *            item
+	 * @param delayNanos
+	 *            time after which item expires in nanoseconds
+	 */
+	public synchronized void schedule(T item, long delayNanos) {
+		long now = (System.nanoTime() - startTime) / tickNanos;
+		long ticks = Math.max(1, now + (delayNanos + tickNanos - 1) / tickNanos - currentTick);
+		int slot = (int) ((currentTick + ticks) % slots.length);
+		slots[slot] = new Node<>(item, (ticks - 1) / slots.length, slots[slot]);
+		size++;
+	}
+
+	/**
+	 * Method for processing all ticks which ended until now.
+	 * 
+	 * @param expired
+	 *            collection to which expired items are added
+	 * @return number of expired items
+	 */
+	public synchronized int advance(Collection<? super T> expired) {
+		long now = (System.nanoTime() - startTime) / tickNanos;
+		int count = 0;
+		while (currentTick < now) {
+			currentTick++;
+			int slot = (int) (currentTick % slots.length);
+			Node<T> kept = null;
+			for (Node<T> node = slots[slot], next; node != null; node = next) {
+				next = node.next;
+				if (node.rounds == 0) {
+					expired.add(node.item);
+					count++;
+				} else {
+					node.rounds--;
+					node.next = kept;
+					kept = node;
+				}
+			}
+			slots[slot] = kept;
+		}
+		size -= count;
+		return count;
+	}
+
+	/**
+	 * Method for getting number of items in wheel.
+	 * 
+	 * @return number of items
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Item in slot of the wheel.
+	 * 
+	 * @author Nikola Presečki
+	 * @version 1.0
+	 * 
+	 * @param <T>
+	 *            type of item
+	 */
+	private static class Node<T> {
+		/** Item. */
+		private final T item;
+		/** Number of turns of the wheel before item expires. */
+		private long rounds;
+		/** Next node in the same slot. */
+		private Node<T> next;
+
+		/**
+		 * Constructor.
+		 * 
+		 * @param item
+		 *            item
+		 * @param rounds
+		 *            number of turns of the wheel before item expires
+		 * @param next
+		 *            next node in the same slot
+		 */
+		private Node(T item, long rounds, Node<T> next) {
+			this.item = item;
+			this.rounds = rounds;
+			this.next = next;
+		}
+	}
+}
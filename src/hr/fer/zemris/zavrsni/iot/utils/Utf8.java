@@ -0,0 +1,232 @@
+package hr.fer.zemris.zavrsni.iot.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class contains methods for reading UTF-8 encoded text directly from
+ * {@link ByteBuffer}. Message formats count lengths in characters (as Java
+ * strings do), so these methods work with characters and not with bytes.
+ * Character which is encoded with four bytes counts as two characters.
+ * 
+ * @author Nikola Presečki
+ * @version 1.0
+ */
+public final class Utf8 {
+
+	/** Private constructor for stoping instantiation. */
+	private Utf8() {
+	}
+
+	/**
+	 * Method for getting number of bytes of UTF-8 sequence which starts with
+	 * given byte.
+	 * 
+	 * @param lead
+	 *            first byte of sequence
+	 * @return number of bytes in sequence
+	 */
+	public static int sequenceLength(byte lead) {
+		if (lead >= 0)
+			return 1;
+		if ((lead & 0xE0) == 0xC0)
+			return 2;
+		if ((lead & 0xF0) == 0xE0)
+			return 3;
+		if ((lead & 0xF8) == 0xF0)
+			return 4;
+		// invalid lead byte is treated as one character
+		return 1;
+	}
+
+	/**
+	 * Method for skipping given number of characters in buffer.
+	 * 
+	 * @param buffer
+	 *            buffer whose position is moved
+	 * @param chars
+	 *            number of characters
+	 * @throws IllegalArgumentException
+	 *             if buffer doesn't have enough characters
+	 */
+	public static void skipChars(ByteBuffer buffer, int chars) {
+		int skipped = 0;
+		while (skipped < chars) {
+			if (!buffer.hasRemaining())
+				throw new IllegalArgumentException("Message is too short");
+			int length = sequenceLength(buffer.get(buffer.position()));
+			if (length > buffer.remaining())
+				throw new IllegalArgumentException("Message is too short");
+			buffer.position(buffer.position() + length);
+			skipped += length == 4 ? 2 : 1;
+		}
+	}
+
+	/**
+	 * Method for reading given number of characters from buffer. Characters
+	 * which are ASCII (IDs in messages) are read without any decoder.
+	 * 
+	 * @param buffer
+	 *            buffer from which characters are read
+	 * @param chars
+	 *            number of characters
+	 * @return read string
+	 * @throws IllegalArgumentException
+	 *             if buffer doesn't have enough characters
+	 */
+	public static String readChars(ByteBuffer buffer, int chars) {
+		if (buffer.remaining() < chars)
+			throw new IllegalArgumentException("Message is too short");
+		char[] result = new char[chars];
+		int start = buffer.position();
+		for (int i = 0; i < chars; ++i) {
+			byte b = buffer.get(start + i);
+			if (b < 0) {
+				// not ASCII, decode properly
+				buffer.position(start);
+				skipChars(buffer, chars);
+				return decode(buffer, start, buffer.position());
+			}
+			result[i] = (char) b;
+		}
+		buffer.position(start + chars);
+		return new String(result);
+	}
+
+	/**
+	 * Method for reading all remaining bytes of buffer as string.
+	 * 
+	 * @param buffer
+	 *            buffer from which string is read
+	 * @return read string
+	 */
+	public static String readRemaining(ByteBuffer buffer) {
+		int start = buffer.position();
+		buffer.position(buffer.limit());
+		return decode(buffer, start, buffer.limit());
+	}
+
+	/**
+	 * Method for reading given number of bytes from buffer as string.
+	 * 
+	 * @param buffer
+	 *            buffer from which string is read
+	 * @param length
+	 *            number of bytes
+	 * @return read string
+	 * @throws IllegalArgumentException
+	 *             if buffer doesn't have enough bytes
+	 */
+	public static String readBytes(ByteBuffer buffer, int length) {
+		if (buffer.remaining() < length)
+			throw new IllegalArgumentException("Message is too short");
+		int start = buffer.position();
+		buffer.position(start + length);
+		return decode(buffer, start, start + length);
+	}
+
+	/**
+	 * Method for getting number of characters in UTF-8 encoded bytes.
+	 * 
+	 * @param bytes
+	 *            UTF-8 encoded text
+	 * @return number of characters, as in Java string
+	 */
+	public static int charCount(byte[] bytes) {
+		int chars = 0;
+		for (int i = 0; i < bytes.length; i += sequenceLength(bytes[i]))
+			chars += sequenceLength(bytes[i]) == 4 ? 2 : 1;
+		return chars;
+	}
+
+	/**
+	 * Method for getting number of bytes needed for encoding text as UTF-8.
+	 * 
+	 * @param text
+	 *            text
+	 * @return number of bytes
+	 */
+	public static int encodedLength(String text) {
+		int length = 0;
+		for (int i = 0, len = text.length(); i < len; ++i) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(text.charAt(i + 1))) {
+				length += 4;
+				++i;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Method for writing text encoded as UTF-8 to buffer, without making
+	 * temporary byte array.
+	 * 
+	 * @param buffer
+	 *            buffer to which text is written
+	 * @param text
+	 *            text
+	 */
+	public static void put(ByteBuffer buffer, String text) {
+		for (int i = 0, len = text.length(); i < len; ++i) {
+			char c = text.charAt(i);
+			if (c < 0x80) {
+				buffer.put((byte) c);
+			} else if (c < 0x800) {
+				buffer.put((byte) (0xC0 | c >> 6));
+				buffer.put((byte) (0x80 | c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(text.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, text.charAt(++i));
+				buffer.put((byte) (0xF0 | codePoint >> 18));
+				buffer.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+				buffer.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | codePoint & 0x3F));
+			} else {
+				if (Character.isSurrogate(c))
+					c = '\uFFFD';
+				buffer.put((byte) (0xE0 | c >> 12));
+				buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+				buffer.put((byte) (0x80 | c & 0x3F));
+			}
+		}
+	}
+
+	/**
+	 * Method for reading all remaining bytes of buffer as byte array.
+	 * 
+	 * @param buffer
+	 *            buffer from which bytes are read
+	 * @return read bytes
+	 */
+	public static byte[] readRemainingBytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.get(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Method for decoding part of buffer. Buffer position is not changed.
+	 * 
+	 * @param buffer
+	 *            buffer with data
+	 * @param start
+	 *            index of first byte
+	 * @param end
+	 *            index after last byte
+	 * @return decoded string
+	 */
+	private static String decode(ByteBuffer buffer, int start, int end) {
+		if (buffer.hasArray())
+			return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; ++i)
+			bytes[i] = buffer.get(start + i);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}